@@ -0,0 +1,118 @@
+package gov.ornl.stucco.DBClient;
+
+import gov.ornl.stucco.DBClient.DBConnection.WriteConfirmMode;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.Vertex;
+
+/*
+ * End to end cost of the common writes and reads, against an EmbeddedBackend, so everything but the network is
+ * timed: building the requests, running the scripts on a TinkerGraph, the caches, and confirming the writes.
+ * Write confirmation is NONE or BATCH, since POLL sleeps before its first read-back.
+ * The graph is cleared before each iteration, and then has VERT_COUNT vertices, each with an edge from the hub.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DBConnectionBenchmark {
+
+	private static int VERT_COUNT = 1000;
+
+	@Param({"NONE", "BATCH"})
+	public String confirmMode;
+
+	private EmbeddedBackend backend;
+	private DBConnection c;
+	private String hubId;
+	private String[] vertIds;
+	private long count = 0;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception{
+		backend = EmbeddedBackend.openTinkerGraph();
+		c = new DBConnection(backend);
+		c.createIndices();
+		c.setWriteConfirmMode(WriteConfirmMode.valueOf(confirmMode));
+	}
+
+	@Setup(Level.Iteration)
+	public void fillGraph() throws Exception{
+		//removes all vertices and edges, and the key indices stay.
+		Graph graph = backend.getGraph();
+		for(Vertex v : graph.getVertices()){
+			graph.removeVertex(v);
+		}
+		c.getVertIDCache().clear();
+		c.getNegativeLookupCache().clear();
+		c.addVertexFromMap(vert("hub", "IP"));
+		hubId = c.findVertId("hub");
+		vertIds = new String[VERT_COUNT];
+		for(int i=0; i<VERT_COUNT; i++){
+			c.addVertexFromMap(vert("v" + i, "port"));
+			vertIds[i] = c.findVertId("v" + i);
+			c.addEdgeFromJSON(edge("hub", "v" + i));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		backend.close();
+	}
+
+	@Benchmark
+	public boolean addVertexFromMap() throws Exception{
+		return c.addVertexFromMap(vert("new" + (count++), "IP"));
+	}
+
+	//new edges between the existing vertices, VERT_COUNT * VERT_COUNT of them before any repeat.
+	@Benchmark
+	public boolean addEdgeFromJSON() throws Exception{
+		long n = count++;
+		return c.addEdgeFromJSON(edge("v" + ((n / VERT_COUNT) % VERT_COUNT), "v" + (n % VERT_COUNT)));
+	}
+
+	@Benchmark
+	public int getEdgeCount() throws Exception{
+		return c.getEdgeCount(vertIds[(int)((count++) % VERT_COUNT)], hubId, "hasPort");
+	}
+
+	private static Map<String, Object> vert(String name, String type){
+		Map<String, Object> vert = new HashMap<String, Object>();
+		vert.put("_id", name);
+		vert.put("name", name);
+		vert.put("vertexType", type);
+		vert.put("source", "benchmark");
+		return vert;
+	}
+
+	private static JSONObject edge(String outName, String inName){
+		JSONObject edge = new JSONObject();
+		edge.put("_id", outName + "_to_" + inName);
+		edge.put("_outV", outName);
+		edge.put("_inV", inName);
+		edge.put("_label", "hasPort");
+		return edge;
+	}
+}
@@ -0,0 +1,57 @@
+package gov.ornl.stucco.DBClient;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Cost of converting JSON vertices and arrays to the maps and lists sent to the server.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonConversionBenchmark {
+
+	private DBConnection c;
+	private JSONObject vert;
+	private JSONArray array;
+
+	@Setup
+	public void setup(){
+		c = new DBConnection(EmbeddedBackend.openTinkerGraph());
+		vert = new JSONObject("{\"_id\":\"10.10.10.1:80_to_10.10.10.2:1234\",\"_type\":\"vertex\",\"vertexType\":\"flow\","
+				+ "\"name\":\"10.10.10.1:80_to_10.10.10.2:1234\",\"source\":[\"Argus\",\"Hone\"],\"startTime\":1373553312,"
+				+ "\"totBytes\":3426,\"totPkts\":18,\"proto\":\"tcp\",\"flags\":\" e d\",\"state\":\"FIN\",\"appBytes\":1234,"
+				+ "\"dstBytes\":2112,\"srcBytes\":1314,\"description\":\"flow from 10.10.10.1:80 to 10.10.10.2:1234\"}");
+		array = new JSONArray();
+		for(int i=0; i<50; i++){
+			array.put("value" + i);
+		}
+	}
+
+	@Benchmark
+	public Map<String, Object> jsonVertToMap(){
+		return c.jsonVertToMap(vert);
+	}
+
+	@Benchmark
+	public List<Object> jsonArrayToList(){
+		return c.jsonArrayToList(array);
+	}
+}
@@ -0,0 +1,70 @@
+package gov.ornl.stucco.DBClient;
+
+import gov.ornl.stucco.DBClient.Constraint.Condition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Client side cost of findAllVertsWithProps(): building the constraint params, binding the script template, and the
+ * bookkeeping around each request.  The backend answers every request at once with no results, so nothing else is timed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBuildingBenchmark {
+
+	private DBConnection c;
+	private List<Constraint> oneConstraint;
+	private List<Constraint> fourConstraints;
+
+	@Setup
+	public void setup(){
+		GraphBackend backend = new GraphBackend(){
+			public <T> List<T> execute(String script, Map<String, Object> params){
+				return Collections.emptyList();
+			}
+			public void beginSession(){
+			}
+			public void endSession(){
+			}
+			public void close(){
+			}
+		};
+		c = new DBConnection(backend);
+		oneConstraint = new ArrayList<Constraint>();
+		oneConstraint.add(new Constraint("vertexType", Condition.eq, "IP"));
+		fourConstraints = new ArrayList<Constraint>();
+		fourConstraints.add(new Constraint("vertexType", Condition.eq, "addressRange"));
+		fourConstraints.add(new Constraint("startIPInt", Condition.lte, 167772161L));
+		fourConstraints.add(new Constraint("endIPInt", Condition.gte, 167772161L));
+		fourConstraints.add(new Constraint("source", Condition.in, new ArrayList<String>(Collections.singletonList("LDAP"))));
+	}
+
+	@Benchmark
+	public List<Map<String, Object>> findAllVertsWithPropsOneConstraint() throws Exception{
+		return c.findAllVertsWithProps(oneConstraint);
+	}
+
+	@Benchmark
+	public List<Map<String, Object>> findAllVertsWithPropsFourConstraints() throws Exception{
+		return c.findAllVertsWithProps(fourConstraints);
+	}
+}
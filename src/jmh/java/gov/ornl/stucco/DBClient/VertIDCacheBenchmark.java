@@ -0,0 +1,101 @@
+package gov.ornl.stucco.DBClient;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * VertIDCache gets and puts from several threads at once, on a full cache, so every put of a new name evicts one.
+ * The mixed group has three threads reading while one writes, like a loader looking up names as it adds vertices.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VertIDCacheBenchmark {
+
+	@Param({"10000"})
+	public int capacity;
+
+	private VertIDCache cache;
+	private String[] cached; //names put in the cache by setup (a few are evicted, since each segment is bounded on its own)
+	private String[] uncached; //names never put in the cache
+	private String[] added; //names for puts, 4 times the capacity so most are new when put
+
+	//where each thread is in the name arrays, starting at a random place so threads don't move in step.
+	@State(Scope.Thread)
+	public static class Cursor{
+		int i = new Random().nextInt(1 << 20);
+
+		int next(int length){
+			i++;
+			return (i & Integer.MAX_VALUE) % length;
+		}
+	}
+
+	@Setup
+	public void setup(){
+		cache = new VertIDCache(capacity);
+		cached = new String[capacity];
+		uncached = new String[capacity];
+		added = new String[capacity * 4];
+		for(int i=0; i<capacity; i++){
+			cached[i] = "cached_" + i;
+			uncached[i] = "uncached_" + i;
+			cache.put(cached[i], String.valueOf(i));
+		}
+		for(int i=0; i<added.length; i++){
+			added[i] = "added_" + i;
+		}
+	}
+
+	@Benchmark
+	@Threads(4)
+	public String getHit(Cursor cursor){
+		return cache.get(cached[cursor.next(cached.length)]);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public String getMiss(Cursor cursor){
+		return cache.get(uncached[cursor.next(uncached.length)]);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void putEvicting(Cursor cursor){
+		int i = cursor.next(added.length);
+		cache.put(added[i], String.valueOf(i));
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(3)
+	public String mixedGet(Cursor cursor){
+		return cache.get(added[cursor.next(added.length)]);
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(1)
+	public void mixedPut(Cursor cursor){
+		int i = cursor.next(added.length);
+		cache.put(added[i], String.valueOf(i));
+	}
+}
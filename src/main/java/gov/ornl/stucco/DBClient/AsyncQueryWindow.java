@@ -0,0 +1,174 @@
+package gov.ornl.stucco.DBClient;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.configuration.Configuration;
+
+import com.tinkerpop.rexster.client.RexsterClientTokens;
+
+/*
+ * Bounded window of queries in flight at once, used by the DBConnection *Async() methods.
+ *
+ * At most maxInFlight queries run at once, and the (estimated) size of the requests in flight is kept under
+ * max-async-write-queue-size, so the client's write queue is not overrun.  When the window is full, submit() blocks
+ * until there is room, for up to timeout-read-ms, then throws IOException.
+ * RexsterClient matches responses to requests by id, so queries sharing one client are pipelined over its connection.
+ */
+public class AsyncQueryWindow {
+
+	private static int DEFAULT_MAX_IN_FLIGHT = 16;
+	private static int DEFAULT_TIMEOUT_READ_MS = 16000;
+	private static int DEFAULT_MAX_QUEUED_BYTES = 512000;
+
+	private final int maxInFlight;
+	private final int maxQueuedBytes;
+	private final long timeoutMs;
+	private final Semaphore slots;
+	private final Semaphore bytes;
+	private final ExecutorService executor;
+
+	private final AtomicInteger inFlight = new AtomicInteger(0);
+	private final AtomicInteger peakInFlight = new AtomicInteger(0);
+	private final AtomicLong submitted = new AtomicLong(0);
+	private final AtomicLong failed = new AtomicLong(0);
+
+	public AsyncQueryWindow(){
+		this(DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_QUEUED_BYTES, DEFAULT_TIMEOUT_READ_MS);
+	}
+
+	public AsyncQueryWindow(int maxInFlight, int maxQueuedBytes, long timeoutMs){
+		if(maxInFlight < 1 || maxQueuedBytes < 1)
+			throw new IllegalArgumentException("window size and queue size must be at least 1, were " + maxInFlight + " and " + maxQueuedBytes);
+		this.maxInFlight = maxInFlight;
+		this.maxQueuedBytes = maxQueuedBytes;
+		this.timeoutMs = timeoutMs;
+		this.slots = new Semaphore(maxInFlight, true);
+		this.bytes = new Semaphore(maxQueuedBytes, true);
+		this.executor = Executors.newFixedThreadPool(maxInFlight, new ThreadFactory(){
+			private final AtomicInteger count = new AtomicInteger(0);
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "DBConnection-async-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/*
+	 * uses the timeout-read-ms and max-async-write-queue-size settings from configOpts (as loaded by DBConnection.dbConfigFromFile())
+	 */
+	public static AsyncQueryWindow fromConfig(Configuration configOpts, int maxInFlight){
+		int timeout = configOpts.getInt(RexsterClientTokens.CONFIG_TIMEOUT_READ_MS, DEFAULT_TIMEOUT_READ_MS);
+		int queueBytes = configOpts.getInt(RexsterClientTokens.CONFIG_MAX_ASYNC_WRITE_QUEUE_BYTES, DEFAULT_MAX_QUEUED_BYTES);
+		return new AsyncQueryWindow(maxInFlight, queueBytes, timeout);
+	}
+
+	public static AsyncQueryWindow fromConfig(Configuration configOpts){
+		return fromConfig(configOpts, DEFAULT_MAX_IN_FLIGHT);
+	}
+
+	/*
+	 * Runs the task once there is room in the window.  sizeEstimate is roughly how many bytes its request(s) will send.
+	 */
+	public <T> Future<T> submit(Callable<T> task, int sizeEstimate) throws IOException{
+		final int size = Math.max(1, Math.min(sizeEstimate, maxQueuedBytes));
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+		try{
+			if(!slots.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS))
+				throw new IOException("timed out after " + timeoutMs + " ms waiting for room in the async window (" + maxInFlight + " queries in flight)");
+			long remaining = deadline - System.nanoTime();
+			if(!bytes.tryAcquire(size, Math.max(0, remaining), TimeUnit.NANOSECONDS)){
+				slots.release();
+				throw new IOException("timed out after " + timeoutMs + " ms waiting for room in the async write queue");
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for room in the async window");
+		}
+		int current = inFlight.incrementAndGet();
+		int peak = peakInFlight.get();
+		while(current > peak && !peakInFlight.compareAndSet(peak, current)){
+			peak = peakInFlight.get();
+		}
+		submitted.incrementAndGet();
+
+		FutureTask<T> future = new FutureTask<T>(task){
+			protected void setException(Throwable t){
+				failed.incrementAndGet();
+				super.setException(t);
+			}
+			protected void done(){
+				inFlight.decrementAndGet();
+				bytes.release(size);
+				slots.release();
+			}
+		};
+		try{
+			executor.execute(future);
+		}catch(RuntimeException e){
+			future.cancel(false);
+			throw new IOException("async window is shut down");
+		}
+		return future;
+	}
+
+	/*
+	 * already completed future, for results which did not need a query (eg. cache hits.)
+	 */
+	public static <T> Future<T> completed(T value){
+		FutureTask<T> future = new FutureTask<T>(new Runnable(){ public void run(){} }, value);
+		future.run();
+		return future;
+	}
+
+	public int getMaxInFlight(){
+		return maxInFlight;
+	}
+
+	public int getMaxQueuedBytes(){
+		return maxQueuedBytes;
+	}
+
+	public long getTimeoutMs(){
+		return timeoutMs;
+	}
+
+	public int getInFlight(){
+		return inFlight.get();
+	}
+
+	public int getPeakInFlight(){
+		return peakInFlight.get();
+	}
+
+	public long getSubmittedCount(){
+		return submitted.get();
+	}
+
+	public long getFailedCount(){
+		return failed.get();
+	}
+
+	public String toString(){
+		return "AsyncQueryWindow[maxInFlight=" + maxInFlight + ", maxQueuedBytes=" + maxQueuedBytes + ", timeoutMs=" + timeoutMs +
+				", inFlight=" + getInFlight() + ", peakInFlight=" + getPeakInFlight() + ", submitted=" + getSubmittedCount() +
+				", failed=" + getFailedCount() + "]";
+	}
+
+	/*
+	 * queries already submitted still finish, but no new ones are accepted.
+	 */
+	public void shutdown(){
+		executor.shutdown();
+	}
+}
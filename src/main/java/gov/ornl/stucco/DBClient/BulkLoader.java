@@ -0,0 +1,641 @@
+package gov.ornl.stucco.DBClient;
+
+import gov.ornl.stucco.DBClient.DBConnection.EdgeAddResult;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.commons.configuration.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tinkerpop.rexster.client.RexProException;
+import com.tinkerpop.rexster.client.RexsterClient;
+
+/*
+ * Loads vertices and edges with several worker threads, each with its own connection.
+ *
+ * Vertices are partitioned by the hash of their name, and edges by the name of their out vertex, so each worker's
+ * VertIDCache has the ids of its edges' out vertices, and workers share no state.  The in vertices are on other
+ * workers for all but 1/workers of the edges, so those ids miss the cache and are found by name, in the same request
+ * that adds the edges.  Each worker has a bounded queue of batches, so addVertices() / addEdges() block when the
+ * workers fall behind.
+ * Edges only start once all the vertices added before them are committed: addEdges() waits for the vertex batches
+ * still queued or running.
+ * Failed batches are retried up to retryLimit times.  Vertices which were added by a failed try are skipped by the
+ * retry, and edges are checked for duplicates anyway, so retries don't add anything twice.  Batches which still fail
+ * are counted and logged, and the load goes on.
+ */
+public class BulkLoader implements Closeable {
+
+	private static int DEFAULT_BATCH_SIZE = 500;
+	private static int DEFAULT_QUEUE_BATCHES = 4; //batches queued per worker, besides the one it is working on
+	private static int DEFAULT_RETRY_LIMIT = 3;
+	private static long RETRY_WAIT_MS = 500; //times the try number
+
+	private enum Kind{ VERTICES, EDGES, STOP }
+
+	private static class Batch{
+		final Kind kind;
+		final List<Map<String, Object>> elements;
+		Batch(Kind kind, List<Map<String, Object>> elements){
+			this.kind = kind;
+			this.elements = elements;
+		}
+	}
+
+	private final Logger logger = LoggerFactory.getLogger(BulkLoader.class);
+	private final Worker[] workers;
+	private final List<RexsterClient> ownedClients;
+	private final int batchSize;
+	private final int retryLimit;
+	private final long startTime = System.currentTimeMillis();
+	private final Object pendingLock = new Object();
+	private long pendingVertBatches = 0;
+	private long pendingEdgeBatches = 0;
+	private boolean vertsSinceBarrier = false;
+	private boolean closed = false;
+
+	/*
+	 * one worker per connection.  The connections should not be used by anything else during the load.
+	 */
+	public BulkLoader(List<DBConnection> connections){
+		this(sinks(connections), DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_BATCHES, DEFAULT_RETRY_LIMIT, null);
+	}
+
+	private BulkLoader(List<GraphSONLoader.Sink> sinks, int batchSize, int queueBatches, int retryLimit, List<RexsterClient> ownedClients){
+		if(sinks == null || sinks.isEmpty())
+			throw new IllegalArgumentException("bulk loader needs at least one worker");
+		if(batchSize < 1 || queueBatches < 1 || retryLimit < 0)
+			throw new IllegalArgumentException("batch size and queue size must be at least 1, and retry limit at least 0, were " +
+					batchSize + ", " + queueBatches + " and " + retryLimit);
+		this.batchSize = batchSize;
+		this.retryLimit = retryLimit;
+		this.ownedClients = (ownedClients == null) ? Collections.<RexsterClient>emptyList() : ownedClients;
+		workers = new Worker[sinks.size()];
+		for(int i=0; i<workers.length; i++){
+			workers[i] = new Worker(i, sinks.get(i), queueBatches);
+		}
+		for(Worker worker : workers){
+			worker.thread.start();
+		}
+	}
+
+	/*
+	 * Creates workerCount connections from configOpts, which are closed by close().
+	 */
+	public static BulkLoader create(Configuration configOpts, int workerCount) throws IOException{
+		List<RexsterClient> clients = new ArrayList<RexsterClient>(workerCount);
+		List<DBConnection> connections = new ArrayList<DBConnection>(workerCount);
+		boolean created = false;
+		try{
+			for(int i=0; i<workerCount; i++){
+				RexsterClient client = DBConnection.createClient(configOpts);
+				clients.add(client);
+				connections.add(new DBConnection(client));
+			}
+			BulkLoader loader = new BulkLoader(sinks(connections), DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_BATCHES, DEFAULT_RETRY_LIMIT, clients);
+			created = true;
+			return loader;
+		}finally{
+			if(!created){
+				for(RexsterClient c : clients){
+					DBConnection.closeClient(c);
+				}
+			}
+		}
+	}
+
+	/*
+	 * one worker per sink, mostly for testing.
+	 */
+	public static BulkLoader withSinks(List<GraphSONLoader.Sink> sinks, int batchSize, int queueBatches, int retryLimit){
+		return new BulkLoader(sinks, batchSize, queueBatches, retryLimit, null);
+	}
+
+	private static List<GraphSONLoader.Sink> sinks(List<DBConnection> connections){
+		List<GraphSONLoader.Sink> sinks = new ArrayList<GraphSONLoader.Sink>(connections.size());
+		for(DBConnection c : connections){
+			sinks.add(new ConnectionSink(c));
+		}
+		return sinks;
+	}
+
+	public int getWorkerCount(){
+		return workers.length;
+	}
+
+	/*
+	 * queues the vertices on their workers, blocking while a worker's queue is full.
+	 */
+	public synchronized void addVertices(List<Map<String, Object>> verts) throws IOException{
+		checkOpen();
+		for(Map<String, Object> vert : verts){
+			String name = (String)vert.get("name");
+			if(name == null || name.equals(""))
+				name = (String)vert.get("_id");
+			Worker worker = workers[partition(name)];
+			worker.vertBuffer.add(vert);
+			if(worker.vertBuffer.size() >= batchSize)
+				flushVertices(worker);
+		}
+	}
+
+	/*
+	 * queues the edges on their workers, blocking while a worker's queue is full.  Waits first for any vertices added
+	 * since the last call.
+	 */
+	public synchronized void addEdges(List<Map<String, Object>> edges) throws IOException{
+		checkOpen();
+		if(vertsSinceBarrier)
+			awaitVertices();
+		for(Map<String, Object> edge : edges){
+			Worker worker = workers[partition((String)edge.get("_outV"))];
+			worker.edgeBuffer.add(edge);
+			if(worker.edgeBuffer.size() >= batchSize)
+				flushEdges(worker);
+		}
+	}
+
+	/*
+	 * sends any partial batches, and waits until all vertices added so far are done.
+	 */
+	public synchronized void awaitVertices() throws IOException{
+		for(Worker worker : workers){
+			flushVertices(worker);
+		}
+		synchronized(pendingLock){
+			while(pendingVertBatches > 0){
+				waitPending();
+			}
+		}
+		vertsSinceBarrier = false;
+	}
+
+	/*
+	 * sends any partial batches, waits until everything added so far is done, and returns the stats.
+	 */
+	public synchronized Stats finish() throws IOException{
+		awaitVertices();
+		for(Worker worker : workers){
+			flushEdges(worker);
+		}
+		synchronized(pendingLock){
+			while(pendingEdgeBatches > 0){
+				waitPending();
+			}
+		}
+		Stats stats = getStats();
+		logger.info("BulkLoader finished: " + stats);
+		return stats;
+	}
+
+	/*
+	 * Streams a GraphSON file through the workers (see GraphSONLoader), and waits for it to finish.
+	 */
+	public Stats load(File file) throws RexProException, IOException{
+		GraphSONLoader loader = new GraphSONLoader(new GraphSONLoader.Sink(){
+			public int addVertices(List<Map<String, Object>> verts) throws IOException{
+				BulkLoader.this.addVertices(verts);
+				return verts.size();
+			}
+			public List<EdgeAddResult> addEdges(List<Map<String, Object>> edges) throws IOException{
+				BulkLoader.this.addEdges(edges);
+				return null;
+			}
+		});
+		loader.setBatchSize(batchSize * workers.length);
+		loader.load(file);
+		return finish();
+	}
+
+	/*
+	 * sends any partial batches and waits for them (see finish()), stops the workers, and closes any connections made
+	 * by create().
+	 */
+	public void close(){
+		synchronized(this){
+			if(closed)
+				return;
+			try{
+				finish();
+			}catch(IOException e){
+				int dropped = 0;
+				for(Worker worker : workers){
+					dropped += worker.vertBuffer.size() + worker.edgeBuffer.size();
+				}
+				logger.warn("BulkLoader closed before its last batches were done, " + dropped + " elements were not sent: " + e);
+			}
+			closed = true;
+		}
+		for(Worker worker : workers){
+			try{
+				worker.queue.put(new Batch(Kind.STOP, null));
+				worker.thread.join();
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		for(RexsterClient client : ownedClients){
+			DBConnection.closeClient(client);
+		}
+	}
+
+	public Stats getStats(){
+		List<WorkerStats> stats = new ArrayList<WorkerStats>(workers.length);
+		for(Worker worker : workers){
+			stats.add(worker.stats.copy(worker.queue.size()));
+		}
+		return new Stats(stats, System.currentTimeMillis() - startTime);
+	}
+
+	private int partition(String name){
+		if(name == null)
+			return 0;
+		return (name.hashCode() & Integer.MAX_VALUE) % workers.length;
+	}
+
+	private void checkOpen() throws IOException{
+		if(closed)
+			throw new IOException("bulk loader is closed");
+	}
+
+	private void flushVertices(Worker worker) throws IOException{
+		if(worker.vertBuffer.isEmpty())
+			return;
+		synchronized(pendingLock){
+			pendingVertBatches++;
+		}
+		vertsSinceBarrier = true;
+		enqueue(worker, new Batch(Kind.VERTICES, worker.vertBuffer));
+		worker.vertBuffer = new ArrayList<Map<String, Object>>(batchSize);
+	}
+
+	private void flushEdges(Worker worker) throws IOException{
+		if(worker.edgeBuffer.isEmpty())
+			return;
+		synchronized(pendingLock){
+			pendingEdgeBatches++;
+		}
+		enqueue(worker, new Batch(Kind.EDGES, worker.edgeBuffer));
+		worker.edgeBuffer = new ArrayList<Map<String, Object>>(batchSize);
+	}
+
+	private void enqueue(Worker worker, Batch batch) throws IOException{
+		try{
+			worker.queue.put(batch);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			batchDone(batch);
+			throw new IOException("interrupted while waiting for room in the queue of worker " + worker.index);
+		}
+	}
+
+	private void batchDone(Batch batch){
+		synchronized(pendingLock){
+			if(batch.kind == Kind.VERTICES)
+				pendingVertBatches--;
+			else
+				pendingEdgeBatches--;
+			pendingLock.notifyAll();
+		}
+	}
+
+	private void waitPending() throws IOException{
+		try{
+			pendingLock.wait();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for workers");
+		}
+	}
+
+	private class Worker implements Runnable{
+		final int index;
+		final GraphSONLoader.Sink sink;
+		final BlockingQueue<Batch> queue;
+		final Thread thread;
+		final WorkerStats stats;
+		//only used by the adding thread, under the BulkLoader lock
+		List<Map<String, Object>> vertBuffer = new ArrayList<Map<String, Object>>();
+		List<Map<String, Object>> edgeBuffer = new ArrayList<Map<String, Object>>();
+
+		Worker(int index, GraphSONLoader.Sink sink, int queueBatches){
+			this.index = index;
+			this.sink = sink;
+			this.queue = new ArrayBlockingQueue<Batch>(queueBatches);
+			this.stats = new WorkerStats(index);
+			this.thread = new Thread(this, "BulkLoader-worker-" + index);
+			this.thread.setDaemon(true);
+		}
+
+		public void run(){
+			while(true){
+				Batch batch;
+				try{
+					batch = queue.take();
+				}catch(InterruptedException e){
+					return;
+				}
+				if(batch.kind == Kind.STOP)
+					return;
+				long start = System.currentTimeMillis();
+				stats.batchStarted(batch.kind);
+				try{
+					if(batch.kind == Kind.VERTICES)
+						loadVertices(batch.elements);
+					else
+						loadEdges(batch.elements);
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+					stats.batchFailed(batch.kind, batch.elements.size());
+					batchDone(batch);
+					return;
+				}finally{
+					stats.addBusyTime(System.currentTimeMillis() - start);
+				}
+				batchDone(batch);
+			}
+		}
+
+		private void loadVertices(List<Map<String, Object>> verts) throws InterruptedException{
+			for(int tryCount=0; tryCount<=retryLimit; tryCount++){
+				if(tryCount > 0){
+					stats.retried();
+					Thread.sleep(RETRY_WAIT_MS * tryCount);
+				}
+				try{
+					int added = sink.addVertices(verts);
+					if(added >= 0){
+						stats.vertsAdded(added);
+						return;
+					}
+					logger.warn("worker " + index + " could not add " + verts.size() + " vertices, try " + (tryCount + 1));
+				}catch(Exception e){
+					logger.warn("worker " + index + " could not add " + verts.size() + " vertices, try " + (tryCount + 1) + ": " + e);
+				}
+			}
+			logger.warn("worker " + index + " gave up on " + verts.size() + " vertices");
+			stats.batchFailed(Kind.VERTICES, verts.size());
+		}
+
+		private void loadEdges(List<Map<String, Object>> edges) throws InterruptedException{
+			List<Map<String, Object>> remaining = edges;
+			for(int tryCount=0; tryCount<=retryLimit; tryCount++){
+				if(tryCount > 0){
+					stats.retried();
+					Thread.sleep(RETRY_WAIT_MS * tryCount);
+				}
+				try{
+					List<EdgeAddResult> results = sink.addEdges(remaining);
+					List<Map<String, Object>> failed = new ArrayList<Map<String, Object>>();
+					for(int i=0; i<results.size(); i++){
+						if(results.get(i) == EdgeAddResult.FAILED)
+							failed.add(remaining.get(i));
+						else
+							stats.edgeResult(results.get(i));
+					}
+					if(failed.isEmpty())
+						return;
+					logger.warn("worker " + index + " could not add " + failed.size() + " edges, try " + (tryCount + 1));
+					remaining = failed;
+				}catch(Exception e){
+					logger.warn("worker " + index + " could not add " + remaining.size() + " edges, try " + (tryCount + 1) + ": " + e);
+				}
+			}
+			logger.warn("worker " + index + " gave up on " + remaining.size() + " edges");
+			stats.batchFailed(Kind.EDGES, remaining.size());
+		}
+	}
+
+	/*
+	 * Adds to one DBConnection.  After a failed try, vertices which were added anyway are skipped.
+	 */
+	private static class ConnectionSink implements GraphSONLoader.Sink{
+		private final DBConnection c;
+		private boolean lastFailed = false;
+
+		ConnectionSink(DBConnection c){
+			this.c = c;
+		}
+
+		public int addVertices(List<Map<String, Object>> verts) throws RexProException, IOException{
+			List<Map<String, Object>> toAdd = verts;
+			if(lastFailed){
+				List<String> names = new ArrayList<String>(verts.size());
+				for(Map<String, Object> vert : verts){
+					String name = (String)vert.get("name");
+					names.add((name == null || name.equals("")) ? (String)vert.get("_id") : name);
+				}
+				Map<String, String> existing = c.findVertIds(names);
+				toAdd = new ArrayList<Map<String, Object>>();
+				for(int i=0; i<verts.size(); i++){
+					if(existing.get(names.get(i)) == null)
+						toAdd.add(verts.get(i));
+				}
+			}
+			lastFailed = true;
+			int added = 0;
+			if(!toAdd.isEmpty()){
+				Map<String, String> ids = c.addVerticesFromMaps(toAdd);
+				if(ids == null)
+					return -1;
+				added = ids.size();
+			}
+			lastFailed = false;
+			return added;
+		}
+
+		public List<EdgeAddResult> addEdges(List<Map<String, Object>> edges) throws RexProException, IOException{
+			return c.addEdgesFromMaps(edges);
+		}
+	}
+
+	/*
+	 * counts for one worker.
+	 */
+	public static class WorkerStats {
+		private final int worker;
+		private long vertBatches = 0;
+		private long vertsAdded = 0;
+		private long vertsFailed = 0;
+		private long edgeBatches = 0;
+		private final long[] edgeResults = new long[EdgeAddResult.values().length];
+		private long retries = 0;
+		private long failedBatches = 0;
+		private long busyMs = 0;
+		private int queued = 0;
+
+		private WorkerStats(int worker){
+			this.worker = worker;
+		}
+
+		private synchronized void batchStarted(Kind kind){
+			if(kind == Kind.VERTICES)
+				vertBatches++;
+			else
+				edgeBatches++;
+		}
+
+		private synchronized void vertsAdded(int count){
+			vertsAdded += count;
+		}
+
+		private synchronized void edgeResult(EdgeAddResult result){
+			edgeResults[result.ordinal()]++;
+		}
+
+		private synchronized void retried(){
+			retries++;
+		}
+
+		private synchronized void batchFailed(Kind kind, int count){
+			failedBatches++;
+			if(kind == Kind.VERTICES)
+				vertsFailed += count;
+			else
+				edgeResults[EdgeAddResult.FAILED.ordinal()] += count;
+		}
+
+		private synchronized void addBusyTime(long ms){
+			busyMs += ms;
+		}
+
+		private synchronized WorkerStats copy(int queued){
+			WorkerStats copy = new WorkerStats(worker);
+			copy.vertBatches = vertBatches;
+			copy.vertsAdded = vertsAdded;
+			copy.vertsFailed = vertsFailed;
+			copy.edgeBatches = edgeBatches;
+			System.arraycopy(edgeResults, 0, copy.edgeResults, 0, edgeResults.length);
+			copy.retries = retries;
+			copy.failedBatches = failedBatches;
+			copy.busyMs = busyMs;
+			copy.queued = queued;
+			return copy;
+		}
+
+		public int getWorker(){
+			return worker;
+		}
+
+		public long getVertBatchCount(){
+			return vertBatches;
+		}
+
+		public long getVertsAdded(){
+			return vertsAdded;
+		}
+
+		public long getVertsFailed(){
+			return vertsFailed;
+		}
+
+		public long getEdgeBatchCount(){
+			return edgeBatches;
+		}
+
+		//edges which had this result.  FAILED includes edges in batches which were given up on.
+		public long getEdgeCount(EdgeAddResult result){
+			return edgeResults[result.ordinal()];
+		}
+
+		public long getRetryCount(){
+			return retries;
+		}
+
+		//batches given up on after retryLimit retries
+		public long getFailedBatchCount(){
+			return failedBatches;
+		}
+
+		//time spent loading (as opposed to waiting for batches)
+		public long getBusyMs(){
+			return busyMs;
+		}
+
+		//batches waiting in the queue when the stats were taken
+		public int getQueuedBatches(){
+			return queued;
+		}
+
+		public String toString(){
+			return "[worker " + worker + ": " + vertBatches + " vertex batches, " + edgeBatches + " edge batches, " + vertsAdded + " vertices added, " + vertsFailed + " failed, " +
+					edgeResults[EdgeAddResult.ADDED.ordinal()] + " edges added, " + edgeResults[EdgeAddResult.DUPLICATE.ordinal()] + " duplicate, " +
+					edgeResults[EdgeAddResult.MISSING_ENDPOINT.ordinal()] + " missing endpoint, " + edgeResults[EdgeAddResult.FAILED.ordinal()] + " failed, " +
+					retries + " retries, " + failedBatches + " failed batches, busy " + busyMs + " ms, " + queued + " queued]";
+		}
+	}
+
+	/*
+	 * counts for all workers, and throughput since the loader was created.
+	 */
+	public static class Stats {
+		private final List<WorkerStats> workers;
+		private final long elapsedMs;
+
+		private Stats(List<WorkerStats> workers, long elapsedMs){
+			this.workers = Collections.unmodifiableList(workers);
+			this.elapsedMs = elapsedMs;
+		}
+
+		public List<WorkerStats> getWorkerStats(){
+			return workers;
+		}
+
+		public long getElapsedMs(){
+			return elapsedMs;
+		}
+
+		public long getVertsAdded(){
+			long total = 0;
+			for(WorkerStats w : workers){
+				total += w.getVertsAdded();
+			}
+			return total;
+		}
+
+		public long getVertsFailed(){
+			long total = 0;
+			for(WorkerStats w : workers){
+				total += w.getVertsFailed();
+			}
+			return total;
+		}
+
+		public long getEdgeCount(EdgeAddResult result){
+			long total = 0;
+			for(WorkerStats w : workers){
+				total += w.getEdgeCount(result);
+			}
+			return total;
+		}
+
+		public long getRetryCount(){
+			long total = 0;
+			for(WorkerStats w : workers){
+				total += w.getRetryCount();
+			}
+			return total;
+		}
+
+		//vertices plus edges added per second
+		public double getElementsPerSecond(){
+			return (getVertsAdded() + getEdgeCount(EdgeAddResult.ADDED)) * 1000.0 / Math.max(1, elapsedMs);
+		}
+
+		public String toString(){
+			return getVertsAdded() + " vertices added, " + getVertsFailed() + " failed, " + getEdgeCount(EdgeAddResult.ADDED) + " edges added, " +
+					getEdgeCount(EdgeAddResult.FAILED) + " failed, " + getRetryCount() + " retries, in " + elapsedMs + " ms (" +
+					String.format("%.0f", getElementsPerSecond()) + " elements/s) " + workers;
+		}
+	}
+}
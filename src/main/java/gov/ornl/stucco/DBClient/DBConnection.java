@@ -12,14 +12,20 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import org.apache.commons.configuration.BaseConfiguration;
 import org.apache.commons.configuration.Configuration;
@@ -42,17 +48,237 @@ import com.tinkerpop.blueprints.*;
 
 public class DBConnection {
 
-	private RexsterClient client = null;
+	private GraphBackend backend = null; //runs every query, see RexProBackend and EmbeddedBackend
 	private Logger logger = null;
-	private Map<String, String> vertIDCache = null; //TODO could really split this into a simple cache class.
-	private Set<String> vertIDCacheRecentlyRead = null;
+	private VertIDCache vertIDCache = null;
+	private volatile NegativeLookupCache negativeLookupCache = null; //names recently looked up and not found, null (the default) for none.
+	private AsyncQueryWindow asyncWindow = null; //created when first needed, see getAsyncWindow()
+	private Configuration config = null; //settings the client(s) were created with, if known
+	private volatile ScriptTemplateCache scriptTemplateCache = new ScriptTemplateCache(); //usage and latency of each script sent
+	private volatile DBMetrics metrics = new DBMetrics(); //latency and round trips of each operation, see DBMetrics
 	private static int VERT_ID_CACHE_LIMIT = 10000;
-	private Map<String, String> cardinalityCache = null;
-	private String dbType = null;
+	private volatile SchemaRegistry schemaRegistry = SchemaRegistry.getShared();
+	private volatile DegreeStats degreeStats = defaultDegreeStats(); //picks the direction of edge lookups
+	private final ThreadLocal<UnitOfWork> unitOfWork = new ThreadLocal<UnitOfWork>(); //see begin()
+	private volatile String dbType = null;
+	private volatile Set<String> indexedVertexKeys = null; //see getIndexedVertexKeys()
+	private volatile WriteConfirmMode writeConfirmMode = WriteConfirmMode.POLL;
+	private volatile int confirmWaitMs = 1; //first wait before a read-back, adjusted by confirmWrite()
 	private static int WRITE_CONFIRM_TRY_LIMIT = 6;
 	private static int COMMIT_TRY_LIMIT = 4;
-	private static String[] HIGH_FORWARD_DEGREE_EDGE_LABELS = {"hasFlow"}; //TODO: update as needed.  Knowing these allows some queries to be optimized.
-	private static String[] HIGH_REVERSE_DEGREE_EDGE_LABELS = {"hasIP", "hasPort", "hasVulnerability", "inAddressRange"}; //TODO: like above, but currently unused (because most queries don't care about the reverse degree).
+	private static int WRITE_CONFIRM_WAIT_LIMIT_MS = 15000; //about the same total wait as the old linear WRITE_CONFIRM_TRY_LIMIT loops
+	private static int CONFIRM_MAX_WAIT_MS = 4000;
+	static int VERT_BATCH_LIMIT = 500; //max vertices sent in one request by addVerticesFromMaps(), updateVerts() and VertexWriteBuffer
+	private static int EDGE_BATCH_LIMIT = 500; //max edges sent in one request by addEdgesFromMaps()
+	private static int VERT_PAGE_SIZE = 500; //default page size of the *Paged() methods
+	private static int VERT_DELETE_CHUNK = 500; //max vertices removed in one request by removeAllVertices()
+	private static int REQUEST_OVERHEAD_BYTES = 256; //rough size of a request besides its params, used by the *Async() methods
+	//known shapes of some labels, used as the starting point for degreeStats, which learns the rest.
+	private static String[] HIGH_FORWARD_DEGREE_EDGE_LABELS = {"hasFlow"};
+	private static String[] HIGH_REVERSE_DEGREE_EDGE_LABELS = {"hasIP", "hasPort", "hasVulnerability", "inAddressRange"};
+	//groovy closures shared by the batched edge scripts.
+	// findV finds a vertex by (cached) id if given, otherwise by name, and remembers the name lookups for the rest of the script.
+	// dirE picks the side to start from for a DegreeStats.Direction, probing both sides (up to PROBE_CAP edges) for PROBE.
+	// hasE checks for an existing edge, starting from the side picked by dirE.
+	private static String EDGE_SCRIPT_FUNCTIONS = "vs = [:];"
+			+ "findV = { name, id -> "
+			+ "if(id != null){ def v = g.v(id); if(v != null) return v };"
+			+ "if(name == null) return null;"
+			+ "if(!vs.containsKey(name)){ def vi = g.query().has('name', name).vertices().iterator(); vs[name] = vi.hasNext() ? vi.next() : null };"
+			+ "vs[name] };"
+			+ "dirE = { o, i, label, dir -> (dir != 'PROBE') ? dir : "
+			+ "((o.outE(label).range(0, " + (DegreeStats.PROBE_CAP - 1) + ").count() <= i.inE(label).range(0, " + (DegreeStats.PROBE_CAP - 1) + ").count()) ? 'OUT' : 'IN') };"
+			+ "hasE = { o, i, label, dir -> (dirE(o, i, label, dir) == 'IN') ? i.inE(label).outV().retain([o]).hasNext() : o.outE(label).inV().retain([i]).hasNext() };";
+	//the graph setup and write scripts, named so each is counted on its own (see executeQuery.)
+	private static final ScriptTemplate GET_GRAPH_TYPE = new ScriptTemplate("getGraphType", "g.getClass()");
+	private static final ScriptTemplate GET_INDEXED_VERT_KEYS = new ScriptTemplate("getIndexedKeys", "g.getIndexedKeys(Vertex.class)");
+	private static final ScriptTemplate CREATE_KEY_INDEX = new ScriptTemplate("createKeyIndex", "g.createKeyIndex(KEY, Vertex.class);g", "KEY");
+	private static final ScriptTemplate COMMIT = new ScriptTemplate("commit", "g.commit();g");
+	private static final ScriptTemplate COUNT_VERTS = new ScriptTemplate("countVerts", "g.V.count();");
+	private static final ScriptTemplate ADD_VERTEX = new ScriptTemplate("addVertex", "v = g.addVertex(null, VERT_PROPS);v.getId();", "VERT_PROPS");
+	private static final ScriptTemplate ADD_VERTICES = new ScriptTemplate("addVertices", "ids = [];"
+			+ "for(i in 0..<VERT_PROPS_LIST.size()){"
+			+ "v = g.addVertex(null, VERT_PROPS_LIST[i]);"
+			+ "MULTI_PROPS_LIST[i].each{ key, vals -> vals.each{ v.addProperty(key, it) } };"
+			+ "ids << v.getId();"
+			+ "};ids", "VERT_PROPS_LIST", "MULTI_PROPS_LIST");
+	private static final ScriptTemplate ADD_EDGE = new ScriptTemplate("addEdge", "g.addEdge(g.v(ID_OUT),g.v(ID_IN),LABEL,EDGE_PROPS);g",
+			"ID_OUT", "ID_IN", "LABEL", "EDGE_PROPS");
+	private static final ScriptTemplate ADD_EDGES = new ScriptTemplate("addEdges", EDGE_SCRIPT_FUNCTIONS
+			+ "ret = [];"
+			+ "EDGES.each{ e -> "
+			+ "def o = findV(e.OUT, e.OUT_ID); def i = findV(e.IN, e.IN_ID);"
+			+ "if(o == null || i == null){ ret << ['MISSING_ENDPOINT', null, null] }"
+			+ "else if(hasE(o, i, e.LABEL, e.DIR)){ ret << ['DUPLICATE', o.getId(), i.getId()] }"
+			+ "else{ g.addEdge(o, i, e.LABEL, e.EDGE_PROPS); ret << ['ADDED', o.getId(), i.getId()] }"
+			+ "};ret", "EDGES");
+	//write confirmation read-backs.
+	private static final ScriptTemplate CONFIRM_VERTEX = new ScriptTemplate("confirmVertex",
+			"g.v(ID) != null && g.query().has(\"name\",NAME).vertices().iterator().hasNext()", "ID", "NAME");
+	private static final ScriptTemplate CONFIRM_VERTICES = new ScriptTemplate("confirmVertices", "IDS.every{ g.v(it) != null }", "IDS");
+	private static final ScriptTemplate CONFIRM_EDGE = new ScriptTemplate("confirmEdge", EDGE_SCRIPT_FUNCTIONS
+			+ "o = g.v(OUT_ID); i = g.v(IN_ID); o != null && i != null && hasE(o, i, LABEL, DIR)", "OUT_ID", "IN_ID", "LABEL", "DIR");
+	private static final ScriptTemplate CONFIRM_EDGES = new ScriptTemplate("confirmEdges", EDGE_SCRIPT_FUNCTIONS
+			+ "EDGES.every{ e -> hasE(g.v(e.OUT_ID), g.v(e.IN_ID), e.LABEL, e.DIR) }", "EDGES");
+	//fixed scripts for the common lookups, see ScriptTemplate.
+	private static final ScriptTemplate GET_VERT_BY_ID = new ScriptTemplate("getVertByID", "g.v(ID).map();", "ID");
+	private static final ScriptTemplate FIND_VERT = new ScriptTemplate("findVert", "g.query().has(\"name\",NAME).vertices().toList();", "NAME");
+	private static final ScriptTemplate FIND_VERT_IDS = new ScriptTemplate("findVertIds", "NAMES.collect{ n -> "
+			+ "def vi = g.query().has(\"name\",n).vertices().iterator(); vi.hasNext() ? vi.next().getId() : null }", "NAMES");
+	//one script for any list of constraints: KEYS, CONDS (names of Tokens.T values) and VALS are parallel lists.
+	private static final ScriptTemplate FIND_VERTS_WITH_PROPS = new ScriptTemplate("findAllVertsWithProps", "def p = g.V;"
+			+ "for(i in 0..<KEYS.size()){ p = p.has(KEYS[i], T.valueOf(CONDS[i]), VALS[i]) };"
+			+ "p;", "KEYS", "CONDS", "VALS");
+	//like FIND_VERTS_WITH_PROPS, but only results LO to HI (inclusive.)
+	private static final ScriptTemplate FIND_VERTS_WITH_PROPS_PAGE = new ScriptTemplate("findAllVertsWithPropsPage", "def p = g.V;"
+			+ "for(i in 0..<KEYS.size()){ p = p.has(KEYS[i], T.valueOf(CONDS[i]), VALS[i]) };"
+			+ "p.range(LO, HI);", "KEYS", "CONDS", "VALS", "LO", "HI");
+	//projected versions of the above, see Projection.  proj builds the flat map of _id and the PROJ_KEYS properties.
+	private static String PROJECTION_FUNCTIONS = "proj = { v -> def m = ['_id': v.getId()];"
+			+ "PROJ_KEYS.each{ k -> def val = v.getProperty(k); if(val != null) m[k] = val };"
+			+ "m };";
+	private static final ScriptTemplate GET_VERT_BY_ID_PROJECTED = new ScriptTemplate("getVertByIDProjected", PROJECTION_FUNCTIONS
+			+ "def v = g.v(ID); (v == null) ? null : proj(v);", "ID", "PROJ_KEYS");
+	private static final ScriptTemplate FIND_VERT_PROJECTED = new ScriptTemplate("findVertProjected", PROJECTION_FUNCTIONS
+			+ "g.query().has(\"name\",NAME).vertices().collect{ proj(it) };", "NAME", "PROJ_KEYS");
+	private static final ScriptTemplate FIND_VERTS_WITH_PROPS_PROJECTED = new ScriptTemplate("findAllVertsWithPropsProjected", PROJECTION_FUNCTIONS
+			+ "def p = g.V;"
+			+ "for(i in 0..<KEYS.size()){ p = p.has(KEYS[i], T.valueOf(CONDS[i]), VALS[i]) };"
+			+ "p.transform{ proj(it) };", "KEYS", "CONDS", "VALS", "PROJ_KEYS");
+	private static final ScriptTemplate FIND_VERTS_WITH_PROPS_PAGE_PROJECTED = new ScriptTemplate("findAllVertsWithPropsPageProjected", PROJECTION_FUNCTIONS
+			+ "def p = g.V;"
+			+ "for(i in 0..<KEYS.size()){ p = p.has(KEYS[i], T.valueOf(CONDS[i]), VALS[i]) };"
+			+ "p.range(LO, HI).transform{ proj(it) };", "KEYS", "CONDS", "VALS", "LO", "HI", "PROJ_KEYS");
+	//aggregations, which only send back the counts.  p is the vertices matching the constraints, and vals gives all values
+	// of a (possibly SET or LIST) property as a list.
+	private static String AGGREGATE_PREFIX = "vals = { v, k -> def val = v.getProperty(k);"
+			+ "(val == null) ? [] : ((val instanceof Collection) ? val : [val]) };"
+			+ "def p = g.V;"
+			+ "for(i in 0..<KEYS.size()){ p = p.has(KEYS[i], T.valueOf(CONDS[i]), VALS[i]) };";
+	private static final ScriptTemplate COUNT_VERTS_WITH_PROPS = new ScriptTemplate("countVertsWithProps", AGGREGATE_PREFIX
+			+ "p.count();", "KEYS", "CONDS", "VALS");
+	//number of matching vertices with each value of GROUP_KEY.  vertices with several values are counted once for each.
+	private static final ScriptTemplate GROUP_COUNT_VERTS = new ScriptTemplate("groupCountVerts", AGGREGATE_PREFIX
+			+ "def counts = [:];"
+			+ "p.each{ v -> vals(v, GROUP_KEY).each{ counts[it] = (counts[it] ?: 0L) + 1 } };"
+			+ "counts;", "KEYS", "CONDS", "VALS", "GROUP_KEY");
+	//number of matching vertices with each degree of LABEL edges, in direction DIR ('OUT' or 'IN').
+	private static final ScriptTemplate DEGREE_HISTOGRAM = new ScriptTemplate("degreeHistogram", AGGREGATE_PREFIX
+			+ "def counts = [:];"
+			+ "p.each{ v -> def d = (DIR == 'IN') ? v.inE(LABEL).count() : v.outE(LABEL).count(); counts[d] = (counts[d] ?: 0L) + 1 };"
+			+ "counts;", "KEYS", "CONDS", "VALS", "LABEL", "DIR");
+	//updates all properties of one vertex, see updateVert(), and commits.  returns the keys which could not be updated.
+	private static final ScriptTemplate UPDATE_VERT = new ScriptTemplate("updateVert", "def v = g.v(ID);"
+			+ "def failed = [];"
+			+ "def apply = { k, update -> if(ATOMIC){ update() }else{ try{ update() }catch(e){ failed << k } } };"
+			+ "try{"
+			+ "SINGLE_PROPS.each{ k, val -> apply(k){ v.setProperty(k, val) } };"
+			+ "MULTI_PROPS.each{ k, vals -> apply(k){ "
+			+ "def have = SET_KEYS.contains(k) ? new HashSet(v.getProperties(k).collect{ it.getValue() }) : null;"
+			+ "vals.each{ if(have == null || have.add(it)) v.addProperty(k, it) } } };"
+			+ "if(g instanceof TransactionalGraph) g.commit();"
+			+ "}catch(e){ if(g instanceof TransactionalGraph) g.rollback(); throw e };"
+			+ "failed;", "ID", "SINGLE_PROPS", "MULTI_PROPS", "SET_KEYS", "ATOMIC");
+	//like UPDATE_VERT (not atomic) for many vertices, each update is a map of ID, SINGLE_PROPS, MULTI_PROPS and SET_KEYS.
+	// commits, and returns the keys which could not be updated for each vertex, or null if it was not found.
+	private static final ScriptTemplate UPDATE_VERTS = new ScriptTemplate("updateVerts", "def ret;"
+			+ "try{"
+			+ "ret = UPDATES.collect{ u -> "
+			+ "def v = g.v(u.ID); if(v == null) return null;"
+			+ "def failed = [];"
+			+ "u.SINGLE_PROPS.each{ k, val -> try{ v.setProperty(k, val) }catch(e){ failed << k } };"
+			+ "u.MULTI_PROPS.each{ k, vals -> try{ "
+			+ "def have = u.SET_KEYS.contains(k) ? new HashSet(v.getProperties(k).collect{ it.getValue() }) : null;"
+			+ "vals.each{ if(have == null || have.add(it)) v.addProperty(k, it) } }catch(e){ failed << k } };"
+			+ "failed };"
+			+ "if(g instanceof TransactionalGraph) g.commit();"
+			+ "}catch(e){ if(g instanceof TransactionalGraph) g.rollback(); throw e };"
+			+ "ret", "UPDATES");
+	//all the operations of a unit of work, in one transaction, see commit().  each op is a map with OP 'V' (new vertex, see
+	// newVertParams), 'E' (new edge, see newEdgeParams) or 'U' (vertex update, see updateParams.)
+	// returns the new id for each 'V', the EdgeAddResult name for each 'E', and null for each 'U'.
+	private static final ScriptTemplate UNIT_OF_WORK = new ScriptTemplate("commitUnitOfWork", EDGE_SCRIPT_FUNCTIONS
+			+ "def ret = [];"
+			+ "try{"
+			+ "OPS.each{ op -> "
+			+ "if(op.OP == 'V'){ def v = g.addVertex(null, op.PROPS); op.MULTI_PROPS.each{ k, vals -> vals.each{ v.addProperty(k, it) } }; vs[op.NAME] = v; ret << v }"
+			+ "else if(op.OP == 'E'){ def o = findV(op.OUT, op.OUT_ID); def i = findV(op.IN, op.IN_ID);"
+			+ "if(o == null || i == null){ ret << 'MISSING_ENDPOINT' }"
+			+ "else if(hasE(o, i, op.LABEL, op.DIR)){ ret << 'DUPLICATE' }"
+			+ "else{ g.addEdge(o, i, op.LABEL, op.EDGE_PROPS); ret << 'ADDED' } }"
+			+ "else{ def v = g.v(op.ID); if(v == null) throw new IllegalArgumentException('vertex ' + op.ID + ' not found');"
+			+ "op.SINGLE_PROPS.each{ k, val -> v.setProperty(k, val) };"
+			+ "op.MULTI_PROPS.each{ k, vals -> def have = op.SET_KEYS.contains(k) ? new HashSet(v.getProperties(k).collect{ it.getValue() }) : null;"
+			+ "vals.each{ if(have == null || have.add(it)) v.addProperty(k, it) } };"
+			+ "ret << null }"
+			+ "};"
+			+ "if(g instanceof TransactionalGraph) g.commit();"
+			+ "}catch(e){ if(g instanceof TransactionalGraph) g.rollback(); throw e };"
+			+ "ret.collect{ (it instanceof Vertex) ? it.getId() : it }", "OPS");
+	//removes the IDS vertices which exist, and commits.  returns the names of the removed vertices.
+	private static final ScriptTemplate REMOVE_VERTS_BY_IDS = new ScriptTemplate("removeVertsByIds", "def removed = [];"
+			+ "try{"
+			+ "IDS.each{ def v = g.v(it); if(v != null){ removed << v.getProperty('name'); v.remove() } };"
+			+ "if(g instanceof TransactionalGraph) g.commit();"
+			+ "}catch(e){ if(g instanceof TransactionalGraph) g.rollback(); throw e };"
+			+ "removed", "IDS");
+	//removes the vertices with ids from MIN_ID to MAX_ID which exist, and commits.  returns the names of the removed vertices.
+	// on Titan, ids which are not user vertex ids (schema ids, or ids Titan would never assign) are skipped, since looking them up fails.
+	private static final ScriptTemplate REMOVE_VERTS_IN_ID_RANGE = new ScriptTemplate("removeVertsInIdRange", "def removed = [];"
+			+ "def idi = g.metaClass.respondsTo(g, 'getIDInspector') ? g.getIDInspector() : null;"
+			+ "try{"
+			+ "for(def id = MIN_ID; id <= MAX_ID; id++){"
+			+ "def v = null; try{ if(idi == null || idi.isUserVertexId(id)) v = g.v(id) }catch(IllegalStateException e){ };"
+			+ "if(v != null){ removed << v.getProperty('name'); v.remove() } };"
+			+ "if(g instanceof TransactionalGraph) g.commit();"
+			+ "}catch(e){ if(g instanceof TransactionalGraph) g.rollback(); throw e };"
+			+ "removed", "MIN_ID", "MAX_ID");
+	//ids of up to LIMIT vertices matching the constraints, with ids from MIN_ID to MAX_ID (either can be null.)
+	private static final ScriptTemplate FIND_VERT_IDS_WITH_PROPS = new ScriptTemplate("findVertIdsWithProps", "def p = g.V;"
+			+ "for(i in 0..<KEYS.size()){ p = p.has(KEYS[i], T.valueOf(CONDS[i]), VALS[i]) };"
+			+ "if(MIN_ID != null || MAX_ID != null){ p = p.filter{ def id = it.getId().toString().toLong(); (MIN_ID == null || id >= MIN_ID) && (MAX_ID == null || id <= MAX_ID) } };"
+			+ "p.range(0, LIMIT - 1).id", "KEYS", "CONDS", "VALS", "MIN_ID", "MAX_ID", "LIMIT");
+	//counts the LABELS edges from each OUT_IDS vertex to the matching IN_IDS vertex, starting from the side given in DIRS.
+	// returns [count, out degree, in degree] per edge, with -1 for degrees not seen, or [-1, -1, -1] if either vertex was not found.
+	private static final ScriptTemplate EDGE_COUNTS = new ScriptTemplate("getEdgeCounts", "def cap = " + DegreeStats.PROBE_CAP + ";"
+			+ "(0..<OUT_IDS.size()).collect{ k -> "
+			+ "def o = g.v(OUT_IDS[k]); def i = g.v(IN_IDS[k]); def label = LABELS[k]; def dir = DIRS[k];"
+			+ "if(o == null || i == null) return [-1, -1, -1];"
+			+ "def outDeg = -1; def inDeg = -1;"
+			+ "if(dir == 'PROBE'){ outDeg = o.outE(label).range(0, cap - 1).count(); inDeg = i.inE(label).range(0, cap - 1).count(); dir = (outDeg <= inDeg) ? 'OUT' : 'IN' };"
+			+ "def count = 0; def seen = 0;"
+			+ "if(dir == 'OUT'){ o.outE(label).inV().each{ seen++; if(it == i) count++ }; outDeg = seen }"
+			+ "else{ i.inE(label).outV().each{ seen++; if(it == o) count++ }; inDeg = seen };"
+			+ "[count, outDeg, inDeg] }",
+			"OUT_IDS", "IN_IDS", "LABELS", "DIRS");
+	//every property key in the (Titan) schema, as a map of key name to cardinality name.
+	private static final ScriptTemplate LOAD_SCHEMA = new ScriptTemplate("loadSchema", "def mgmt = g.getManagementSystem();"
+			+ "def cards = [:];"
+			+ "mgmt.getRelationTypes(com.thinkaurelius.titan.core.PropertyKey.class).each{ cards[it.getName()] = it.getCardinality().toString() };"
+			+ "mgmt.rollback();"
+			+ "cards;");
+
+	/*
+	 * result of adding one edge with addEdgesFromMaps()
+	 */
+	public enum EdgeAddResult{
+		ADDED, DUPLICATE, MISSING_ENDPOINT, FAILED
+	}
+
+	/*
+	 * How writes are confirmed after they are committed.
+	 * NONE - trust a successful commit, without reading anything back.
+	 * BATCH - one read-back per flush (checking everything that was written at once), retried only if it fails.
+	 * POLL - wait, then re-read each element that was written, retrying until found.  Slowest, but most paranoid.
+	 */
+	public enum WriteConfirmMode{
+		NONE, BATCH, POLL
+	}
+
+	//read-back used to confirm a write, see confirmWrite()
+	private interface WriteCheck{
+		boolean isConfirmed() throws RexProException, IOException;
+	}
 
 	public static RexsterClient createClient(Configuration configOpts) throws IOException{
 		return createClient(configOpts, 0);
@@ -90,6 +316,38 @@ public class DBConnection {
 		return client;
 	}
 
+	/*
+	 * Creates a pool of poolSize clients, all using the same configOpts.  Note that connectionWaitTime is in seconds,
+	 * and is only waited once, after all clients are created.
+	 */
+	public static RexsterClientPool createClientPool(Configuration configOpts, int poolSize, int connectionWaitTime) throws IOException{
+		List<RexsterClient> clients = new ArrayList<RexsterClient>(poolSize);
+		try{
+			for(int i=0; i<poolSize; i++){
+				clients.add(createClient(configOpts));
+			}
+		}catch(IOException e){
+			for(RexsterClient c : clients){
+				closeClient(c);
+			}
+			throw e;
+		}
+		if(connectionWaitTime > 0){
+			try {
+				Thread.sleep(connectionWaitTime*1000); //in ms.
+			}
+			catch (InterruptedException ie) { 
+				// Restore the interrupted status
+				Thread.currentThread().interrupt();
+			}
+		}
+		return new RexsterClientPool(clients, RexsterClientPool.DEFAULT_BORROW_TIMEOUT_MS, configOpts);
+	}
+
+	public static RexsterClientPool createClientPool(Configuration configOpts, int poolSize) throws IOException{
+		return createClientPool(configOpts, poolSize, 0);
+	}
+
 	public static Configuration getDefaultConfig(){
 		Logger logger = LoggerFactory.getLogger(DBConnection.class);
 		logger.info("Loading default DB Config...");
@@ -117,23 +375,63 @@ public class DBConnection {
 	}
 
 	public DBConnection() throws IOException{
-		this(createClient(getDefaultConfig()));
+		this(getDefaultConfig());
+	}
+
+	/*
+	 * connects with the settings in configOpts, which are also used for the default async window.
+	 */
+	public DBConnection(Configuration configOpts) throws IOException{
+		this(createClient(configOpts));
+		this.config = configOpts;
 	}
 
 	public DBConnection(RexsterClient c){
+		this(c, new VertIDCache(VERT_ID_CACHE_LIMIT));
+	}
+
+	/*
+	 * vertIDCache can be shared with other DBConnections (to the same graph.)
+	 */
+	public DBConnection(RexsterClient c, VertIDCache vertIDCache){
+		this((c == null) ? null : new RexProBackend(c), vertIDCache);
+	}
+
+	/*
+	 * Pooled connection: each query checks out a client from the pool (see beginSession() to keep one for longer.)
+	 * This connection is thread-safe, and all threads using it share its caches.
+	 */
+	public DBConnection(RexsterClientPool pool){
+		this(pool, new VertIDCache(VERT_ID_CACHE_LIMIT));
+	}
+
+	public DBConnection(RexsterClientPool pool, VertIDCache vertIDCache){
+		this((pool == null) ? null : new RexProBackend(pool), vertIDCache);
+		if(pool != null)
+			this.config = pool.getConfig();
+	}
+
+	/*
+	 * eg. new DBConnection(EmbeddedBackend.openInMemoryTitan()) to run on a graph in this JVM, with no server.
+	 * The backend can be shared by several DBConnections, and is not closed by them.
+	 */
+	public DBConnection(GraphBackend backend){
+		this(backend, new VertIDCache(VERT_ID_CACHE_LIMIT));
+	}
+
+	public DBConnection(GraphBackend backend, VertIDCache vertIDCache){
 		//TODO
 		logger = LoggerFactory.getLogger(DBConnection.class);
-		vertIDCache = new HashMap<String, String>((int) (VERT_ID_CACHE_LIMIT * 1.5));
-		vertIDCacheRecentlyRead = new HashSet<String>((int) (VERT_ID_CACHE_LIMIT * 1.5));
-		cardinalityCache = new HashMap<String, String>(200);
-		client = c;
+		this.vertIDCache = vertIDCache;
+		this.backend = backend;
+		metrics.watchCaches(this);
 	}
 
 	private String getDBType() throws IOException{
 		if(this.dbType == null){
 			String type = null;
 			try{
-				type = client.execute("g.getClass()").get(0).toString();
+				type = executeTemplate(GET_GRAPH_TYPE).get(0).toString();
 			}catch(Exception e){
 				logger.error("Could not find graph type!",e);
 				throw new IOException("Could not find graph type!");
@@ -151,6 +449,15 @@ public class DBConnection {
 
 
 	public void createIndices() throws IOException{
+		DBMetrics.Op timer = metrics.start("createIndices");
+		try{
+			createIndicesUntimed();
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private void createIndicesUntimed() throws IOException{
 		String graphType = getDBType();
 		if( graphType.equals("TinkerGraph") ){
 			createTinkerGraphIndices();
@@ -160,13 +467,14 @@ public class DBConnection {
 			logger.warn("unknown graph type!  Assuming it is Titan...");
 			createTitanIndices();
 		}
+		indexedVertexKeys = null;
 	}
 
 
 	private void createTinkerGraphIndices(){
 		List<String> currentIndices = new ArrayList<String>();
 		try {
-			currentIndices = client.execute("g.getIndexedKeys(Vertex.class)");
+			currentIndices = executeTemplate(GET_INDEXED_VERT_KEYS);
 		} catch (Exception e) { 
 			//this.client = null;
 			logger.error("problem getting indexed keys, assuming there were none...");
@@ -176,23 +484,23 @@ public class DBConnection {
 		try {
 			if(!currentIndices.contains("name")){
 				logger.info("'name' key index not found, creating ...");
-				client.execute("g.createKeyIndex('name', Vertex.class);g");
+				executeTemplate(CREATE_KEY_INDEX, "name");
 			}
 			if(!currentIndices.contains("vertexType")){
 				logger.info("'vertexType' key index not found, creating ...");
-				client.execute("g.createKeyIndex('vertexType', Vertex.class);g");
+				executeTemplate(CREATE_KEY_INDEX, "vertexType");
 			}
 			if(!currentIndices.contains("ipInt")){
 				logger.info("'ipInt' key index not found, creating ...");
-				client.execute("g.createKeyIndex('ipInt', Vertex.class);g");
+				executeTemplate(CREATE_KEY_INDEX, "ipInt");
 			}
 			if(!currentIndices.contains("startIPInt")){
 				logger.info("'startIPInt' key index not found, creating ...");
-				client.execute("g.createKeyIndex('startIPInt', Vertex.class);g");
+				executeTemplate(CREATE_KEY_INDEX, "startIPInt");
 			}
 			if(!currentIndices.contains("endIPInt")){
 				logger.info("'endIPInt' key index not found, creating ...");
-				client.execute("g.createKeyIndex('endIPInt', Vertex.class);g");
+				executeTemplate(CREATE_KEY_INDEX, "endIPInt");
 			}
 		} catch (RexProException e) {
 			logger.error("Exception was: ",e.getLocalizedMessage());
@@ -208,7 +516,7 @@ public class DBConnection {
 		try {
 			//configure vert indices needed
 			//List currentIndices = client.execute("g.getManagementSystem().getGraphIndexes(Vertex.class)");
-			currentIndices = client.execute("g.getIndexedKeys(Vertex.class)");
+			currentIndices = executeTemplate(GET_INDEXED_VERT_KEYS);
 		} catch (Exception e) { 
 			//this.client = null;
 			logger.error("problem getting indexed keys, assuming there were none...");
@@ -218,49 +526,49 @@ public class DBConnection {
 		try{
 			//		System.out.println("currentIndices = " + currentIndices +  " " + "name");
 			if(currentIndices == null || !currentIndices.contains("name")){
-				List names = client.execute("mgmt = g.getManagementSystem();mgmt.getPropertyKey(\"name\");");
+				List names = executeQuery("createIndices", "mgmt = g.getManagementSystem();mgmt.getPropertyKey(\"name\");", null);
 				//logger.info("name found: ", names.get(0));
 				if(names.get(0) == null){
 					logger.info("'name' variable and index not found, creating var and index...");
-					client.execute("mgmt = g.getManagementSystem();"
+					executeQuery("createIndices", "mgmt = g.getManagementSystem();"
 							+ "name = mgmt.makePropertyKey(\"name\").dataType(String.class).make();"
 							+ "mgmt.buildIndex(\"byName\",Vertex.class).addKey(name).unique().buildCompositeIndex();"
-							+ "mgmt.commit();g;");
+							+ "mgmt.commit();g;", null);
 				}else{
 					logger.info("'name' was found, but not indexed.  creating index...");
-					client.execute("mgmt = g.getManagementSystem();"
+					executeQuery("createIndices", "mgmt = g.getManagementSystem();"
 							+ "name = mgmt.getPropertyKey(\"name\");"
 							+ "mgmt.buildIndex(\"byName\",Vertex.class).addKey(name).unique().buildCompositeIndex();"
-							+ "mgmt.commit();g;");
+							+ "mgmt.commit();g;", null);
 				}
 			}
 			if(currentIndices == null || !currentIndices.contains("vertexType")){
-				List names = client.execute("mgmt = g.getManagementSystem();mgmt.getPropertyKey(\"vertexType\");");
+				List names = executeQuery("createIndices", "mgmt = g.getManagementSystem();mgmt.getPropertyKey(\"vertexType\");", null);
 				//logger.info("vertexType found: ", names.get(0));
 				if(names.get(0) == null){
 					logger.info("'vertexType' variable and index not found, creating var and index...");
-					client.execute("mgmt = g.getManagementSystem();"
+					executeQuery("createIndices", "mgmt = g.getManagementSystem();"
 							+ "vertexType = mgmt.makePropertyKey(\"vertexType\").dataType(String.class).make();"
 							+ "mgmt.buildIndex(\"byVertexType\",Vertex.class).addKey(vertexType).buildCompositeIndex();"
-							+ "mgmt.commit();g;");
+							+ "mgmt.commit();g;", null);
 				}else{
 					logger.info("'vertexType' was found, but not indexed.  creating index...");
-					client.execute("mgmt = g.getManagementSystem();"
+					executeQuery("createIndices", "mgmt = g.getManagementSystem();"
 							+ "vertexType = mgmt.getPropertyKey(\"vertexType\");"
 							+ "mgmt.buildIndex(\"byVertexType\",Vertex.class).addKey(vertexType).buildCompositeIndex();"
-							+ "mgmt.commit();g;");
+							+ "mgmt.commit();g;", null);
 				}
 			}
 			/*
 			if(!currentIndices.contains("name") || !currentIndices.contains("vertexType")){
 				logger.info("name or vertexType index not found, creating combined index...");
-				client.execute("mgmt = g.getManagementSystem();"
+				executeQuery("mgmt = g.getManagementSystem();"
 						+ "name = mgmt.getPropertyKey(\"name\");"
 						+ "vertexType = mgmt.getPropertyKey(\"vertexType\");"
 						+ "mgmt.buildIndex(\"byNameAndVertexType\",Vertex.class).addKey(name).addKey(vertexType).unique().buildCompositeIndex();"
 						+ "mgmt.commit();g;"); //TODO: not convinced that this (new) index really works, need to test further.  but it's currently unused, so leaving as-is for now.
 			}*/
-			commit();
+			commitGraph();
 			logger.info("Connection is good!");
 		}catch(Exception e){
 			logger.warn("could not configure missing vertex indices!", e.getLocalizedMessage());
@@ -285,10 +593,33 @@ public class DBConnection {
 	}
 
 	public boolean addVertexFromJSON(JSONObject vert) throws RexProException, IOException{
+		DBMetrics.Op timer = metrics.start("addVertexFromJSON");
+		try{
+			return addVertexFromJSONUntimed(vert);
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private boolean addVertexFromJSONUntimed(JSONObject vert) throws RexProException, IOException{
 		return addVertexFromMap(jsonVertToMap(vert));
 	}
 
 	public boolean addVertexFromMap(Map<String, Object> vert) throws RexProException, IOException{
+		DBMetrics.Op timer = metrics.start("addVertexFromMap");
+		try{
+			return addVertexFromMapUntimed(vert);
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private boolean addVertexFromMapUntimed(Map<String, Object> vert) throws RexProException, IOException{
+		UnitOfWork work = unitOfWork.get();
+		if(work != null){
+			work.add("V", new HashMap<String, Object>(vert));
+			return true;
+		}
 		boolean ret = false;
 		Long newID = null;
 		String graphType = getDBType();
@@ -303,8 +634,10 @@ public class DBConnection {
 		//any properties that aren't cardinality "SINGLE" can't be handled this way, handle them later. 
 		Map<String, Object> specialCardProps = new HashMap<String, Object>();
 		Set<String> keySet = new HashSet<String>( (Set<String>)vert.keySet() );
+		Map<String, String> cardinalities = findCardinalities(keySet);
 		for(String key : keySet){
-			if(findCardinality(key) != null && !findCardinality(key).equalsIgnoreCase("SINGLE")){
+			String cardinality = cardinalities.get(key);
+			if(cardinality != null && !cardinality.equalsIgnoreCase("SINGLE")){
 				specialCardProps.put(key, vert.get(key));
 				vert.remove(key);
 			}
@@ -314,36 +647,166 @@ public class DBConnection {
 		param.put("VERT_PROPS", vert);
 		
 		if(graphType == "TitanGraph")
-			newID = (Long)client.execute("v = g.addVertex(null, VERT_PROPS);v.getId();", param).get(0);
+			newID = (Long)executeTemplate(ADD_VERTEX, vert).get(0);
 		//newID = (Long)client.execute("v = GraphSONUtility.vertexFromJson(VERT_PROPS, new GraphElementFactory(g), GraphSONMode.NORMAL, null);v.getId()", param).get(0);
 		if(graphType == "TinkerGraph")
-			newID = Long.parseLong((String)client.execute("v = g.addVertex(null, VERT_PROPS);v.getId();", param).get(0));
+			newID = Long.parseLong((String)executeTemplate(ADD_VERTEX, vert).get(0));
 		//newID = Long.parseLong((String)client.execute("v = GraphSONUtility.vertexFromJson(VERT_PROPS, new GraphElementFactory(g), GraphSONMode.NORMAL, null);v.getId()", param).get(0));
 		//System.out.println("new ID is: " + newID);
-		vertIDCachePut(name, newID.toString());
+		vertIDCache.put(name, newID.toString());
+		if(negativeLookupCache != null)
+			negativeLookupCache.invalidate(name);
 		//handling the non-"SINGLE" cardinality properties now.
 		for(String key : specialCardProps.keySet()){
 			updateVertProperty(newID.toString(), key, specialCardProps.get(key));
 		}
 		
 		//confirm before proceeding
-		ret = false;
-		tryCommit(COMMIT_TRY_LIMIT);
-		int tryCount = 0;
-		//Confirm before proceeding
-		while(ret == false && tryCount < WRITE_CONFIRM_TRY_LIMIT){
-			//System.out.println("waiting for " + tryCount + " seconds in addVertexFromMap()");
-			waitFor(1000*tryCount + 1);
-			if( getVertByID(newID.toString()) != null && findVert(name) != null){
-				ret = true;
+		final String confirmID = newID.toString();
+		final String confirmName = name;
+		ret = confirmWrite(tryCommit(COMMIT_TRY_LIMIT), new WriteCheck(){
+			public boolean isConfirmed() throws RexProException, IOException{
+				if(writeConfirmMode == WriteConfirmMode.POLL){
+					return getVertByID(confirmID) != null && findVert(confirmName) != null;
+				}
+				List<Object> queryRet = executeTemplate(CONFIRM_VERTEX, Long.parseLong(confirmID), confirmName);
+				return Boolean.TRUE.equals(queryRet.get(0));
 			}
-			tryCount += 1;
-		}
+		});
 
 		return ret;
 	}
 
+	public Map<String, String> addVerticesFromJSON(JSONArray verts) throws RexProException, IOException{
+		DBMetrics.Op timer = metrics.start("addVerticesFromJSON");
+		try{
+			return addVerticesFromJSONUntimed(verts);
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private Map<String, String> addVerticesFromJSONUntimed(JSONArray verts) throws RexProException, IOException{
+		List<Map<String, Object>> vertList = new ArrayList<Map<String, Object>>(verts.length());
+		for(int i=0; i<verts.length(); i++){
+			vertList.add(jsonVertToMap(verts.getJSONObject(i)));
+		}
+		return addVerticesFromMaps(vertList);
+	}
+
+	/*
+	 * Adds all of the given vertices, sending at most VERT_BATCH_LIMIT of them per request, and commits once at the end.
+	 * Non-"SINGLE" cardinality properties are added by the same script, instead of by separate updateVertProperty() calls.
+	 * returns map of vertex name to new vertex ID, or null if the new vertices could not be confirmed.
+	 */
+	public Map<String, String> addVerticesFromMaps(List<Map<String, Object>> verts) throws RexProException, IOException{
+		DBMetrics.Op timer = metrics.start("addVerticesFromMaps");
+		try{
+			return addVerticesFromMapsUntimed(verts);
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private Map<String, String> addVerticesFromMapsUntimed(List<Map<String, Object>> verts) throws RexProException, IOException{
+		checkNoUnitOfWork("addVerticesFromMaps");
+		Map<String, String> newIDs = new HashMap<String, String>((int) (verts.size() * 1.5));
+		Set<String> allKeys = new HashSet<String>();
+		for(Map<String, Object> vert : verts){
+			allKeys.addAll(vert.keySet());
+		}
+		Map<String, String> cardinalities = findCardinalities(allKeys);
+		for(int start=0; start<verts.size(); start+=VERT_BATCH_LIMIT){
+			List<Map<String, Object>> batch = verts.subList(start, Math.min(start + VERT_BATCH_LIMIT, verts.size()));
+			List<String> names = new ArrayList<String>(batch.size());
+			List<Map<String, Object>> vertPropsList = new ArrayList<Map<String, Object>>(batch.size());
+			List<Map<String, Object>> multiPropsList = new ArrayList<Map<String, Object>>(batch.size());
+			for(Map<String, Object> vert : batch){
+				Map<String, Object> vertParams = newVertParams(vert, cardinalities);
+				names.add((String)vertParams.get("NAME"));
+				vertPropsList.add((Map<String, Object>)vertParams.get("PROPS"));
+				multiPropsList.add((Map<String, Object>)vertParams.get("MULTI_PROPS"));
+			}
+			List<Object> batchIDs = executeTemplate(ADD_VERTICES, vertPropsList, multiPropsList);
+			for(int i=0; i<names.size(); i++){
+				newIDs.put(names.get(i), String.valueOf(batchIDs.get(i)));
+			}
+		}
+		if(newIDs.isEmpty())
+			return newIDs;
+
+		//confirm before proceeding, checking all of the new IDs at once.
+		final List<Long> ids = new ArrayList<Long>(newIDs.size());
+		for(String id : newIDs.values()){
+			ids.add(Long.parseLong(id));
+		}
+		boolean ret = confirmWrite(tryCommit(COMMIT_TRY_LIMIT), new WriteCheck(){
+			public boolean isConfirmed() throws RexProException, IOException{
+				List<Object> queryRet = executeTemplate(CONFIRM_VERTICES, ids);
+				return Boolean.TRUE.equals(queryRet.get(0));
+			}
+		});
+		if(!ret){
+			logger.warn("addVerticesFromMaps could not confirm " + newIDs.size() + " new vertices.");
+			return null;
+		}
+
+		for(String name : newIDs.keySet()){
+			vertIDCache.put(name, newIDs.get(name));
+		}
+		if(negativeLookupCache != null){
+			for(String name : newIDs.keySet()){
+				negativeLookupCache.invalidate(name);
+			}
+		}
+		return newIDs;
+	}
+
+	//the NAME, PROPS and MULTI_PROPS params of one new vertex.
+	// same as addVertexFromMap(), except the non-"SINGLE" cardinality properties are sent along as lists of values.
+	private Map<String, Object> newVertParams(Map<String, Object> vert, Map<String, String> cardinalities){
+		String name = (String)vert.get("name");
+		if(name == null || name.equals("")){
+			name = (String)vert.get("_id");
+		}
+		Map<String, Object> vertProps = new HashMap<String, Object>();
+		Map<String, Object> multiProps = new HashMap<String, Object>();
+		for(String key : vert.keySet()){
+			if(key.equals("_id"))
+				continue;
+			String cardinality = cardinalities.get(key);
+			if(cardinality == null || cardinality.equalsIgnoreCase("SINGLE")){
+				vertProps.put(key, vert.get(key));
+			}else if(cardinality.equalsIgnoreCase("SET")){
+				//vertex is new, so removing duplicates here is enough.
+				multiProps.put(key, new ArrayList<Object>(new LinkedHashSet<Object>(valueToList(vert.get(key)))));
+			}else{
+				multiProps.put(key, valueToList(vert.get(key)));
+			}
+		}
+		vertProps.put("name", name);
+		Map<String, Object> vertParams = new HashMap<String, Object>();
+		vertParams.put("NAME", name);
+		vertParams.put("PROPS", vertProps);
+		vertParams.put("MULTI_PROPS", multiProps);
+		return vertParams;
+	}
+
 	public boolean addEdgeFromJSON(JSONObject edge) throws RexProException, IOException{
+		DBMetrics.Op timer = metrics.start("addEdgeFromJSON");
+		try{
+			return addEdgeFromJSONUntimed(edge);
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private boolean addEdgeFromJSONUntimed(JSONObject edge) throws RexProException, IOException{
+		UnitOfWork work = unitOfWork.get();
+		if(work != null){
+			work.add("E", jsonVertToMap(edge));
+			return true;
+		}
 		boolean ret = false;
 		Map<String, Object> param = new HashMap<String, Object>();
 
@@ -388,40 +851,262 @@ public class DBConnection {
 		
 		//and now finally add edge to graph.  If it fails, return false here. if it was ok, then we can continue below.
 		param.put("EDGE_PROPS", props);
-		ret = execute("g.addEdge(g.v(ID_OUT),g.v(ID_IN),LABEL,EDGE_PROPS)", param);
-		if(ret == false){ 
-			return ret;
-		}
+		executeTemplate(ADD_EDGE, param.get("ID_OUT"), param.get("ID_IN"), param.get("LABEL"), props);
 		
 		//confirm before proceeding
+		final String confirmInID = inv_id;
+		final String confirmOutID = outv_id;
+		final String confirmLabel = label;
+		ret = confirmWrite(tryCommit(COMMIT_TRY_LIMIT), new WriteCheck(){
+			public boolean isConfirmed() throws RexProException, IOException{
+				if(writeConfirmMode == WriteConfirmMode.POLL){
+					return getEdgeCount(confirmInID, confirmOutID, confirmLabel) >= 1;
+				}
+				List<Object> queryRet = executeTemplate(CONFIRM_EDGE, Long.parseLong(confirmOutID), Long.parseLong(confirmInID), confirmLabel,
+						degreeStats.choose(confirmLabel).name());
+				return Boolean.TRUE.equals(queryRet.get(0));
+			}
+		});
 		
-		ret = false;
-		tryCommit(COMMIT_TRY_LIMIT);
-		int tryCount = 0;
-		//Confirm before proceeding
-		while(ret == false && tryCount < WRITE_CONFIRM_TRY_LIMIT){
-			//System.out.println("waiting for " + tryCount + " seconds in addEdgeFromJSON()");
-			waitFor(1000*tryCount + 1);
-			//System.out.println("confirming edge was added: attempt " + tryCount);
-			if( getEdgeCount(inv_id, outv_id, label) >= 1){
-				ret = true;
+		return ret;
+	}
+
+	public List<EdgeAddResult> addEdgesFromJSON(JSONArray edges) throws RexProException, IOException{
+		DBMetrics.Op timer = metrics.start("addEdgesFromJSON");
+		try{
+			return addEdgesFromJSONUntimed(edges);
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private List<EdgeAddResult> addEdgesFromJSONUntimed(JSONArray edges) throws RexProException, IOException{
+		List<Map<String, Object>> edgeList = new ArrayList<Map<String, Object>>(edges.length());
+		for(int i=0; i<edges.length(); i++){
+			edgeList.add(jsonVertToMap(edges.getJSONObject(i)));
+		}
+		return addEdgesFromMaps(edgeList);
+	}
+
+	/*
+	 * Adds all of the given edges, sending at most EDGE_BATCH_LIMIT of them per request, and commits once at the end.
+	 * Endpoints are resolved by name, and duplicates are checked for, on the server in the same script that adds the edges.
+	 * returns one result per edge, in the same order as the edges given.
+	 */
+	public List<EdgeAddResult> addEdgesFromMaps(List<Map<String, Object>> edges) throws RexProException, IOException{
+		DBMetrics.Op timer = metrics.start("addEdgesFromMaps");
+		try{
+			return addEdgesFromMapsUntimed(edges);
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private List<EdgeAddResult> addEdgesFromMapsUntimed(List<Map<String, Object>> edges) throws RexProException, IOException{
+		checkNoUnitOfWork("addEdgesFromMaps");
+		List<EdgeAddResult> results = new ArrayList<EdgeAddResult>(edges.size());
+		final List<Map<String, Object>> added = new ArrayList<Map<String, Object>>();
+		for(int start=0; start<edges.size(); start+=EDGE_BATCH_LIMIT){
+			List<Map<String, Object>> batch = edges.subList(start, Math.min(start + EDGE_BATCH_LIMIT, edges.size()));
+			List<Map<String, Object>> edgeParams = new ArrayList<Map<String, Object>>(batch.size());
+			Map<String, String> dirs = new HashMap<String, String>(); //one direction per label for the batch, since these don't report degrees back.
+			for(Map<String, Object> edge : batch){
+				edgeParams.add(newEdgeParams(edge, dirs));
+			}
+			List<List<Object>> batchRet = executeTemplate(ADD_EDGES, edgeParams);
+			for(int i=0; i<batchRet.size(); i++){
+				List<Object> edgeRet = batchRet.get(i);
+				EdgeAddResult result = EdgeAddResult.valueOf((String)edgeRet.get(0));
+				results.add(result);
+				if(result == EdgeAddResult.MISSING_ENDPOINT)
+					continue;
+				Map<String, Object> edgeParam = edgeParams.get(i);
+				edgeParam.put("OUT_ID", idParam(String.valueOf(edgeRet.get(1))));
+				edgeParam.put("IN_ID", idParam(String.valueOf(edgeRet.get(2))));
+				vertIDCache.put((String)edgeParam.get("OUT"), String.valueOf(edgeRet.get(1)));
+				vertIDCache.put((String)edgeParam.get("IN"), String.valueOf(edgeRet.get(2)));
+				if(result == EdgeAddResult.ADDED){
+					edgeParam.remove("EDGE_PROPS");
+					added.add(edgeParam);
+				}
 			}
-			tryCount += 1;
 		}
-		
+		if(added.isEmpty())
+			return results;
+
+		//confirm before proceeding, checking all of the new edges at once.
+		boolean ret = confirmWrite(tryCommit(COMMIT_TRY_LIMIT), new WriteCheck(){
+			public boolean isConfirmed() throws RexProException, IOException{
+				List<Object> queryRet = executeTemplate(CONFIRM_EDGES, added);
+				return Boolean.TRUE.equals(queryRet.get(0));
+			}
+		});
+		if(!ret){
+			logger.warn("addEdgesFromMaps could not confirm " + added.size() + " new edges.");
+			for(int i=0; i<results.size(); i++){
+				if(results.get(i) == EdgeAddResult.ADDED)
+					results.set(i, EdgeAddResult.FAILED);
+			}
+		}
+		return results;
+	}
+
+	//the OUT, IN, OUT_ID, IN_ID, LABEL, DIR and EDGE_PROPS params of one new edge, see EDGE_SCRIPT_FUNCTIONS.
+	// dirs holds the direction already picked for each label.
+	private Map<String, Object> newEdgeParams(Map<String, Object> edge, Map<String, String> dirs){
+		String outName = (String)edge.get("_outV");
+		String inName = (String)edge.get("_inV");
+		String label = (String)edge.get("_label");
+		Map<String, Object> props = new HashMap<String, Object>();
+		for(String key : edge.keySet()){
+			if(!key.equals("_id") && !key.equals("_outV") && !key.equals("_inV"))
+				props.put(key, edge.get(key));
+		}
+		props.put("edgeName", edge.get("_id"));
+		Map<String, Object> edgeParam = new HashMap<String, Object>();
+		edgeParam.put("OUT", outName);
+		edgeParam.put("IN", inName);
+		edgeParam.put("OUT_ID", idParam(vertIDCache.get(outName)));
+		edgeParam.put("IN_ID", idParam(vertIDCache.get(inName)));
+		edgeParam.put("LABEL", label);
+		if(!dirs.containsKey(label))
+			dirs.put(label, degreeStats.choose(label).name());
+		edgeParam.put("DIR", dirs.get(label));
+		edgeParam.put("EDGE_PROPS", props);
+		return edgeParam;
+	}
+
+	/*
+	 * Starts a unit of work for the calling thread.  Until commit() or rollback(), addVertexFromMap() / addVertexFromJSON(),
+	 * addEdgeFromJSON(), updateVert(), updateVertProperty() and updateVerts() on this thread are buffered instead of
+	 * sent, and just return true (or no failed ids.)  commit() then sends them all in one request, as one transaction.
+	 * Reads (findVertId() etc.) do not see the buffered writes.  The batch add methods and removeAllVertices() can not
+	 * be used inside a unit of work.
+	 */
+	public void begin(){
+		if(unitOfWork.get() != null)
+			throw new IllegalStateException("begin() called twice without commit() or rollback()");
+		unitOfWork.set(new UnitOfWork());
+	}
+
+	public boolean inUnitOfWork(){
+		return unitOfWork.get() != null;
+	}
+
+	/*
+	 * Sends the operations buffered since begin(), and commits once.  If any vertex or update fails, all of them are
+	 * rolled back, and the exception is thrown.  (TinkerGraph has no transactions, so there the operations before the
+	 * failed one are kept.)  Edges with a missing endpoint, or which already exist, are skipped, as in addEdgeFromJSON().
+	 * The id cache is only updated once committed.
+	 * returns false if the new vertices could not be confirmed (see WriteConfirmMode.)
+	 */
+	public boolean commit() throws RexProException, IOException{
+		DBMetrics.Op timer = metrics.start("commit");
+		try{
+			return commitUntimed();
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private boolean commitUntimed() throws RexProException, IOException{
+		UnitOfWork work = unitOfWork.get();
+		if(work == null)
+			throw new IllegalStateException("commit() called without begin()");
+		unitOfWork.remove();
+		if(work.ops.isEmpty())
+			return true;
+
+		Set<String> allKeys = new HashSet<String>();
+		for(Map<String, Object> op : work.ops){
+			if(!op.get("OP").equals("E"))
+				allKeys.addAll(((Map<String, Object>)op.get("PROPS")).keySet());
+		}
+		Map<String, String> cardinalities = findCardinalities(allKeys);
+		Map<String, String> dirs = new HashMap<String, String>();
+		List<Map<String, Object>> ops = new ArrayList<Map<String, Object>>(work.ops.size());
+		for(Map<String, Object> op : work.ops){
+			String type = (String)op.get("OP");
+			Map<String, Object> params;
+			if(type.equals("V"))
+				params = newVertParams((Map<String, Object>)op.get("PROPS"), cardinalities);
+			else if(type.equals("E"))
+				params = newEdgeParams((Map<String, Object>)op.get("PROPS"), dirs);
+			else
+				params = updateParams((String)op.get("ID"), (Map<String, Object>)op.get("PROPS"), cardinalities);
+			params.put("OP", type);
+			ops.add(params);
+		}
+		List<Object> results = executeTemplate(UNIT_OF_WORK, ops);
+
+		final Map<String, String> newIDs = new HashMap<String, String>();
+		for(int i=0; i<ops.size(); i++){
+			if(ops.get(i).get("OP").equals("V"))
+				newIDs.put((String)ops.get(i).get("NAME"), String.valueOf(results.get(i)));
+		}
+		for(String name : newIDs.keySet()){
+			vertIDCache.put(name, newIDs.get(name));
+			if(negativeLookupCache != null)
+				negativeLookupCache.invalidate(name);
+		}
+		if(newIDs.isEmpty())
+			return true;
+		final List<Long> ids = new ArrayList<Long>(newIDs.size());
+		for(String id : newIDs.values()){
+			ids.add(Long.parseLong(id));
+		}
+		boolean ret = confirmWrite(true, new WriteCheck(){
+			public boolean isConfirmed() throws RexProException, IOException{
+				List<Object> queryRet = executeTemplate(CONFIRM_VERTICES, ids);
+				return Boolean.TRUE.equals(queryRet.get(0));
+			}
+		});
+		if(!ret)
+			logger.warn("commit could not confirm " + newIDs.size() + " new vertices.");
 		return ret;
 	}
 
-	private void commit() throws RexProException, IOException{
+	/*
+	 * drops the operations buffered since begin(), without sending anything.
+	 */
+	public void rollback(){
+		if(unitOfWork.get() == null)
+			throw new IllegalStateException("rollback() called without begin()");
+		unitOfWork.remove();
+	}
+
+	private void checkNoUnitOfWork(String method){
+		if(unitOfWork.get() != null)
+			throw new IllegalStateException(method + "() can not be used inside a unit of work, see begin()");
+	}
+
+	//operations buffered by begin(), sent by commit()
+	private static class UnitOfWork{
+		final List<Map<String, Object>> ops = new ArrayList<Map<String, Object>>();
+
+		void add(String type, Map<String, Object> props){
+			Map<String, Object> op = new HashMap<String, Object>();
+			op.put("OP", type);
+			op.put("PROPS", props);
+			ops.add(op);
+		}
+
+		void addUpdate(String id, Map<String, Object> props){
+			add("U", new HashMap<String, Object>(props));
+			ops.get(ops.size() - 1).put("ID", id);
+		}
+	}
+
+	private void commitGraph() throws RexProException, IOException{
 		String graphType = getDBType();
 		if(graphType != "TinkerGraph")
-			execute("g.commit()");
+			executeTemplate(COMMIT);
 	}
 	
 	//tries to commit, returns true if success.
 	private boolean tryCommit(){
 		try{
-			commit();
+			commitGraph();
 		}catch(Exception e){
 			return false;
 		}
@@ -433,9 +1118,13 @@ public class DBConnection {
 		int count = 0;
 		boolean result = false;
 		while(!result && count < limit){
+			if(count > 0)
+				metrics.commitRetried();
 			result = tryCommit();
 			count += 1;
 		}
+		if(!result)
+			metrics.commitFailed();
 		return result;
 	}
 
@@ -444,13 +1133,22 @@ public class DBConnection {
 	//TODO wrapper throws away any return value, 
 	//  it'd be nice to use this even when we want the query's retval... but then we're back w/ exceptions & don't gain much.
 	public boolean execute(String query, Map<String,Object> params) throws RexProException, IOException{
-		if(this.client == null)
+		DBMetrics.Op timer = metrics.start("execute");
+		try{
+			return executeUntimed(query, params);
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private boolean executeUntimed(String query, Map<String,Object> params) throws RexProException, IOException{
+		if(this.backend == null)
 			return false;
 		//Adding a trailing return 'g' on everything: 
 		// no execute() args can end up returning null, due to known API bug.
 		// returning 'g' everywhere is just the simplest workaround for it, since it is always defined.
 		query += ";g";
-		client.execute(query, params);
+		executeQuery(query, params);
 		return true;
 	}
 	//likewise.
@@ -458,122 +1156,566 @@ public class DBConnection {
 		return execute(query,null);
 	}
 
-	//should only use in tests...
-	public RexsterClient getClient(){
-		return client;
+	private <T> List<T> executeTemplate(ScriptTemplate template, Object... args) throws RexProException, IOException{
+		return executeQuery(template.getName(), template.getScript(), template.bind(args));
 	}
 
-	public Map<String, Object> getVertByID(String id) throws RexProException, IOException{
-		Map<String, Object> param = new HashMap<String, Object>();
-		param.put("ID", Integer.parseInt(id));
-		Object query_ret = client.execute("g.v(ID).map();", param);
-		List<Map<String, Object>> query_ret_list = (List<Map<String, Object>>)query_ret;
-		Map<String, Object> query_ret_map = query_ret_list.get(0);
-		return query_ret_map;
+	private <T> List<T> executeQuery(String query, Map<String,Object> params) throws RexProException, IOException{
+		return executeQuery(null, query, params);
 	}
 
-	public Map<String,Object> findVert(String name) throws IOException, RexProException{
-		if(name == null || name == "")
-			return null;
-		Map<String, Object> param = new HashMap<String, Object>();
-		param.put("NAME", name);
-		Object query_ret = client.execute("g.query().has(\"name\",NAME).vertices().toList();", param);
-		List<Map<String,Object>> query_ret_list = (List<Map<String,Object>>)query_ret;
-		//logger.info("query returned: " + query_ret_list);
-		if(query_ret_list.size() == 0){
-			//logger.info("findVert found 0 matching verts for name:" + name); //this is too noisy, the invoking function can complain if it wants to...
-			return null;
-		}else if(query_ret_list.size() > 1){
-			logger.warn("findVert found more than 1 matching verts for name: " + name + " so returning the first item.");
-			//return null;
+	//all queries go through here.  Each public method is timed as one operation, which counts the queries it sends; a query
+	// sent outside of any (eg. from a background thread) is timed on its own, named for its template (or "query".)
+	private <T> List<T> executeQuery(String templateName, String query, Map<String,Object> params) throws RexProException, IOException{
+		long start = System.nanoTime();
+		boolean succeeded = false;
+		DBMetrics.Op timer = metrics.start((templateName == null) ? "query" : templateName);
+		metrics.roundTrip();
+		try{
+			List<T> ret = backend.execute(query, params);
+			succeeded = true;
+			return ret;
+		}finally{
+			timer.stop();
+			ScriptTemplateCache templates = scriptTemplateCache;
+			if(templates != null)
+				templates.record(templateName, query, System.nanoTime() - start, succeeded);
 		}
+	}
 
-		return query_ret_list.get(0);
+	private <T> List<T> executeQuery(String query) throws RexProException, IOException{
+		return executeQuery(query, null);
 	}
 
-	/*
-    public Map<String,Object> findEdge(String edgeName) throws IOException, RexProException{
-    	if(edgeName == null || edgeName == "")
-    		return null;
-    	Map<String, Object> param = new HashMap<String, Object>();
-    	param.put("NAME", edgeName);
-    	Object query_ret = client.execute("g.query().has(\"name\",NAME).edges().toList();", param);
-    	List<Map<String,Object>> query_ret_list = (List<Map<String,Object>>)query_ret;
-    	//logger.info("query returned: " + query_ret_list);
-    	if(query_ret_list.size() == 0){
-    		//logger.info("findEdge found 0 matching edges for name:" + name); //this is too noisy, the invoking function can complain if it wants to...
-    		return null;
-    	}else if(query_ret_list.size() > 1){
-    		logger.warn("findEdge found more than 1 matching edges for name:" + edgeName);
-    		return null;
-    	}
-    	return query_ret_list.get(0);
-    }
-	 */
+	public GraphBackend getBackend(){
+		return backend;
+	}
 
-	//function will check vertIDCache first, if id is not in there, then it is calling the findVert funciton
-	public String findVertId(String name) throws IOException, RexProException{
-		String id = vertIDCacheGet(name);
-		if(id != null){
-			return id;
-		}else{
-			Map<String, Object> vert = findVert(name);
-			if(vert == null) 
-				id = null;
-			else 
-				id = (String)vert.get("_id");
-			if(id != null){
-				vertIDCachePut(name, id);
-			}
-			return id;
-		}
+	//should only use in tests...  (when pooled, this is just the first client of the pool.)  null unless using RexPro.
+	public RexsterClient getClient(){
+		if(backend instanceof RexProBackend)
+			return ((RexProBackend)backend).getClient();
+		return null;
 	}
 
-	public List<Map<String,Object>> findAllVertsByType(String vertexType) throws IOException, RexProException{
-		if(vertexType == null || vertexType == "")
-			return null;
+	//null unless this connection is pooled.
+	public RexsterClientPool getPool(){
+		if(backend instanceof RexProBackend)
+			return ((RexProBackend)backend).getPool();
+		return null;
+	}
 
-		Map<String, Object> properties = new HashMap<String, Object>();
-		List<Constraint> l = new ArrayList<Constraint>();
-		Constraint c = new Constraint("vertexType", Condition.eq, vertexType);
-		l.add(c);
-		List<Map<String,Object>> query_ret_list = findAllVertsWithProps(l);
+	/*
+	 * When pooled, keeps the same client checked out for this thread until endSession(), instead of for each query.
+	 * Sessions can be nested.  Does nothing if this connection is not pooled.
+	 */
+	public void beginSession() throws IOException{
+		if(backend != null)
+			backend.beginSession();
+	}
 
-		if(query_ret_list.size() == 0){
-			logger.warn("findAllVertsByType found 0 matching verts for type:" + vertexType);
-			return null;
-		}
-		return query_ret_list;
+	public void endSession(){
+		if(backend != null)
+			backend.endSession();
+	}
+
+	/*
+	 * Window used by the *Async() methods.  If none was set, one is made with the timeout-read-ms and
+	 * max-async-write-queue-size of the settings this connection was created with, or the defaults if those are not known.
+	 */
+	public synchronized AsyncQueryWindow getAsyncWindow(){
+		if(asyncWindow == null)
+			asyncWindow = (config == null) ? new AsyncQueryWindow() : AsyncQueryWindow.fromConfig(config);
+		return asyncWindow;
+	}
+
+	//settings the client(s) were created with, or null if not known (eg. when given an already opened client.)
+	public Configuration getConfig(){
+		return config;
+	}
+
+	/*
+	 * eg. setAsyncWindow(AsyncQueryWindow.fromConfig(configOpts, 32)) to use the timeouts and queue size from config.yaml.
+	 * Can be shared by several DBConnections.
+	 */
+	public synchronized void setAsyncWindow(AsyncQueryWindow window){
+		this.asyncWindow = window;
+	}
+
+	/*
+	 * The *Async() methods run the matching method in the background, and return its result as a Future.
+	 * Blocks only while the async window is full, and throws IOException if it stays full for longer than its timeout.
+	 * Any exception from the query itself is thrown (wrapped in an ExecutionException) by Future.get()
+	 */
+	public Future<Boolean> executeAsync(final String query, final Map<String,Object> params) throws IOException{
+		return getAsyncWindow().submit(new Callable<Boolean>(){
+			public Boolean call() throws Exception{
+				return execute(query, params);
+			}
+		}, requestSize(query, params));
+	}
+
+	public Future<Boolean> executeAsync(String query) throws IOException{
+		return executeAsync(query, null);
+	}
+
+	public Future<Map<String, Object>> getVertByIDAsync(final String id) throws IOException{
+		return getAsyncWindow().submit(new Callable<Map<String, Object>>(){
+			public Map<String, Object> call() throws Exception{
+				return getVertByID(id);
+			}
+		}, requestSize(id));
+	}
+
+	public Future<Map<String, Object>> findVertAsync(final String name) throws IOException{
+		return getAsyncWindow().submit(new Callable<Map<String, Object>>(){
+			public Map<String, Object> call() throws Exception{
+				return findVert(name);
+			}
+		}, requestSize(name));
+	}
+
+	//cache hits (and names known to be absent) are returned as already completed futures, without using the window.
+	public Future<String> findVertIdAsync(final String name) throws IOException{
+		if(name == null || name.equals(""))
+			return AsyncQueryWindow.completed(null);
+		String id = vertIDCache.get(name);
+		if(id != null)
+			return AsyncQueryWindow.completed(id);
+		NegativeLookupCache negCache = negativeLookupCache;
+		if(negCache != null && negCache.isKnownAbsent(name))
+			return AsyncQueryWindow.completed(null);
+		return getAsyncWindow().submit(new Callable<String>(){
+			public String call() throws Exception{
+				return findVertId(name);
+			}
+		}, requestSize(name));
+	}
+
+	public Future<Integer> getEdgeCountAsync(final String inv_id, final String outv_id, final String label) throws IOException{
+		return getAsyncWindow().submit(new Callable<Integer>(){
+			public Integer call() throws Exception{
+				return getEdgeCount(inv_id, outv_id, label);
+			}
+		}, requestSize(inv_id, outv_id, label));
+	}
+
+	//rough size of a request, in bytes, for the async window.
+	private int requestSize(String query, Map<String,Object> params){
+		int size = REQUEST_OVERHEAD_BYTES + query.length();
+		if(params != null)
+			size += String.valueOf(params).length();
+		return size;
+	}
+
+	private int requestSize(String... args){
+		int size = REQUEST_OVERHEAD_BYTES;
+		for(String arg : args){
+			if(arg != null)
+				size += arg.length();
+		}
+		return size;
+	}
+
+	public Map<String, Object> getVertByID(String id) throws RexProException, IOException{
+		DBMetrics.Op timer = metrics.start("getVertByID");
+		try{
+			return getVertByIDUntimed(id);
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private Map<String, Object> getVertByIDUntimed(String id) throws RexProException, IOException{
+		Object query_ret = executeTemplate(GET_VERT_BY_ID, idParam(id));
+		List<Map<String, Object>> query_ret_list = (List<Map<String, Object>>)query_ret;
+		Map<String, Object> query_ret_map = query_ret_list.get(0);
+		return query_ret_map;
+	}
+
+	/*
+	 * returns only the id and the properties in projection, or null if not found.
+	 */
+	public Map<String, Object> getVertByID(String id, Projection projection) throws RexProException, IOException{
+		DBMetrics.Op timer = metrics.start("getVertByID");
+		try{
+			return getVertByIDUntimed(id, projection);
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private Map<String, Object> getVertByIDUntimed(String id, Projection projection) throws RexProException, IOException{
+		List<Map<String, Object>> query_ret_list = executeTemplate(GET_VERT_BY_ID_PROJECTED, idParam(id), projection.getKeys());
+		return query_ret_list.get(0);
+	}
+
+	public Map<String,Object> findVert(String name) throws IOException, RexProException{
+		return findVert(name, null);
+	}
+
+	/*
+	 * returns only the id and the properties in projection, as a flat map.  (If projection is null, returns the full vertex.)
+	 */
+	public Map<String,Object> findVert(String name, Projection projection) throws IOException, RexProException{
+		DBMetrics.Op timer = metrics.start("findVert");
+		try{
+			return findVertUntimed(name, projection);
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private Map<String,Object> findVertUntimed(String name, Projection projection) throws IOException, RexProException{
+		if(name == null || name == "")
+			return null;
+		Object query_ret;
+		if(projection == null)
+			query_ret = executeTemplate(FIND_VERT, name);
+		else
+			query_ret = executeTemplate(FIND_VERT_PROJECTED, name, projection.getKeys());
+		List<Map<String,Object>> query_ret_list = (List<Map<String,Object>>)query_ret;
+		//logger.info("query returned: " + query_ret_list);
+		if(query_ret_list.size() == 0){
+			//logger.info("findVert found 0 matching verts for name:" + name); //this is too noisy, the invoking function can complain if it wants to...
+			return null;
+		}else if(query_ret_list.size() > 1){
+			logger.warn("findVert found more than 1 matching verts for name: " + name + " so returning the first item.");
+			//return null;
+		}
+
+		return query_ret_list.get(0);
+	}
+
+	/*
+    public Map<String,Object> findEdge(String edgeName) throws IOException, RexProException{
+    	if(edgeName == null || edgeName == "")
+    		return null;
+    	Map<String, Object> param = new HashMap<String, Object>();
+    	param.put("NAME", edgeName);
+    	Object query_ret = client.execute("g.query().has(\"name\",NAME).edges().toList();", param);
+    	List<Map<String,Object>> query_ret_list = (List<Map<String,Object>>)query_ret;
+    	//logger.info("query returned: " + query_ret_list);
+    	if(query_ret_list.size() == 0){
+    		//logger.info("findEdge found 0 matching edges for name:" + name); //this is too noisy, the invoking function can complain if it wants to...
+    		return null;
+    	}else if(query_ret_list.size() > 1){
+    		logger.warn("findEdge found more than 1 matching edges for name:" + edgeName);
+    		return null;
+    	}
+    	return query_ret_list.get(0);
+    }
+	 */
+
+	//function will check vertIDCache first, if id is not in there, then it is calling the findVertIds funciton
+	public String findVertId(String name) throws IOException, RexProException{
+		DBMetrics.Op timer = metrics.start("findVertId");
+		try{
+			return findVertIdUntimed(name);
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private String findVertIdUntimed(String name) throws IOException, RexProException{
+		String id = vertIDCache.get(name);
+		if(id != null){
+			return id;
+		}else{
+			if(name == null || name.equals(""))
+				return null;
+			return findVertIds(Collections.singletonList(name)).get(name);
+		}
+	}
+
+	/*
+	 * Like findVertId, but for many names at once.  Names that are not in vertIDCache are all looked up in one query
+	 * (per VERT_BATCH_LIMIT names), which only returns their IDs.  The results are added to vertIDCache.
+	 * Names that were recently looked up and not found (see NegativeLookupCache) are not looked up again.
+	 * returns map of name to ID, names which were not found are left out.
+	 */
+	public Map<String, String> findVertIds(Collection<String> names) throws IOException, RexProException{
+		DBMetrics.Op timer = metrics.start("findVertIds");
+		try{
+			return findVertIdsUntimed(names);
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private Map<String, String> findVertIdsUntimed(Collection<String> names) throws IOException, RexProException{
+		Map<String, String> ids = new HashMap<String, String>((int) (names.size() * 1.5));
+		Set<String> missSet = new LinkedHashSet<String>();
+		for(String name : names){
+			if(name == null || name.equals("") || ids.containsKey(name))
+				continue;
+			String id = vertIDCache.get(name);
+			if(id != null){
+				ids.put(name, id);
+			}else if(negativeLookupCache == null || !negativeLookupCache.isKnownAbsent(name)){
+				missSet.add(name);
+			}
+		}
+		List<String> misses = new ArrayList<String>(missSet);
+		for(int start=0; start<misses.size(); start+=VERT_BATCH_LIMIT){
+			List<String> batch = misses.subList(start, Math.min(start + VERT_BATCH_LIMIT, misses.size()));
+			List<Object> query_ret_list = executeTemplate(FIND_VERT_IDS, new ArrayList<String>(batch));
+			for(int i=0; i<batch.size(); i++){
+				Object id = query_ret_list.get(i);
+				if(id != null){
+					ids.put(batch.get(i), id.toString());
+					vertIDCache.put(batch.get(i), id.toString());
+				}else if(negativeLookupCache != null){
+					negativeLookupCache.putAbsent(batch.get(i));
+				}
+			}
+		}
+		return ids;
+	}
+
+	public List<Map<String,Object>> findAllVertsByType(String vertexType) throws IOException, RexProException{
+		DBMetrics.Op timer = metrics.start("findAllVertsByType");
+		try{
+			return findAllVertsByTypeUntimed(vertexType);
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private List<Map<String,Object>> findAllVertsByTypeUntimed(String vertexType) throws IOException, RexProException{
+		if(vertexType == null || vertexType == "")
+			return null;
+
+		Map<String, Object> properties = new HashMap<String, Object>();
+		List<Constraint> l = new ArrayList<Constraint>();
+		Constraint c = new Constraint("vertexType", Condition.eq, vertexType);
+		l.add(c);
+		List<Map<String,Object>> query_ret_list = findAllVertsWithProps(l);
+
+		if(query_ret_list.size() == 0){
+			logger.warn("findAllVertsByType found 0 matching verts for type:" + vertexType);
+			return null;
+		}
+		return query_ret_list;
 	}
 
 
 	public List<Map<String,Object>> findAllVertsWithProps(List<Constraint> constraints) throws IOException, RexProException{
+		DBMetrics.Op timer = metrics.start("findAllVertsWithProps");
+		try{
+			return findAllVertsWithPropsUntimed(constraints);
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private List<Map<String,Object>> findAllVertsWithPropsUntimed(List<Constraint> constraints) throws IOException, RexProException{
 		if(constraints == null || constraints.size() == 0)
 			return null;
 
-		Map<String, Object> param = new HashMap<String, Object>();
-		//String query = "g.query()";
-		String query = "g.V";
-		for(int i=0; i<constraints.size(); i++){
-			Constraint c = constraints.get(i);
-			String cond = c.condString(c.cond);
-			String key = c.prop.toUpperCase()+i;
-			param.put(key, c.val);
-			query += ".has(\"" + c.prop + "\"," + cond + "," + key + ")";
-		}
-		//query += ".vertices().toList();";
-		query += ";";
-		Object query_ret = client.execute(query, param);
+		List<Object> constraintParams = constraintParams(constraints);
+		Object query_ret = executeTemplate(FIND_VERTS_WITH_PROPS, constraintParams.get(0), constraintParams.get(1), constraintParams.get(2));
 		List<Map<String,Object>> query_ret_list = (List<Map<String,Object>>)query_ret;
 
 		return query_ret_list;
 	}
 
+	/*
+	 * returns only the id and the properties in projection of each vertex, as flat maps.
+	 */
+	public List<Map<String,Object>> findAllVertsWithProps(List<Constraint> constraints, Projection projection) throws IOException, RexProException{
+		DBMetrics.Op timer = metrics.start("findAllVertsWithProps");
+		try{
+			return findAllVertsWithPropsUntimed(constraints, projection);
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private List<Map<String,Object>> findAllVertsWithPropsUntimed(List<Constraint> constraints, Projection projection) throws IOException, RexProException{
+		if(projection == null)
+			return findAllVertsWithProps(constraints);
+		if(constraints == null || constraints.size() == 0)
+			return null;
+
+		List<Object> constraintParams = constraintParams(constraints);
+		return executeTemplate(FIND_VERTS_WITH_PROPS_PROJECTED, constraintParams.get(0), constraintParams.get(1), constraintParams.get(2),
+				projection.getKeys());
+	}
+
+	/*
+	 * Like findAllVertsWithProps, but fetches the results pageSize at a time, see PagedVertexIterator.
+	 * Callers that stop before the end should close() the iterator.
+	 */
+	public PagedVertexIterator findAllVertsWithPropsPaged(List<Constraint> constraints, int pageSize){
+		return findAllVertsWithPropsPaged(constraints, pageSize, null);
+	}
+
+	//with a projection, see findAllVertsWithProps(constraints, projection)
+	public PagedVertexIterator findAllVertsWithPropsPaged(List<Constraint> constraints, int pageSize, final Projection projection){
+		if(constraints == null || constraints.size() == 0)
+			return null;
+
+		final List<Object> constraintParams = constraintParams(constraints);
+		return new PagedVertexIterator(new PagedVertexIterator.PageSource(){
+			public List<Map<String, Object>> fetch(int start, int size) throws RexProException, IOException{
+				DBMetrics.Op timer = metrics.start("findAllVertsWithPropsPaged");
+				try{
+					if(projection == null)
+						return executeTemplate(FIND_VERTS_WITH_PROPS_PAGE, constraintParams.get(0), constraintParams.get(1), constraintParams.get(2),
+								start, start + size - 1);
+					return executeTemplate(FIND_VERTS_WITH_PROPS_PAGE_PROJECTED, constraintParams.get(0), constraintParams.get(1), constraintParams.get(2),
+							start, start + size - 1, projection.getKeys());
+				}finally{
+					timer.stop();
+				}
+			}
+		}, pageSize, getAsyncWindow());
+	}
+
+	public PagedVertexIterator findAllVertsWithPropsPaged(List<Constraint> constraints){
+		return findAllVertsWithPropsPaged(constraints, VERT_PAGE_SIZE);
+	}
+
+	public PagedVertexIterator findAllVertsByTypePaged(String vertexType, int pageSize){
+		if(vertexType == null || vertexType == "")
+			return null;
+
+		List<Constraint> l = new ArrayList<Constraint>();
+		l.add(new Constraint("vertexType", Condition.eq, vertexType));
+		return findAllVertsWithPropsPaged(l, pageSize);
+	}
+
+	public PagedVertexIterator findAllVertsByTypePaged(String vertexType){
+		return findAllVertsByTypePaged(vertexType, VERT_PAGE_SIZE);
+	}
+
+	/*
+	 * number of vertices matching all the constraints, counted on the server.  (null or no constraints counts all vertices.)
+	 */
+	public long countVertsWithProps(List<Constraint> constraints) throws IOException, RexProException{
+		DBMetrics.Op timer = metrics.start("countVertsWithProps");
+		try{
+			return countVertsWithPropsUntimed(constraints);
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private long countVertsWithPropsUntimed(List<Constraint> constraints) throws IOException, RexProException{
+		List<Object> constraintParams = constraintParams(constraints);
+		List<Number> query_ret_list = executeTemplate(COUNT_VERTS_WITH_PROPS, constraintParams.get(0), constraintParams.get(1), constraintParams.get(2));
+		return query_ret_list.get(0).longValue();
+	}
+
+	/*
+	 * number of vertices matching the constraints (or all vertices, if null) with each value of key, counted on the server.
+	 * Vertices without key are not counted, and vertices with several values (SET or LIST keys) are counted once for each value.
+	 */
+	public Map<String, Long> groupCountVerts(String key, List<Constraint> constraints) throws IOException, RexProException{
+		DBMetrics.Op timer = metrics.start("groupCountVerts");
+		try{
+			return groupCountVertsUntimed(key, constraints);
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private Map<String, Long> groupCountVertsUntimed(String key, List<Constraint> constraints) throws IOException, RexProException{
+		List<Object> constraintParams = constraintParams(constraints);
+		List<Map<Object, Number>> query_ret_list = executeTemplate(GROUP_COUNT_VERTS, constraintParams.get(0), constraintParams.get(1), constraintParams.get(2), key);
+		Map<String, Long> counts = new TreeMap<String, Long>();
+		for(Map.Entry<Object, Number> entry : query_ret_list.get(0).entrySet()){
+			counts.put(String.valueOf(entry.getKey()), entry.getValue().longValue());
+		}
+		return counts;
+	}
+
+	//number of vertices of each vertexType
+	public Map<String, Long> countVertsByType() throws IOException, RexProException{
+		DBMetrics.Op timer = metrics.start("countVertsByType");
+		try{
+			return countVertsByTypeUntimed();
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private Map<String, Long> countVertsByTypeUntimed() throws IOException, RexProException{
+		return groupCountVerts("vertexType", null);
+	}
+
+	//number of vertices from each source
+	public Map<String, Long> countVertsBySource() throws IOException, RexProException{
+		DBMetrics.Op timer = metrics.start("countVertsBySource");
+		try{
+			return countVertsBySourceUntimed();
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private Map<String, Long> countVertsBySourceUntimed() throws IOException, RexProException{
+		return groupCountVerts("source", null);
+	}
+
+	/*
+	 * number of vertices matching the constraints (or all vertices, if null) with each degree of label edges, counted on the server.
+	 * outgoing is true to count out edges, false for in edges.  Includes vertices with degree 0.
+	 */
+	public Map<Long, Long> getDegreeHistogram(String label, boolean outgoing, List<Constraint> constraints) throws IOException, RexProException{
+		DBMetrics.Op timer = metrics.start("getDegreeHistogram");
+		try{
+			return getDegreeHistogramUntimed(label, outgoing, constraints);
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private Map<Long, Long> getDegreeHistogramUntimed(String label, boolean outgoing, List<Constraint> constraints) throws IOException, RexProException{
+		List<Object> constraintParams = constraintParams(constraints);
+		List<Map<Number, Number>> query_ret_list = executeTemplate(DEGREE_HISTOGRAM, constraintParams.get(0), constraintParams.get(1), constraintParams.get(2),
+				label, outgoing ? "OUT" : "IN");
+		Map<Long, Long> counts = new TreeMap<Long, Long>();
+		for(Map.Entry<Number, Number> entry : query_ret_list.get(0).entrySet()){
+			counts.put(entry.getKey().longValue(), entry.getValue().longValue());
+		}
+		return counts;
+	}
+
+	//the KEYS, CONDS and VALS lists for FIND_VERTS_WITH_PROPS.  (null is the same as no constraints.)
+	private List<Object> constraintParams(List<Constraint> constraints){
+		if(constraints == null)
+			constraints = Collections.emptyList();
+		List<String> keys = new ArrayList<String>(constraints.size());
+		List<String> conds = new ArrayList<String>(constraints.size());
+		List<Object> vals = new ArrayList<Object>(constraints.size());
+		for(Constraint c : constraints){
+			keys.add(c.prop);
+			conds.add(c.cond.name());
+			vals.add(c.val);
+		}
+		List<Object> params = new ArrayList<Object>(3);
+		params.add(keys);
+		params.add(conds);
+		params.add(vals);
+		return params;
+	}
+
 	/*
 	 * @deprecated use getEdgeCount instead
 	 */
 	@Deprecated
 	public boolean edgeExists(String inv_id, String outv_id, String label) throws RexProException, IOException {
+		DBMetrics.Op timer = metrics.start("edgeExists");
+		try{
+			return edgeExistsUntimed(inv_id, outv_id, label);
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private boolean edgeExistsUntimed(String inv_id, String outv_id, String label) throws RexProException, IOException{
 		return (getEdgeCount(inv_id, outv_id, label) > 0);
 	}
 	
@@ -581,145 +1723,225 @@ public class DBConnection {
 	 * returns edge count, or -1 if IDs not found. Throws exceptions if other error occurred.
 	 */
 	public int getEdgeCount(String inv_id, String outv_id, String label) throws RexProException, IOException {
-		int edgeCount = 0;
-		if(inv_id == null || inv_id == "" || outv_id == null || outv_id == "" || label == null || label == "")
-			return -1;
+		DBMetrics.Op timer = metrics.start("getEdgeCount");
+		try{
+			return getEdgeCountUntimed(inv_id, outv_id, label);
+		}finally{
+			timer.stop();
+		}
+	}
 
-		Map<String, Object> param = new HashMap<String, Object>();
-		param.put("ID_OUT", Integer.parseInt(outv_id));
-		param.put("ID_IN", Integer.parseInt(inv_id));
-		param.put("LABEL", label);
-		Object query_ret;
+	private int getEdgeCountUntimed(String inv_id, String outv_id, String label) throws RexProException, IOException{
+		int edgeCount = getEdgeCounts(Collections.singletonList(new EdgeTriple(inv_id, outv_id, label))).get(0);
+		if(edgeCount < 0 && inv_id != null && outv_id != null && label != null)
+			logger.warn("getEdgeCount could not find out_id:" + outv_id + " or inv_id:" + inv_id);
+		return edgeCount;
+	}
 
-		query_ret = client.execute("g.v(ID_OUT);", param);
-		if(query_ret == null){
-			logger.warn("getEdgeCount could not find out_id:" + outv_id);
-			return -1;
-		}
-		query_ret = client.execute("g.v(ID_IN);", param);
-		if(query_ret == null){
-			logger.warn("getEdgeCount could not find inv_id:" + inv_id);
-			return -1;
+	/*
+	 * Like getEdgeCount, for many edges at once.  The edges are counted on the server, and only the counts are
+	 * returned, in one request per EDGE_BATCH_LIMIT edges.
+	 * returns one count per triple, in the same order, or -1 where the IDs were not found.
+	 */
+	public List<Integer> getEdgeCounts(List<EdgeTriple> edges) throws RexProException, IOException {
+		DBMetrics.Op timer = metrics.start("getEdgeCounts");
+		try{
+			return getEdgeCountsUntimed(edges);
+		}finally{
+			timer.stop();
 		}
+	}
 
-		boolean highDegree = false;
-		for(String currLabel : HIGH_FORWARD_DEGREE_EDGE_LABELS){
-			if(label.equals(currLabel)){
-				highDegree = true;
-				break;
+	private List<Integer> getEdgeCountsUntimed(List<EdgeTriple> edges) throws RexProException, IOException{
+		List<Integer> counts = new ArrayList<Integer>(edges.size());
+		for(int start=0; start<edges.size(); start+=EDGE_BATCH_LIMIT){
+			List<EdgeTriple> batch = edges.subList(start, Math.min(start + EDGE_BATCH_LIMIT, edges.size()));
+			List<Long> outIDs = new ArrayList<Long>(batch.size());
+			List<Long> inIDs = new ArrayList<Long>(batch.size());
+			List<String> labels = new ArrayList<String>(batch.size());
+			List<String> dirs = new ArrayList<String>(batch.size());
+			List<Integer> sent = new ArrayList<Integer>(batch.size()); //index in batch of each edge sent
+			for(int i=0; i<batch.size(); i++){
+				EdgeTriple edge = batch.get(i);
+				Long outID = idParam(edge.outv_id);
+				Long inID = idParam(edge.inv_id);
+				if(outID == null || inID == null || edge.label == null || edge.label.equals(""))
+					continue;
+				outIDs.add(outID);
+				inIDs.add(inID);
+				labels.add(edge.label);
+				dirs.add(degreeStats.choose(edge.label).name());
+				sent.add(i);
+			}
+			Integer[] batchCounts = new Integer[batch.size()];
+			Arrays.fill(batchCounts, -1);
+			if(sent.size() > 0){
+				List<List<Number>> query_ret_list = executeTemplate(EDGE_COUNTS, outIDs, inIDs, labels, dirs);
+				for(int i=0; i<sent.size(); i++){
+					List<Number> edgeRet = query_ret_list.get(i);
+					batchCounts[sent.get(i)] = edgeRet.get(0).intValue();
+					if(edgeRet.get(0).intValue() >= 0)
+						degreeStats.record(labels.get(i), edgeRet.get(1).longValue(), edgeRet.get(2).longValue());
+				}
 			}
+			counts.addAll(Arrays.asList(batchCounts));
 		}
+		return counts;
+	}
 
-		if(!highDegree){
-			query_ret = client.execute("g.v(ID_OUT).outE(LABEL).inV().id;", param);
-			List<Long> query_ret_list = (List<Long>)query_ret;
-			//System.out.println("query ret list contains " + query_ret_list.size() + " items.");
-			for(Long item : query_ret_list){
-				if(Long.parseLong(inv_id) == item)
-					edgeCount++;
-			}
-			return edgeCount;
-		}else{
-			query_ret = client.execute("g.v(ID_IN).inE(LABEL).outV().id;", param);
-			List<Long> query_ret_list = (List<Long>)query_ret;
-			//System.out.println("query ret list contains " + query_ret_list.size() + " items.");
-			for(Long item : query_ret_list){
-				if(Long.parseLong(outv_id) == item)
-					edgeCount++;
-			}
-			return edgeCount;
+	/*
+	 * per label degree stats, and how often each direction was picked.
+	 */
+	public DegreeStats getDegreeStats(){
+		return degreeStats;
+	}
+
+	//can be shared with other DBConnections (to the same graph.)
+	public void setDegreeStats(DegreeStats stats){
+		this.degreeStats = stats;
+	}
+
+	private static DegreeStats defaultDegreeStats(){
+		DegreeStats stats = new DegreeStats();
+		for(String label : HIGH_FORWARD_DEGREE_EDGE_LABELS){
+			stats.seed(label, DegreeStats.PROBE_CAP, 1);
 		}
+		for(String label : HIGH_REVERSE_DEGREE_EDGE_LABELS){
+			stats.seed(label, 1, DegreeStats.PROBE_CAP);
+		}
+		return stats;
 	}
 
 	public void updateVert(String id, Map<String, Object> props) throws RexProException, IOException{
-		String[] keys = props.keySet().toArray(new String[0]);
-		for(int i=0; i<keys.length; i++){
-			updateVertProperty(id, keys[i], props.get(keys[i]));
+		updateVert(id, props, false);
+	}
+
+	/*
+	 * Sets all SINGLE properties and adds to all SET/LIST properties, and commits, in one request.
+	 * If atomic, the first property that fails rolls back the whole update, and the exception is thrown.
+	 * Otherwise, the other properties are still updated, and this returns false if any failed.
+	 * If the commit fails, nothing is updated and the exception is thrown.
+	 */
+	public boolean updateVert(String id, Map<String, Object> props, boolean atomic) throws RexProException, IOException{
+		DBMetrics.Op timer = metrics.start("updateVert");
+		try{
+			return updateVertUntimed(id, props, atomic);
+		}finally{
+			timer.stop();
 		}
 	}
 
-	public boolean updateVertProperty(String id, String key, Object val) throws RexProException, IOException{
-		boolean ret = false;
-		HashMap<String, Object> param = new HashMap<String, Object>();
-
-		String cardinality = findCardinality(key);
-		if(cardinality == null){
-			cardinality = "SINGLE";
-			cardinalityCache.put(key, cardinality);
-		}
-
-		param.put("ID", Integer.parseInt(id));
-		param.put("KEY", key);
-
-		if (cardinality.equals("SINGLE")) {
-			param.put("VAL", val);
-			ret = execute("g.v(ID).setProperty(KEY, VAL)", param);
-		} else {
-			boolean skipVal = false;
-			if(val instanceof JSONArray){
-				for(int i=0; i<((JSONArray)val).length(); i++){
-					Object currVal = ((JSONArray)val).get(i);
-					if(cardinality.equals("SET")){
-						Map<String, Object> query_ret_map = getVertByID(id);
-						if(query_ret_map.get(key) != null && ((List)query_ret_map.get(key)).contains(currVal)) skipVal = true;
-					}
-					if(!skipVal){
-						param.put("VAL",currVal);
-						ret = execute("g.v(ID).addProperty(KEY, VAL)", param);
-					}
-					skipVal = false;
-				}
-			}else if(val instanceof Set){
-				for(Object currVal : (Set)val){
-					if(cardinality.equals("SET")){
-						Map<String, Object> query_ret_map = getVertByID(id);
-						if(query_ret_map.get(key) != null && ((List)query_ret_map.get(key)).contains(currVal)) skipVal = true;
-					}
-					if(!skipVal){
-						param.put("VAL", currVal);
-						ret = execute("g.v(ID).addProperty(KEY, VAL)", param);
-					}
-					skipVal = false;
-				}
-			}else if(val instanceof List){
-				for(Object currVal : (List)val){
-					if(cardinality.equals("SET")){
-						Map<String, Object> query_ret_map = getVertByID(id);
-						if(query_ret_map.get(key) != null && ((List)query_ret_map.get(key)).contains(currVal)) skipVal = true;
-					}
-					if(!skipVal){
-						param.put("VAL", currVal);
-						ret = execute("g.v(ID).addProperty(KEY, VAL)", param);
-					}
-					skipVal = false;
-				}
-			}else if(val instanceof Object[]){
-				for(int i=0; i<((Object[])val).length; i++){ 
-					Object currVal = ((Object[])val)[i];
-					if(cardinality.equals("SET")){
-						Map<String, Object> query_ret_map = getVertByID(id);
-						if(query_ret_map.get(key) != null && ((List)query_ret_map.get(key)).contains(currVal)) skipVal = true;
-					}
-					if(!skipVal){
-						param.put("VAL", currVal);
-						ret = execute("g.v(ID).addProperty(KEY, VAL)", param);
-					}
-					skipVal = false;
+	private boolean updateVertUntimed(String id, Map<String, Object> props, boolean atomic) throws RexProException, IOException{
+		UnitOfWork work = unitOfWork.get();
+		if(work != null){
+			work.addUpdate(id, props);
+			return true;
+		}
+		Map<String, Object> update = updateParams(id, props, findCardinalities(props.keySet()));
+		List<String> failed = executeTemplate(UPDATE_VERT, update.get("ID"), update.get("SINGLE_PROPS"), update.get("MULTI_PROPS"),
+				update.get("SET_KEYS"), atomic);
+		//TODO: confirm before proceeding?
+		if(failed != null && failed.size() > 0){
+			logger.warn("updateVert could not update properties " + failed + " of vertex " + id);
+			return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Like updateVert (not atomic) for many vertices, sending at most VERT_BATCH_LIMIT of them per request, and each
+	 * request commits its own batch.  updates maps each vertex id to its properties.
+	 * returns the ids of vertices which were not found, or had properties which could not be updated.
+	 * If a batch's commit fails, the exception is thrown, and the batches before it stay committed.
+	 */
+	public List<String> updateVerts(Map<String, Map<String, Object>> updates) throws RexProException, IOException{
+		DBMetrics.Op timer = metrics.start("updateVerts");
+		try{
+			return updateVertsUntimed(updates);
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private List<String> updateVertsUntimed(Map<String, Map<String, Object>> updates) throws RexProException, IOException{
+		List<String> failedIDs = new ArrayList<String>();
+		UnitOfWork work = unitOfWork.get();
+		if(work != null){
+			for(Map.Entry<String, Map<String, Object>> update : updates.entrySet()){
+				work.addUpdate(update.getKey(), update.getValue());
+			}
+			return failedIDs;
+		}
+		if(updates.isEmpty())
+			return failedIDs;
+		Set<String> allKeys = new HashSet<String>();
+		for(Map<String, Object> props : updates.values()){
+			allKeys.addAll(props.keySet());
+		}
+		Map<String, String> cardinalities = findCardinalities(allKeys);
+		List<String> ids = new ArrayList<String>(updates.keySet());
+		for(int start=0; start<ids.size(); start+=VERT_BATCH_LIMIT){
+			List<String> batch = ids.subList(start, Math.min(start + VERT_BATCH_LIMIT, ids.size()));
+			List<Map<String, Object>> updateList = new ArrayList<Map<String, Object>>(batch.size());
+			for(String id : batch){
+				updateList.add(updateParams(id, updates.get(id), cardinalities));
+			}
+			List<List<String>> query_ret_list = executeTemplate(UPDATE_VERTS, updateList);
+			for(int i=0; i<batch.size(); i++){
+				List<String> failed = query_ret_list.get(i);
+				if(failed == null){
+					logger.warn("updateVerts could not find vertex " + batch.get(i));
+					failedIDs.add(batch.get(i));
+				}else if(failed.size() > 0){
+					logger.warn("updateVerts could not update properties " + failed + " of vertex " + batch.get(i));
+					failedIDs.add(batch.get(i));
 				}
+			}
+		}
+		return failedIDs;
+	}
+
+	//the ID, SINGLE_PROPS, MULTI_PROPS and SET_KEYS params of one vertex update.
+	private Map<String, Object> updateParams(String id, Map<String, Object> props, Map<String, String> cardinalities){
+		Map<String, Object> singleProps = new HashMap<String, Object>();
+		Map<String, Object> multiProps = new HashMap<String, Object>();
+		List<String> setKeys = new ArrayList<String>();
+		for(String key : props.keySet()){
+			String cardinality = cardinalities.get(key);
+			if(cardinality == null){
+				//titan will make the key with the default cardinality, which is SINGLE.  Only a guess, so it is not put in
+				// the (shared) schemaRegistry, which gets the real cardinality when it next reloads.
+				cardinality = "SINGLE";
+			}
+			if(cardinality.equals("SINGLE")){
+				singleProps.put(key, props.get(key));
 			}else{
-				if(cardinality.equals("SET")){
-					Map<String, Object> query_ret_map = getVertByID(id);
-					if(query_ret_map.get(key) != null && ((List)query_ret_map.get(key)).contains(val)) skipVal = true;
-				}
-				if(!skipVal){
-					param.put("VAL", val);
-					ret = execute("g.v(ID).addProperty(KEY, VAL)", param);
-				}
+				multiProps.put(key, valueToList(props.get(key)));
+				if(cardinality.equals("SET"))
+					setKeys.add(key);
 			}
 		}
-		tryCommit(COMMIT_TRY_LIMIT);
-		//TODO: confirm before proceeding?
-		return ret;
+		Map<String, Object> update = new HashMap<String, Object>();
+		update.put("ID", idParam(id));
+		update.put("SINGLE_PROPS", singleProps);
+		update.put("MULTI_PROPS", multiProps);
+		update.put("SET_KEYS", setKeys);
+		return update;
+	}
+
+	public boolean updateVertProperty(String id, String key, Object val) throws RexProException, IOException{
+		DBMetrics.Op timer = metrics.start("updateVertProperty");
+		try{
+			return updateVertPropertyUntimed(id, key, val);
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private boolean updateVertPropertyUntimed(String id, String key, Object val) throws RexProException, IOException{
+		Map<String, Object> props = new HashMap<String, Object>();
+		props.put(key, val);
+		return updateVert(id, props, false);
 	}
 	
 	/*
@@ -739,124 +1961,332 @@ public class DBConnection {
 	
 	/*
 	 * returns cardinality of property "key".  If not found, returns null.
+	 * (Always null for TinkerGraph, which has no schema.)  See SchemaRegistry.
 	 */
 	public String findCardinality(String key) throws RexProException, IOException{
-		String cardinality;
+		DBMetrics.Op timer = metrics.start("findCardinality");
+		try{
+			return findCardinalityUntimed(key);
+		}finally{
+			timer.stop();
+		}
+	}
 
-		cardinality = cardinalityCache.get(key);
-		if(cardinality == null){
-			List<Object> queryRet;
+	private String findCardinalityUntimed(String key) throws RexProException, IOException{
+		return schemaRegistry.getCardinality(key, schemaLoader);
+	}
 
-			String query = "mgmt=g.getManagementSystem();mgmt.getPropertyKey('" + key + "')";
-			queryRet = client.execute(query, null);
-			if(queryRet == null || queryRet.get(0) == null){
-				cardinality = null;
-			}else{
-				query = "mgmt=g.getManagementSystem();mgmt.getPropertyKey('" + key + "').cardinality";
-				queryRet = client.execute(query, null);
-				cardinality = (String)queryRet.get(0);
-				cardinalityCache.put(key, cardinality);
-			}
+	/*
+	 * like findCardinality, for many keys at once.  Unknown keys map to null.
+	 */
+	public Map<String, String> findCardinalities(Collection<String> keys) throws RexProException, IOException{
+		DBMetrics.Op timer = metrics.start("findCardinalities");
+		try{
+			return findCardinalitiesUntimed(keys);
+		}finally{
+			timer.stop();
 		}
-		return cardinality;
 	}
 
-	private void vertIDCachePut(String name, String id){
-		if(vertIDCache.size() >= VERT_ID_CACHE_LIMIT){
-			logger.info("vertex id cache exceeded limit of " + VERT_ID_CACHE_LIMIT + 
-					" ... evicting " + (vertIDCache.size() - vertIDCacheRecentlyRead.size()) + " unused items.");
-			Map<String, String> newVertIDCache = new HashMap<String, String>((int) (VERT_ID_CACHE_LIMIT * 1.5));
-			for(String n : vertIDCacheRecentlyRead){
-				if(vertIDCache.containsKey(n)){
-					newVertIDCache.put(n, vertIDCache.get(n));
-				}
-			}
-			vertIDCacheRecentlyRead = new HashSet<String>((int) (VERT_ID_CACHE_LIMIT * 1.5));
-			vertIDCache = newVertIDCache;
+	private Map<String, String> findCardinalitiesUntimed(Collection<String> keys) throws RexProException, IOException{
+		return schemaRegistry.getCardinalities(keys, schemaLoader);
+	}
+
+	/*
+	 * reloads all property keys and their cardinalities from the DB now, eg. after another client changed the schema.
+	 */
+	public void refreshSchema() throws RexProException, IOException{
+		DBMetrics.Op timer = metrics.start("refreshSchema");
+		try{
+			refreshSchemaUntimed();
+		}finally{
+			timer.stop();
 		}
-		vertIDCache.put(name, id);
 	}
-	
-	private String vertIDCacheGet(String name){
-		if(vertIDCache.containsKey(name)){ 
-			vertIDCacheRecentlyRead.add(name);
-			return vertIDCache.get(name);
-		}else{
-			return null;
+
+	private void refreshSchemaUntimed() throws RexProException, IOException{
+		schemaRegistry.refresh(schemaLoader);
+	}
+
+	public SchemaRegistry getSchemaRegistry(){
+		return schemaRegistry;
+	}
+
+	/*
+	 * by default, all DBConnections share SchemaRegistry.getShared().  Connections to other graphs need their own.
+	 */
+	public void setSchemaRegistry(SchemaRegistry registry){
+		this.schemaRegistry = registry;
+	}
+
+	private final SchemaRegistry.Loader schemaLoader = new SchemaRegistry.Loader(){
+		public Map<String, String> loadCardinalities() throws RexProException, IOException{
+			if(getDBType().equals("TinkerGraph"))
+				return Collections.emptyMap();
+			List<Map<String, String>> queryRet = executeTemplate(LOAD_SCHEMA);
+			if(queryRet == null || queryRet.get(0) == null)
+				return Collections.emptyMap();
+			return queryRet.get(0);
 		}
-		
+	};
+
+	public DBMetrics getMetrics(){
+		return metrics;
 	}
-	
+
 	/*
-	 * Only used by removeAllVertices()
+	 * metrics can be shared with other DBConnections, to count them together.
 	 */
-	private boolean removeCachedVertices(){
-		//NB: this query is slow enough that connection can time out if the DB starts with many vertices.
+	public void setMetrics(DBMetrics metrics){
+		this.metrics.unwatchCaches(this);
+		metrics.watchCaches(this);
+		this.metrics = metrics;
+	}
 
-		if(vertIDCache.isEmpty())
-			return true;
+	/*
+	 * usage and latency of the scripts this connection has sent, can be shared with other DBConnections.
+	 */
+	public ScriptTemplateCache getScriptTemplateCache(){
+		return scriptTemplateCache;
+	}
+
+	//null to stop recording.
+	public void setScriptTemplateCache(ScriptTemplateCache cache){
+		this.scriptTemplateCache = cache;
+	}
+
+	public VertIDCache getVertIDCache(){
+		return vertIDCache;
+	}
+
+	public NegativeLookupCache getNegativeLookupCache(){
+		return negativeLookupCache;
+	}
 
-		boolean ret = true;
-		//delete the known nodes first, to help prevent timeouts.
-		Map<String,Object> param;
-		Collection<String> ids = vertIDCache.values();
+	/*
+	 * Off (null) by default.  Give the same cache to every DBConnection writing to the graph: each one only drops the
+	 * names it creates from its own cache, so with separate caches, a name one connection just missed and another
+	 * then created is still missed by the first until it expires, and a find-then-create would add it twice.
+	 * null to always look up missing names.
+	 */
+	public void setNegativeLookupCache(NegativeLookupCache cache){
+		this.negativeLookupCache = cache;
+	}
+	
+	/*
+	 * Removes the vertices with these ids (and their edges) which exist, in one request, and commits.  Returns the names of
+	 * the removed vertices (null for any without one), which are also removed from the VertIDCache.
+	 * This is one chunk of work, see VertexDeleter for removing many vertices.
+	 */
+	public List<String> removeVertsByIds(Collection<String> ids) throws RexProException, IOException{
+		DBMetrics.Op timer = metrics.start("removeVertsByIds");
+		try{
+			return removeVertsByIdsUntimed(ids);
+		}finally{
+			timer.stop();
+		}
+	}
+
+	private List<String> removeVertsByIdsUntimed(Collection<String> ids) throws RexProException, IOException{
+		checkNoUnitOfWork("removeVertsByIds");
+		if(ids.isEmpty())
+			return Collections.emptyList();
+		List<Long> idParams = new ArrayList<Long>(ids.size());
 		for(String id : ids){
-			param = new HashMap<String,Object>();
-			param.put("ID", Integer.parseInt(id));
-			try{
-				client.execute("g.v(ID).remove();g", param);
-			}catch(Exception e){
-				e.printStackTrace();
-				ret = false;
-			}
+			idParams.add(idParam(id));
 		}
-		if(ret){
-			ret = tryCommit(COMMIT_TRY_LIMIT);
+		List<String> removed = executeTemplate(REMOVE_VERTS_BY_IDS, idParams);
+		uncacheRemoved(removed);
+		return removed;
+	}
+
+	/*
+	 * Removes the vertices with ids from minId to maxId (and their edges) which exist, in one request, and commits.  Returns
+	 * the names of the removed vertices (null for any without one), which are also removed from the VertIDCache.
+	 * Each id in the range is looked up, so the work is bounded by the width of the range, not by how many vertices are in it.
+	 * Ids can be sparse: Titan spreads them over id blocks and partitions, so a range can hold far fewer vertices than ids.
+	 * This is one chunk of work, see VertexDeleter for removing many vertices.
+	 */
+	public List<String> removeVertsInIdRange(long minId, long maxId) throws RexProException, IOException{
+		DBMetrics.Op timer = metrics.start("removeVertsInIdRange");
+		try{
+			return removeVertsInIdRangeUntimed(minId, maxId);
+		}finally{
+			timer.stop();
 		}
+	}
 
-		//clear the cache now.
-		vertIDCache = new HashMap<String, String>((int) (VERT_ID_CACHE_LIMIT * 1.5));
-		vertIDCacheRecentlyRead = new HashSet<String>((int) (VERT_ID_CACHE_LIMIT * 1.5));
+	private List<String> removeVertsInIdRangeUntimed(long minId, long maxId) throws RexProException, IOException{
+		checkNoUnitOfWork("removeVertsInIdRange");
+		if(maxId < minId)
+			throw new IllegalArgumentException("maxId must be at least minId, were " + maxId + " and " + minId);
+		List<String> removed = executeTemplate(REMOVE_VERTS_IN_ID_RANGE, minId, maxId);
+		uncacheRemoved(removed);
+		return removed;
+	}
+
+	/*
+	 * Returns the ids of up to limit vertices matching all the constraints, with ids from minId to maxId (either can be null
+	 * for no bound.)  The same vertices come back each time until they are removed, so this is meant for finding the next
+	 * chunk to remove, not for paging.
+	 * At least one constraint must be an eq on an indexed key, so the vertices are found with the index and the request only
+	 * reads the vertices with that value, or IllegalArgumentException is thrown.  (An id range does not help, ids have no index.)
+	 * With no constraints and no id range, this takes the first vertices of a scan of all vertices.  That is cheap on an
+	 * in-memory graph, but on Titan each call starts the scan over, and on a store which keeps tombstones for a while (eg.
+	 * Cassandra) it reads past all the vertices removed so far, so each call gets slower as more are removed.
+	 */
+	public List<String> findVertIdsWithProps(List<Constraint> constraints, Long minId, Long maxId, int limit) throws RexProException, IOException{
+		DBMetrics.Op timer = metrics.start("findVertIdsWithProps");
+		try{
+			return findVertIdsWithPropsUntimed(constraints, minId, maxId, limit);
+		}finally{
+			timer.stop();
+		}
+	}
 
+	private List<String> findVertIdsWithPropsUntimed(List<Constraint> constraints, Long minId, Long maxId, int limit) throws RexProException, IOException{
+		if(limit < 1)
+			throw new IllegalArgumentException("limit must be at least 1, was " + limit);
+		if(constraints != null && !constraints.isEmpty()){
+			if(!hasIndexedConstraint(constraints))
+				throw new IllegalArgumentException("one of the constraints must be an eq on one of the indexed keys " + getIndexedVertexKeys() +
+						", otherwise every request scans all vertices");
+		}else if(minId != null || maxId != null){
+			throw new IllegalArgumentException("an id range needs a constraint on an indexed key, otherwise every request scans all vertices");
+		}
+		List<Object> constraintParams = constraintParams(constraints);
+		List<Object> ids = executeTemplate(FIND_VERT_IDS_WITH_PROPS, constraintParams.get(0), constraintParams.get(1), constraintParams.get(2),
+				minId, maxId, limit);
+		List<String> ret = new ArrayList<String>(ids.size());
+		for(Object id : ids){
+			ret.add(String.valueOf(id));
+		}
 		return ret;
+	}
 
+	private boolean hasIndexedConstraint(List<Constraint> constraints) throws RexProException, IOException{
+		Set<String> indexed = getIndexedVertexKeys();
+		for(Constraint c : constraints){
+			if(c.cond == Condition.eq && indexed.contains(c.prop))
+				return true;
+		}
+		return false;
+	}
+
+	//the vertex keys with an index, read once.  (createIndices() reads them again.)
+	private Set<String> getIndexedVertexKeys() throws RexProException, IOException{
+		Set<String> keys = indexedVertexKeys;
+		if(keys == null){
+			List<Object> ret = executeTemplate(GET_INDEXED_VERT_KEYS);
+			keys = new HashSet<String>();
+			for(Object key : ret){
+				keys.add(String.valueOf(key));
+			}
+			indexedVertexKeys = keys;
+		}
+		return keys;
+	}
+
+	private void uncacheRemoved(List<String> names){
+		for(String name : names){
+			if(name != null)
+				vertIDCache.remove(name);
+		}
 	}
 
 	/*
 	 * Only use in tests.
+	 * Removes the vertices in chunks of VERT_DELETE_CHUNK, each committed on its own, so this does not time out on
+	 * large graphs.  Each chunk is found with a scan from the start, see findVertIdsWithProps().  See VertexDeleter to remove many vertices in parallel.
 	 */
 	public boolean removeAllVertices(){
-		//NB: this query is slow enough that connection can time out if the DB starts with many vertices.
-		boolean ret = false; 
-		removeCachedVertices();
+		DBMetrics.Op timer = metrics.start("removeAllVertices");
 		try{
-			client.execute("g.V.remove();g");
-		}catch(Exception e){
-			e.printStackTrace();
-			ret = false;
+			return removeAllVerticesUntimed();
+		}finally{
+			timer.stop();
 		}
-		try{
-			int tryCount = 0;
-			List<Object> queryRet;
-			//Confirm before proceeding
-			while(ret == false && tryCount < WRITE_CONFIRM_TRY_LIMIT){
-				//System.out.println("waiting for " + tryCount + " seconds in removeAllVertices()");
+	}
+
+	private boolean removeAllVerticesUntimed(){
+		checkNoUnitOfWork("removeAllVertices");
+		boolean ret = false;
+		int tryCount = 0;
+		//Confirm before proceeding
+		while(ret == false && tryCount < WRITE_CONFIRM_TRY_LIMIT){
+			if(tryCount > 0){
 				waitFor(1000*tryCount +1);
-				commit();
-				queryRet = client.execute("g.V.count();");
-				if( (Long)queryRet.get(0) == 0){
+			}
+			try{
+				List<String> ids;
+				do{
+					ids = findVertIdsWithProps(null, null, null, VERT_DELETE_CHUNK);
+					removeVertsByIds(ids);
+				}while(ids.size() == VERT_DELETE_CHUNK);
+				List<Number> queryRet = executeTemplate(COUNT_VERTS);
+				if(queryRet.get(0).longValue() == 0){
 					ret = true;
 				}
-				tryCount += 1;
+			}catch(Exception e){
+				logger.warn(e.getLocalizedMessage());
+				logger.warn(getStackTrace(e));
 			}
-		}catch(Exception e){
-			logger.warn(e.getLocalizedMessage());
-			logger.warn(getStackTrace(e));
-			ret = false;
+			tryCount += 1;
 		}
+		vertIDCache.clear();
 		return ret;
 	}
 	
+	/*
+	 * Confirms a write according to writeConfirmMode, given whether its commit succeeded.
+	 * In BATCH mode the first read-back is done right away, in POLL mode after a short wait.  If a read-back fails, 
+	 * it is retried with the wait doubling each time (up to CONFIRM_MAX_WAIT_MS), until WRITE_CONFIRM_WAIT_LIMIT_MS have passed.
+	 * The first wait adapts to how long recent writes have taken to become visible.
+	 */
+	private boolean confirmWrite(boolean committed, WriteCheck check) throws RexProException, IOException{
+		if(writeConfirmMode == WriteConfirmMode.NONE){
+			return committed;
+		}
+		boolean firstTry = true;
+		int wait = confirmWaitMs;
+		int waited = 0;
+		int polls = 0;
+		while(true){
+			boolean waiting = !firstTry || writeConfirmMode == WriteConfirmMode.POLL;
+			if(waiting){
+				waitFor(wait);
+				waited += wait;
+			}
+			metrics.confirmPolled();
+			polls++;
+			if(check.isConfirmed()){
+				metrics.confirmDone(polls, true);
+				if(firstTry){
+					confirmWaitMs = Math.max(1, confirmWaitMs / 2);
+				}else{
+					confirmWaitMs = wait;
+				}
+				return true;
+			}
+			if(waited >= WRITE_CONFIRM_WAIT_LIMIT_MS){
+				metrics.confirmDone(polls, false);
+				return false;
+			}
+			if(waiting){
+				wait = Math.min(wait * 2, CONFIRM_MAX_WAIT_MS);
+			}
+			firstTry = false;
+		}
+	}
+
+	public WriteConfirmMode getWriteConfirmMode(){
+		return writeConfirmMode;
+	}
+
+	public void setWriteConfirmMode(WriteConfirmMode mode){
+		this.writeConfirmMode = mode;
+	}
+
 	private void waitFor(int ms){
 		try {
 			Thread.sleep(ms);
@@ -883,6 +2313,29 @@ public class DBConnection {
 		return l;
 	}
 	
+	//vertex ID as sent in script params, or null if not known.
+	private Long idParam(String id){
+		if(id == null || id.equals("") || id.equals("null"))
+			return null;
+		return Long.parseLong(id);
+	}
+
+	//returns the value(s) of a (possibly multi-valued) property as a list.
+	private List<Object> valueToList(Object val){
+		List<Object> l;
+		if(val instanceof JSONArray){
+			l = jsonArrayToList((JSONArray)val);
+		}else if(val instanceof Collection){
+			l = new ArrayList<Object>((Collection<?>)val);
+		}else if(val instanceof Object[]){
+			l = new ArrayList<Object>(Arrays.asList((Object[])val));
+		}else{
+			l = new ArrayList<Object>(1);
+			l.add(val);
+		}
+		return l;
+	}
+
 	//see Align class	
 	public Map<String, Object> jsonVertToMap(JSONObject v){
 		Map<String, Object> vert = new HashMap<String, Object>();
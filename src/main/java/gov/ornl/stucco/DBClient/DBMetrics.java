@@ -0,0 +1,436 @@
+package gov.ornl.stucco.DBClient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/*
+ * Operation-level metrics for a DBConnection, kept in a (codahale) MetricRegistry.
+ *
+ * Each public DBConnection method which sends requests is timed as one operation under its method name, with the
+ * number of requests it sent (round trips), including its lookups, commits and confirmation polls.  Operations started
+ * inside another one on the same thread (eg. a method calling another) are counted as part of the outer one, and a
+ * request sent outside of any operation is timed on its own, named for its script template.  Also counted: commit retries, write
+ * confirmation polls, and the hit rates of the connection's caches.
+ * The latencies and round trips are kept in decaying reservoirs, so recording one is a few map and lock operations,
+ * which is small next to a request to the server.
+ * All metrics are named prefix.name, see getSnapshot() for a copy of them, or startJmxReporter() to publish them as
+ * MBeans.  The default prefix is "DBConnection-n", numbered per DBMetrics, so the MBeans of several connections do not
+ * clash.  A DBMetrics can be shared by several DBConnections to count them together (the cache hit rates are then over
+ * the caches of all of them), or several can share one MetricRegistry with different prefixes.
+ */
+public class DBMetrics {
+
+	private static String DEFAULT_PREFIX = "DBConnection";
+	private static String DEFAULT_JMX_DOMAIN = "gov.ornl.stucco.DBClient";
+	private static final AtomicInteger instances = new AtomicInteger();
+
+	private final MetricRegistry registry;
+	private final String prefix;
+	private final ConcurrentHashMap<String, OpMetrics> ops = new ConcurrentHashMap<String, OpMetrics>();
+	private final ThreadLocal<Op> current = new ThreadLocal<Op>();
+	private final Meter roundTrips;
+	private final Counter commitRetries;
+	private final Counter commitFailures;
+	private final Counter confirmPolls;
+	private final Histogram confirmPollsPerWrite;
+	private final Counter confirmFailures;
+	private JmxReporter jmxReporter = null;
+	//connections whose caches the hit rate gauges cover, held weakly so a closed connection can be collected.
+	private final Map<DBConnection, Boolean> watched = Collections.synchronizedMap(new WeakHashMap<DBConnection, Boolean>());
+
+	//latency and round trips of one operation
+	private static class OpMetrics{
+		final Timer latency;
+		final Histogram roundTrips;
+		OpMetrics(Timer latency, Histogram roundTrips){
+			this.latency = latency;
+			this.roundTrips = roundTrips;
+		}
+	}
+
+	public DBMetrics(){
+		this(new MetricRegistry(), DEFAULT_PREFIX + "-" + instances.incrementAndGet());
+	}
+
+	public DBMetrics(MetricRegistry registry, String prefix){
+		this.registry = registry;
+		this.prefix = prefix;
+		roundTrips = registry.meter(MetricRegistry.name(prefix, "roundTrips"));
+		commitRetries = registry.counter(MetricRegistry.name(prefix, "commit", "retries"));
+		commitFailures = registry.counter(MetricRegistry.name(prefix, "commit", "failures"));
+		confirmPolls = registry.counter(MetricRegistry.name(prefix, "confirm", "polls"));
+		confirmPollsPerWrite = registry.histogram(MetricRegistry.name(prefix, "confirm", "pollsPerWrite"));
+		confirmFailures = registry.counter(MetricRegistry.name(prefix, "confirm", "failures"));
+	}
+
+	public MetricRegistry getRegistry(){
+		return registry;
+	}
+
+	public String getPrefix(){
+		return prefix;
+	}
+
+	/*
+	 * Starts timing operation name on this thread, until stop() is called on the returned Op.  If an operation is
+	 * already running on this thread, this returns that one, and name is not counted separately.
+	 */
+	public Op start(String name){
+		Op op = current.get();
+		if(op != null){
+			op.depth++;
+			return op;
+		}
+		op = new Op(this, name);
+		current.set(op);
+		return op;
+	}
+
+	//one request sent to the server, counted for the operation running on this thread, if any.
+	void roundTrip(){
+		roundTrips.mark();
+		Op op = current.get();
+		if(op != null)
+			op.roundTrips++;
+	}
+
+	void commitRetried(){
+		commitRetries.inc();
+	}
+
+	void commitFailed(){
+		commitFailures.inc();
+	}
+
+	void confirmPolled(){
+		confirmPolls.inc();
+	}
+
+	//end of one write confirmation, after polls read-backs.
+	void confirmDone(int polls, boolean confirmed){
+		confirmPollsPerWrite.update(polls);
+		if(!confirmed)
+			confirmFailures.inc();
+	}
+
+	/*
+	 * adds c's caches to the hit rate gauges, registering those the first time.
+	 */
+	void watchCaches(DBConnection c){
+		watched.put(c, Boolean.TRUE);
+		String vertIDName = MetricRegistry.name(prefix, "cache", "vertID", "hitRate");
+		if(registry.getGauges().containsKey(vertIDName))
+			return;
+		try{
+			registry.register(vertIDName, new Gauge<Double>(){
+				public Double getValue(){
+					long hits = 0, total = 0;
+					Set<Object> seen = identitySet();
+					for(DBConnection c : watchedConnections()){
+						VertIDCache cache = c.getVertIDCache();
+						if(cache != null && seen.add(cache)){
+							hits += cache.getHitCount();
+							total += cache.getHitCount() + cache.getMissCount();
+						}
+					}
+					return hitRate(hits, total);
+				}
+			});
+			registry.register(MetricRegistry.name(prefix, "cache", "cardinality", "hitRate"), new Gauge<Double>(){
+				public Double getValue(){
+					long hits = 0, total = 0;
+					Set<Object> seen = identitySet();
+					for(DBConnection c : watchedConnections()){
+						SchemaRegistry schema = c.getSchemaRegistry();
+						if(schema != null && seen.add(schema)){
+							hits += schema.getLookupCount() - schema.getUnknownKeyCount();
+							total += schema.getLookupCount();
+						}
+					}
+					return hitRate(hits, total);
+				}
+			});
+			registry.register(MetricRegistry.name(prefix, "cache", "negativeLookup", "hitRate"), new Gauge<Double>(){
+				public Double getValue(){
+					long hits = 0, total = 0;
+					Set<Object> seen = identitySet();
+					for(DBConnection c : watchedConnections()){
+						NegativeLookupCache cache = c.getNegativeLookupCache();
+						if(cache != null && seen.add(cache)){
+							hits += cache.getHitCount();
+							total += cache.getHitCount() + cache.getMissCount();
+						}
+					}
+					return hitRate(hits, total);
+				}
+			});
+		}catch(IllegalArgumentException e){
+			//another DBMetrics with this prefix registered them first.
+		}
+	}
+
+	//removes c's caches from the hit rate gauges, when c is given other metrics.
+	void unwatchCaches(DBConnection c){
+		watched.remove(c);
+	}
+
+	private List<DBConnection> watchedConnections(){
+		synchronized(watched){
+			return new ArrayList<DBConnection>(watched.keySet());
+		}
+	}
+
+	//caches shared by several connections are counted once.
+	private static Set<Object> identitySet(){
+		return Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+	}
+
+	private static double hitRate(long hits, long total){
+		return (total == 0) ? 0.0 : (double)hits / total;
+	}
+
+	/*
+	 * publishes all the metrics in the registry as MBeans, in domain (or "gov.ornl.stucco.DBClient" if null.)
+	 */
+	public synchronized void startJmxReporter(String domain){
+		if(jmxReporter != null)
+			return;
+		jmxReporter = JmxReporter.forRegistry(registry)
+				.inDomain((domain == null) ? DEFAULT_JMX_DOMAIN : domain)
+				.convertDurationsTo(TimeUnit.MILLISECONDS)
+				.convertRatesTo(TimeUnit.SECONDS)
+				.build();
+		jmxReporter.start();
+	}
+
+	public synchronized void stopJmxReporter(){
+		if(jmxReporter == null)
+			return;
+		jmxReporter.stop();
+		jmxReporter = null;
+	}
+
+	/*
+	 * copy of the current values.
+	 */
+	public Snapshot getSnapshot(){
+		SortedMap<String, OpStats> opStats = new TreeMap<String, OpStats>();
+		for(Map.Entry<String, OpMetrics> entry : ops.entrySet()){
+			opStats.put(entry.getKey(), new OpStats(entry.getValue()));
+		}
+		SortedMap<String, Double> hitRates = new TreeMap<String, Double>();
+		String cachePrefix = MetricRegistry.name(prefix, "cache") + ".";
+		for(Map.Entry<String, Metric> entry : registry.getMetrics().entrySet()){
+			String name = entry.getKey();
+			if(entry.getValue() instanceof Gauge && name.startsWith(cachePrefix) && name.endsWith(".hitRate"))
+				hitRates.put(name.substring(cachePrefix.length(), name.length() - ".hitRate".length()), ((Number)((Gauge<?>)entry.getValue()).getValue()).doubleValue());
+		}
+		return new Snapshot(opStats, hitRates, roundTrips.getCount(), commitRetries.getCount(), commitFailures.getCount(),
+				confirmPolls.getCount(), confirmPollsPerWrite.getCount(), confirmFailures.getCount());
+	}
+
+	public String toString(){
+		return getSnapshot().toString();
+	}
+
+	private void record(Op op, long nanos){
+		OpMetrics m = ops.get(op.name);
+		if(m == null){
+			m = new OpMetrics(registry.timer(MetricRegistry.name(prefix, op.name, "latency")),
+					registry.histogram(MetricRegistry.name(prefix, op.name, "roundTrips")));
+			OpMetrics existing = ops.putIfAbsent(op.name, m);
+			if(existing != null)
+				m = existing;
+		}
+		m.latency.update(nanos, TimeUnit.NANOSECONDS);
+		m.roundTrips.update(op.roundTrips);
+	}
+
+	/*
+	 * one running operation, see start().
+	 */
+	public static class Op {
+		private final DBMetrics metrics;
+		private final String name;
+		private final long start = System.nanoTime();
+		private int depth = 1;
+		private int roundTrips = 0;
+
+		private Op(DBMetrics metrics, String name){
+			this.metrics = metrics;
+			this.name = name;
+		}
+
+		public void stop(){
+			if(--depth > 0)
+				return;
+			metrics.current.remove();
+			metrics.record(this, System.nanoTime() - start);
+		}
+	}
+
+	/*
+	 * latency (in ms) and round trips of one operation.  Percentiles are over the recent calls, counts are over all calls.
+	 */
+	public static class OpStats {
+		private final long count;
+		private final double p50Ms;
+		private final double p99Ms;
+		private final double p999Ms;
+		private final double meanMs;
+		private final double maxMs;
+		private final double meanRoundTrips;
+		private final long maxRoundTrips;
+
+		private OpStats(OpMetrics m){
+			com.codahale.metrics.Snapshot latency = m.latency.getSnapshot();
+			com.codahale.metrics.Snapshot trips = m.roundTrips.getSnapshot();
+			count = m.latency.getCount();
+			p50Ms = latency.getMedian() / 1000000.0;
+			p99Ms = latency.get99thPercentile() / 1000000.0;
+			p999Ms = latency.get999thPercentile() / 1000000.0;
+			meanMs = latency.getMean() / 1000000.0;
+			maxMs = latency.getMax() / 1000000.0;
+			meanRoundTrips = trips.getMean();
+			maxRoundTrips = trips.getMax();
+		}
+
+		public long getCount(){
+			return count;
+		}
+
+		public double getP50Ms(){
+			return p50Ms;
+		}
+
+		public double getP99Ms(){
+			return p99Ms;
+		}
+
+		public double getP999Ms(){
+			return p999Ms;
+		}
+
+		public double getMeanMs(){
+			return meanMs;
+		}
+
+		public double getMaxMs(){
+			return maxMs;
+		}
+
+		public double getMeanRoundTrips(){
+			return meanRoundTrips;
+		}
+
+		public long getMaxRoundTrips(){
+			return maxRoundTrips;
+		}
+
+		public String toString(){
+			return "count=" + count + ", p50Ms=" + String.format("%.3f", p50Ms) + ", p99Ms=" + String.format("%.3f", p99Ms) +
+					", p999Ms=" + String.format("%.3f", p999Ms) + ", maxMs=" + String.format("%.3f", maxMs) +
+					", roundTrips=" + String.format("%.2f", meanRoundTrips) + " (max " + maxRoundTrips + ")";
+		}
+	}
+
+	/*
+	 * values of all the metrics at one time, see getSnapshot().
+	 */
+	public static class Snapshot {
+		private final SortedMap<String, OpStats> ops;
+		private final SortedMap<String, Double> cacheHitRates;
+		private final long roundTrips;
+		private final long commitRetries;
+		private final long commitFailures;
+		private final long confirmPolls;
+		private final long confirmedWrites;
+		private final long confirmFailures;
+
+		private Snapshot(SortedMap<String, OpStats> ops, SortedMap<String, Double> cacheHitRates, long roundTrips, long commitRetries,
+				long commitFailures, long confirmPolls, long confirmedWrites, long confirmFailures){
+			this.ops = Collections.unmodifiableSortedMap(ops);
+			this.cacheHitRates = Collections.unmodifiableSortedMap(cacheHitRates);
+			this.roundTrips = roundTrips;
+			this.commitRetries = commitRetries;
+			this.commitFailures = commitFailures;
+			this.confirmPolls = confirmPolls;
+			this.confirmedWrites = confirmedWrites;
+			this.confirmFailures = confirmFailures;
+		}
+
+		//operation name (DBConnection method name) -> its stats, for operations called so far
+		public SortedMap<String, OpStats> getOps(){
+			return ops;
+		}
+
+		public OpStats getOp(String name){
+			return ops.get(name);
+		}
+
+		//"vertID", "cardinality" and "negativeLookup" -> fraction of lookups answered by that cache
+		public SortedMap<String, Double> getCacheHitRates(){
+			return cacheHitRates;
+		}
+
+		//requests sent, including those outside any operation
+		public long getRoundTrips(){
+			return roundTrips;
+		}
+
+		//commits tried again after failing
+		public long getCommitRetries(){
+			return commitRetries;
+		}
+
+		//commits which failed every try
+		public long getCommitFailures(){
+			return commitFailures;
+		}
+
+		//write confirmation read-backs
+		public long getConfirmPolls(){
+			return confirmPolls;
+		}
+
+		//writes checked by confirmation read-backs, whether confirmed or not
+		public long getConfirmedWrites(){
+			return confirmedWrites;
+		}
+
+		//writes not confirmed before the wait limit
+		public long getConfirmFailures(){
+			return confirmFailures;
+		}
+
+		public String toString(){
+			StringBuilder sb = new StringBuilder();
+			sb.append("roundTrips=").append(roundTrips).append(", commitRetries=").append(commitRetries).append(", commitFailures=").append(commitFailures)
+					.append(", confirmPolls=").append(confirmPolls).append(", confirmedWrites=").append(confirmedWrites)
+					.append(", confirmFailures=").append(confirmFailures).append(", cacheHitRates=").append(cacheHitRates);
+			for(Map.Entry<String, OpStats> entry : ops.entrySet()){
+				sb.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue());
+			}
+			return sb.toString();
+		}
+	}
+}
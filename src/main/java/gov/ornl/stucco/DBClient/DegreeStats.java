@@ -0,0 +1,172 @@
+package gov.ornl.stucco.DBClient;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Per edge label statistics of vertex degrees, used to pick which end to start from when looking for an edge.
+ *
+ * Degrees are learned from query results: every edge count reports the degree of the side it walked, and probes
+ * report both sides.  A probe (Direction.PROBE) counts the edges on both ends, up to PROBE_CAP, and the server then
+ * walks the smaller side for that vertex pair.  Probes are used until both sides of a label have enough samples,
+ * when neither side is clearly cheaper, and every PROBE_INTERVAL calls, so the stats follow changes in the data.
+ * All degrees are capped at PROBE_CAP, so a few huge vertices do not swamp the averages.
+ */
+public class DegreeStats {
+
+	public static final int PROBE_CAP = 64; //max edges counted on each side by a probe
+	private static int MIN_SAMPLES = 8; //samples needed on each side before choosing a direction without a probe
+	private static int PROBE_INTERVAL = 32;
+	private static double CHEAPER_RATIO = 4.0; //one side must be this much smaller to always start from it
+	private static double SMALL_DEGREE = 8.0; //if both sides are this small, don't bother probing
+	private static double SMOOTHING = 0.1; //weight of each new sample in the moving averages
+
+	public enum Direction{
+		OUT, //start from the out vertex, walking its out edges
+		IN, //start from the in vertex, walking its in edges
+		PROBE //count both sides (up to PROBE_CAP), and start from the smaller one
+	}
+
+	private final ConcurrentHashMap<String, LabelStats> labels = new ConcurrentHashMap<String, LabelStats>();
+
+	/*
+	 * starts a label off as if MIN_SAMPLES vertices with these degrees had been seen.
+	 */
+	public void seed(String label, double outDegree, double inDegree){
+		LabelStats stats = getOrCreate(label);
+		synchronized(stats){
+			stats.avgOutDegree = Math.min(outDegree, PROBE_CAP);
+			stats.outSamples = MIN_SAMPLES;
+			stats.avgInDegree = Math.min(inDegree, PROBE_CAP);
+			stats.inSamples = MIN_SAMPLES;
+		}
+	}
+
+	public Direction choose(String label){
+		LabelStats stats = getOrCreate(label);
+		synchronized(stats){
+			stats.calls++;
+			Direction dir;
+			if(stats.calls % PROBE_INTERVAL == 0 || stats.outSamples < MIN_SAMPLES || stats.inSamples < MIN_SAMPLES){
+				dir = Direction.PROBE;
+			}else if(stats.avgOutDegree <= SMALL_DEGREE && stats.avgInDegree <= SMALL_DEGREE){
+				dir = Direction.OUT;
+			}else if(stats.avgOutDegree >= CHEAPER_RATIO * stats.avgInDegree){
+				dir = Direction.IN;
+			}else if(stats.avgInDegree >= CHEAPER_RATIO * stats.avgOutDegree){
+				dir = Direction.OUT;
+			}else{
+				dir = Direction.PROBE;
+			}
+			stats.choices[dir.ordinal()]++;
+			return dir;
+		}
+	}
+
+	/*
+	 * records the degrees seen by a query.  Either can be negative if it was not seen.
+	 */
+	public void record(String label, long outDegree, long inDegree){
+		LabelStats stats = getOrCreate(label);
+		synchronized(stats){
+			if(outDegree >= 0){
+				stats.avgOutDegree = average(stats.avgOutDegree, stats.outSamples, outDegree);
+				stats.outSamples++;
+			}
+			if(inDegree >= 0){
+				stats.avgInDegree = average(stats.avgInDegree, stats.inSamples, inDegree);
+				stats.inSamples++;
+			}
+		}
+	}
+
+	//plain average for the first few samples, then a moving average.
+	private static double average(double avg, long samples, long degree){
+		double val = Math.min(degree, PROBE_CAP);
+		if(samples < MIN_SAMPLES)
+			return (avg * samples + val) / (samples + 1);
+		return avg + SMOOTHING * (val - avg);
+	}
+
+	private LabelStats getOrCreate(String label){
+		LabelStats stats = labels.get(label);
+		if(stats == null){
+			LabelStats created = new LabelStats();
+			stats = labels.putIfAbsent(label, created);
+			if(stats == null)
+				stats = created;
+		}
+		return stats;
+	}
+
+	/*
+	 * copy of the current stats for one label, or null if it has not been seen.
+	 */
+	public LabelStats getLabelStats(String label){
+		LabelStats stats = labels.get(label);
+		return (stats == null) ? null : stats.copy();
+	}
+
+	/*
+	 * copy of the current stats for all labels, by label.
+	 */
+	public Map<String, LabelStats> getAllLabelStats(){
+		Map<String, LabelStats> all = new TreeMap<String, LabelStats>();
+		for(Map.Entry<String, LabelStats> entry : labels.entrySet()){
+			all.put(entry.getKey(), entry.getValue().copy());
+		}
+		return all;
+	}
+
+	public String toString(){
+		return "DegreeStats" + getAllLabelStats();
+	}
+
+	public static class LabelStats {
+		private double avgOutDegree = 0;
+		private long outSamples = 0;
+		private double avgInDegree = 0;
+		private long inSamples = 0;
+		private long calls = 0;
+		private final long[] choices = new long[Direction.values().length];
+
+		private synchronized LabelStats copy(){
+			LabelStats copy = new LabelStats();
+			copy.avgOutDegree = avgOutDegree;
+			copy.outSamples = outSamples;
+			copy.avgInDegree = avgInDegree;
+			copy.inSamples = inSamples;
+			copy.calls = calls;
+			System.arraycopy(choices, 0, copy.choices, 0, choices.length);
+			return copy;
+		}
+
+		public double getAverageOutDegree(){
+			return avgOutDegree;
+		}
+
+		public long getOutSamples(){
+			return outSamples;
+		}
+
+		public double getAverageInDegree(){
+			return avgInDegree;
+		}
+
+		public long getInSamples(){
+			return inSamples;
+		}
+
+		//how many times each direction was chosen
+		public long getChoiceCount(Direction dir){
+			return choices[dir.ordinal()];
+		}
+
+		public String toString(){
+			return "[out=" + avgOutDegree + " (" + outSamples + " samples), in=" + avgInDegree + " (" + inSamples + " samples), " +
+					"chose OUT=" + choices[Direction.OUT.ordinal()] + ", IN=" + choices[Direction.IN.ordinal()] +
+					", PROBE=" + choices[Direction.PROBE.ordinal()] + "]";
+		}
+	}
+}
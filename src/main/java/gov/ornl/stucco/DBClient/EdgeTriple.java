@@ -0,0 +1,22 @@
+package gov.ornl.stucco.DBClient;
+
+/*
+ * One (in vertex, out vertex, label) edge to look for, see DBConnection.getEdgeCounts()
+ * Arguments are in the same order as DBConnection.getEdgeCount()
+ */
+public class EdgeTriple {
+
+	public String inv_id;
+	public String outv_id;
+	public String label;
+
+	public EdgeTriple(String inv_id, String outv_id, String label){
+		this.inv_id = inv_id;
+		this.outv_id = outv_id;
+		this.label = label;
+	}
+
+	public String toString(){
+		return "(" + outv_id + " -" + label + "-> " + inv_id + ")";
+	}
+}
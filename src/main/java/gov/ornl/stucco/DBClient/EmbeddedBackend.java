@@ -0,0 +1,206 @@
+package gov.ornl.stucco.DBClient;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.script.Bindings;
+
+import org.apache.commons.configuration.Configuration;
+
+import com.thinkaurelius.titan.core.TitanFactory;
+import com.thinkaurelius.titan.core.TitanGraph;
+import com.tinkerpop.blueprints.Element;
+import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.TransactionalGraph;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.tg.TinkerGraph;
+import com.tinkerpop.gremlin.groovy.jsr223.DefaultImportCustomizerProvider;
+import com.tinkerpop.gremlin.groovy.jsr223.GremlinGroovyScriptEngine;
+import com.tinkerpop.rexster.client.RexProException;
+
+/*
+ * Runs each script on a Blueprints graph in this JVM (eg. a TinkerGraph, or Titan opened by this process), on the
+ * calling thread, with no server, serialization or network.
+ *
+ * The script engine compiles each distinct script once, like the server does, so after warm up a script costs about
+ * what its traversal costs.  Scripts see the graph as 'g', with the same imports as the server's Titan config.
+ * On a TransactionalGraph each script is committed when it succeeds and rolled back when it fails, and scripts from
+ * several threads run at once (Titan keeps one transaction per thread.)  On other graphs, scripts are run one at a time.
+ */
+public class EmbeddedBackend implements GraphBackend {
+
+	private static final Set<String> TITAN_IMPORTS = new HashSet<String>(Arrays.asList(
+			"com.thinkaurelius.titan.core.*",
+			"com.thinkaurelius.titan.core.attribute.*",
+			"com.thinkaurelius.titan.core.schema.*",
+			"com.thinkaurelius.titan.core.util.*"));
+
+	private final Graph graph;
+	private final TransactionalGraph txGraph; //null unless the graph is transactional
+	private final GremlinGroovyScriptEngine engine;
+	private final AtomicLong requestCount = new AtomicLong();
+
+	public EmbeddedBackend(Graph graph){
+		if(graph == null)
+			throw new IllegalArgumentException("graph cannot be null");
+		this.graph = graph;
+		this.txGraph = (graph instanceof TransactionalGraph) ? (TransactionalGraph)graph : null;
+		if(graph instanceof TitanGraph)
+			engine = new GremlinGroovyScriptEngine(new DefaultImportCustomizerProvider(TITAN_IMPORTS, Collections.<String>emptySet()));
+		else
+			engine = new GremlinGroovyScriptEngine();
+	}
+
+	public static EmbeddedBackend openTinkerGraph(){
+		return new EmbeddedBackend(new TinkerGraph());
+	}
+
+	/*
+	 * Titan which keeps everything in memory, and is gone when closed.
+	 */
+	public static EmbeddedBackend openInMemoryTitan(){
+		return new EmbeddedBackend(TitanFactory.build().set("storage.backend", "inmemory").open());
+	}
+
+	/*
+	 * Titan opened from its own config (eg. storage.backend and storage.hostname), for a loader running next to the storage.
+	 * Note that this is Titan's config, not the rexster client config used by DBConnection.createClient().
+	 */
+	public static EmbeddedBackend openTitan(Configuration titanConfig){
+		return new EmbeddedBackend(TitanFactory.open(titanConfig));
+	}
+
+	public <T> List<T> execute(String script, Map<String, Object> params) throws RexProException{
+		requestCount.incrementAndGet();
+		if(txGraph != null)
+			return run(script, params);
+		synchronized(this){
+			return run(script, params);
+		}
+	}
+
+	private <T> List<T> run(String script, Map<String, Object> params) throws RexProException{
+		Bindings bindings = engine.createBindings();
+		if(params != null)
+			bindings.putAll(params);
+		bindings.put("g", graph);
+		boolean succeeded = false;
+		try{
+			Object ret = engine.eval(script, bindings);
+			List<Object> results = new ArrayList<Object>();
+			if(ret instanceof Iterable && !(ret instanceof Map)){
+				for(Object o : (Iterable<?>)ret){
+					results.add(convert(o));
+				}
+			}else if(ret instanceof Iterator){
+				Iterator<?> i = (Iterator<?>)ret;
+				while(i.hasNext()){
+					results.add(convert(i.next()));
+				}
+			}else if(ret != null && ret.getClass().isArray()){
+				results.addAll(convertArray(ret));
+			}else{
+				results.add(convert(ret));
+			}
+			if(txGraph != null)
+				txGraph.commit();
+			succeeded = true;
+			@SuppressWarnings("unchecked") //the caller picks the element type, as with RexsterClient.execute()
+			List<T> typed = (List<T>)results;
+			return typed;
+		}catch(Exception e){
+			RexProException rpe = new RexProException(e.toString());
+			rpe.initCause(e);
+			throw rpe;
+		}finally{
+			if(!succeeded && txGraph != null){
+				try{
+					txGraph.rollback();
+				}catch(RuntimeException e){
+					//the script's own error is the one to report.
+				}
+			}
+		}
+	}
+
+	//scripts all run on the caller's thread, so there is nothing to keep for a session.
+	public void beginSession(){
+	}
+
+	public void endSession(){
+	}
+
+	public Graph getGraph(){
+		return graph;
+	}
+
+	public long getRequestCount(){
+		return requestCount.get();
+	}
+
+	public void close(){
+		graph.shutdown();
+	}
+
+	public String toString(){
+		return "EmbeddedBackend(" + graph + ")";
+	}
+
+	//makes the same types that RexPro would send back.
+	private static Object convert(Object o){
+		if(o instanceof Element){
+			Element e = (Element)o;
+			Map<String, Object> props = new HashMap<String, Object>();
+			for(String key : e.getPropertyKeys()){
+				props.put(key, convert(e.getProperty(key)));
+			}
+			Map<String, Object> m = new HashMap<String, Object>();
+			m.put("_id", e.getId());
+			m.put("_type", (e instanceof Vertex) ? "vertex" : "edge");
+			m.put("_properties", props);
+			return m;
+		}
+		if(o instanceof Map){
+			Map<Object, Object> m = new HashMap<Object, Object>();
+			for(Map.Entry<?, ?> entry : ((Map<?, ?>)o).entrySet()){
+				Object key = entry.getKey();
+				m.put((key instanceof Element) ? convert(key) : key, convert(entry.getValue()));
+			}
+			return m;
+		}
+		if(o instanceof Iterable){
+			List<Object> l = new ArrayList<Object>();
+			for(Object item : (Iterable<?>)o){
+				l.add(convert(item));
+			}
+			return l;
+		}
+		if(o != null && o.getClass().isArray())
+			return convertArray(o);
+		if(o instanceof Integer)
+			return ((Integer)o).longValue();
+		if(o instanceof Enum)
+			return o.toString();
+		if(o == null || o instanceof Number || o instanceof String || o instanceof Boolean)
+			return o;
+		return o.toString();
+	}
+
+	private static List<Object> convertArray(Object array){
+		int length = Array.getLength(array);
+		List<Object> l = new ArrayList<Object>(length);
+		for(int i=0; i<length; i++){
+			l.add(convert(Array.get(array, i)));
+		}
+		return l;
+	}
+}
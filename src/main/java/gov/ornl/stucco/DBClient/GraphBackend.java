@@ -0,0 +1,31 @@
+package gov.ornl.stucco.DBClient;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import com.tinkerpop.rexster.client.RexProException;
+
+/*
+ * Runs the Gremlin scripts sent by a DBConnection against some graph.
+ *
+ * Results come back the way RexPro sends them: elements become maps of _id, _type and _properties, and ints become
+ * longs.  Each call is its own transaction, committed if the script succeeds and rolled back if it fails.
+ * See RexProBackend for a Rexster server, and EmbeddedBackend for a graph in this JVM.
+ */
+public interface GraphBackend {
+
+	<T> List<T> execute(String script, Map<String, Object> params) throws RexProException, IOException;
+
+	/*
+	 * When pooled, keeps the same connection for this thread until endSession().  Sessions can be nested.
+	 */
+	void beginSession() throws IOException;
+
+	void endSession();
+
+	/*
+	 * releases the clients or the graph.  Only whoever created the backend should close it.
+	 */
+	void close();
+}
@@ -0,0 +1,394 @@
+package gov.ornl.stucco.DBClient;
+
+import gov.ornl.stucco.DBClient.DBConnection.EdgeAddResult;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.tinkerpop.rexster.client.RexProException;
+
+/*
+ * Loads a GraphSON document ({"mode":..., "vertices":[...], "edges":[...]}) from a file or stream, without reading the
+ * whole document into memory.
+ *
+ * Elements are parsed one at a time and sent in batches of batchSize: first all the vertices, then all the edges.
+ * If the edges come before the vertices in the document, they are spilled to a temp file until the vertices are done.
+ * Vertices are converted the same way as DBConnection.jsonVertToMap(); "EXTENDED" mode typed values are unwrapped.
+ * Progress is logged, and reported to the ProgressListener if one is set, every progressInterval elements.
+ */
+public class GraphSONLoader {
+
+	//where the batches go, normally a DBConnection.
+	public interface Sink{
+		//returns the number of vertices added (or accepted), or -1 if the batch failed.
+		int addVertices(List<Map<String, Object>> verts) throws RexProException, IOException;
+		//returns the result of each edge, or null if they are not known yet (eg. BulkLoader.)
+		List<EdgeAddResult> addEdges(List<Map<String, Object>> edges) throws RexProException, IOException;
+	}
+
+	public interface ProgressListener{
+		void progress(Progress progress);
+	}
+
+	public enum Phase{
+		VERTICES, EDGES, DONE
+	}
+
+	private static int DEFAULT_BATCH_SIZE = 500;
+	private static int DEFAULT_PROGRESS_INTERVAL = 10000;
+
+	private static final JsonFactory jsonFactory = new JsonFactory();
+	private final Sink sink;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private int progressInterval = DEFAULT_PROGRESS_INTERVAL;
+	private ProgressListener listener = null;
+	private Logger logger = LoggerFactory.getLogger(GraphSONLoader.class);
+
+	public GraphSONLoader(final DBConnection c){
+		this(new Sink(){
+			public int addVertices(List<Map<String, Object>> verts) throws RexProException, IOException{
+				Map<String, String> ids = c.addVerticesFromMaps(verts);
+				return (ids == null) ? -1 : ids.size();
+			}
+			public List<EdgeAddResult> addEdges(List<Map<String, Object>> edges) throws RexProException, IOException{
+				return c.addEdgesFromMaps(edges);
+			}
+		});
+	}
+
+	public GraphSONLoader(Sink sink){
+		this.sink = sink;
+	}
+
+	public void setBatchSize(int batchSize){
+		if(batchSize < 1)
+			throw new IllegalArgumentException("batch size must be at least 1, was " + batchSize);
+		this.batchSize = batchSize;
+	}
+
+	public void setProgressInterval(int progressInterval){
+		if(progressInterval < 1)
+			throw new IllegalArgumentException("progress interval must be at least 1, was " + progressInterval);
+		this.progressInterval = progressInterval;
+	}
+
+	public void setProgressListener(ProgressListener listener){
+		this.listener = listener;
+	}
+
+	public Progress load(File file) throws RexProException, IOException{
+		InputStream in = new FileInputStream(file);
+		try{
+			return load(in, file.length());
+		}finally{
+			in.close();
+		}
+	}
+
+	public Progress load(InputStream in) throws RexProException, IOException{
+		return load(in, -1);
+	}
+
+	/*
+	 * totalBytes is the size of the stream if known (for the percent done), or -1.  Does not close the stream.
+	 * returns the final progress.
+	 */
+	public Progress load(InputStream in, long totalBytes) throws RexProException, IOException{
+		CountingInputStream counted = new CountingInputStream(in);
+		Progress progress = new Progress(counted, totalBytes);
+		JsonParser parser = jsonFactory.createParser(counted);
+		parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+		File spill = null;
+		JsonGenerator spillOut = null;
+		boolean extended = false;
+		try{
+			if(parser.nextToken() != JsonToken.START_OBJECT)
+				throw new JsonParseException("GraphSON document must be an object", parser.getCurrentLocation());
+			while(parser.nextToken() == JsonToken.FIELD_NAME){
+				String field = parser.getCurrentName();
+				JsonToken token = parser.nextToken();
+				if(field.equals("mode") && token == JsonToken.VALUE_STRING){
+					extended = parser.getText().equals("EXTENDED");
+				}else if(field.equals("vertices") && token == JsonToken.START_ARRAY){
+					progress.phase = Phase.VERTICES;
+					loadVertices(parser, extended, progress);
+				}else if(field.equals("edges") && token == JsonToken.START_ARRAY){
+					if(progress.phase == Phase.VERTICES){
+						progress.phase = Phase.EDGES;
+						loadEdges(parser, extended, progress);
+					}else{
+						//vertices not seen yet, hold the edges until they are.
+						spill = File.createTempFile("graphson-edges", ".json");
+						spillOut = jsonFactory.createGenerator(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spill), "UTF-8")));
+						spillOut.setRootValueSeparator(null);
+						while(parser.nextToken() == JsonToken.START_OBJECT){
+							writeValue(spillOut, readObject(parser, extended));
+							spillOut.writeRaw('\n');
+						}
+						spillOut.close();
+						spillOut = null;
+					}
+				}else{
+					parser.skipChildren();
+				}
+			}
+			if(spill != null){
+				progress.phase = Phase.EDGES;
+				JsonParser spillIn = jsonFactory.createParser(new BufferedReader(new InputStreamReader(new FileInputStream(spill), "UTF-8")));
+				try{
+					loadEdges(spillIn, false, progress);
+				}finally{
+					spillIn.close();
+				}
+			}
+		}finally{
+			parser.close();
+			if(spillOut != null)
+				spillOut.close();
+			if(spill != null)
+				spill.delete();
+		}
+		progress.phase = Phase.DONE;
+		report(progress);
+		return progress;
+	}
+
+	//reads vertex objects until the end of the array, sending a batch each batchSize.
+	private void loadVertices(JsonParser parser, boolean extended, Progress progress) throws RexProException, IOException{
+		List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>(batchSize);
+		while(parser.nextToken() == JsonToken.START_OBJECT){
+			Map<String, Object> vert = readObject(parser, extended);
+			vert.remove("_type");
+			batch.add(vert);
+			progress.vertsRead++;
+			if(batch.size() >= batchSize){
+				addVertices(batch, progress);
+				batch.clear();
+			}
+		}
+		addVertices(batch, progress);
+	}
+
+	private void addVertices(List<Map<String, Object>> batch, Progress progress) throws RexProException, IOException{
+		if(batch.isEmpty())
+			return;
+		int added = sink.addVertices(batch);
+		if(added < 0){
+			logger.warn("GraphSONLoader could not add a batch of " + batch.size() + " vertices.");
+			progress.vertsFailed += batch.size();
+		}else{
+			progress.vertsAdded += added;
+		}
+		maybeReport(progress, progress.vertsRead - batch.size(), progress.vertsRead);
+	}
+
+	//reads edge objects until the end of the stream, or of the array.
+	private void loadEdges(JsonParser parser, boolean extended, Progress progress) throws RexProException, IOException{
+		List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>(batchSize);
+		while(parser.nextToken() == JsonToken.START_OBJECT){
+			Map<String, Object> edge = readObject(parser, extended);
+			edge.remove("_type");
+			batch.add(edge);
+			progress.edgesRead++;
+			if(batch.size() >= batchSize){
+				addEdges(batch, progress);
+				batch.clear();
+			}
+		}
+		addEdges(batch, progress);
+	}
+
+	private void addEdges(List<Map<String, Object>> batch, Progress progress) throws RexProException, IOException{
+		if(batch.isEmpty())
+			return;
+		List<EdgeAddResult> results = sink.addEdges(batch);
+		if(results != null){
+			for(EdgeAddResult result : results){
+				progress.edgeResults[result.ordinal()]++;
+			}
+		}
+		maybeReport(progress, progress.edgesRead - batch.size(), progress.edgesRead);
+	}
+
+	//reports if a multiple of progressInterval was passed between before and after.
+	private void maybeReport(Progress progress, long before, long after){
+		if(before / progressInterval != after / progressInterval)
+			report(progress);
+	}
+
+	private void report(Progress progress){
+		logger.info("GraphSONLoader " + progress);
+		if(listener != null)
+			listener.progress(progress);
+	}
+
+	//reads the rest of an object, the parser should be at its START_OBJECT.
+	private static Map<String, Object> readObject(JsonParser parser, boolean extended) throws IOException{
+		Map<String, Object> obj = new LinkedHashMap<String, Object>();
+		while(parser.nextToken() == JsonToken.FIELD_NAME){
+			String key = parser.getCurrentName();
+			parser.nextToken();
+			obj.put(key, readValue(parser, extended));
+		}
+		return obj;
+	}
+
+	private static Object readValue(JsonParser parser, boolean extended) throws IOException{
+		switch(parser.getCurrentToken()){
+		case START_OBJECT:
+			Map<String, Object> obj = readObject(parser, extended);
+			if(extended && obj.containsKey("type") && obj.containsKey("value"))
+				return obj.get("value");
+			return obj;
+		case START_ARRAY:
+			List<Object> list = new ArrayList<Object>();
+			while(parser.nextToken() != JsonToken.END_ARRAY){
+				list.add(readValue(parser, extended));
+			}
+			return list;
+		case VALUE_STRING:
+			return parser.getText();
+		case VALUE_NUMBER_INT:
+			//same types as org.json, so the values match jsonVertToMap()
+			if(parser.getNumberType() == JsonParser.NumberType.INT)
+				return parser.getIntValue();
+			if(parser.getNumberType() == JsonParser.NumberType.LONG)
+				return parser.getLongValue();
+			return parser.getBigIntegerValue();
+		case VALUE_NUMBER_FLOAT:
+			return parser.getDoubleValue();
+		case VALUE_TRUE:
+			return Boolean.TRUE;
+		case VALUE_FALSE:
+			return Boolean.FALSE;
+		case VALUE_NULL:
+			return null;
+		default:
+			throw new JsonParseException("unexpected token " + parser.getCurrentToken(), parser.getCurrentLocation());
+		}
+	}
+
+	private static void writeValue(JsonGenerator out, Object value) throws IOException{
+		if(value == null){
+			out.writeNull();
+		}else if(value instanceof Map){
+			out.writeStartObject();
+			for(Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet()){
+				out.writeFieldName(String.valueOf(entry.getKey()));
+				writeValue(out, entry.getValue());
+			}
+			out.writeEndObject();
+		}else if(value instanceof List){
+			out.writeStartArray();
+			for(Object item : (List<?>)value){
+				writeValue(out, item);
+			}
+			out.writeEndArray();
+		}else if(value instanceof Number){
+			out.writeNumber(value.toString());
+		}else if(value instanceof Boolean){
+			out.writeBoolean((Boolean)value);
+		}else{
+			out.writeString(value.toString());
+		}
+	}
+
+	/*
+	 * counts so far, and throughput since the load started.
+	 */
+	public static class Progress {
+		private final CountingInputStream in;
+		private final long totalBytes;
+		private final long startTime = System.currentTimeMillis();
+		private volatile Phase phase = null;
+		private volatile long vertsRead = 0;
+		private volatile long vertsAdded = 0;
+		private volatile long vertsFailed = 0;
+		private volatile long edgesRead = 0;
+		private final long[] edgeResults = new long[EdgeAddResult.values().length];
+
+		private Progress(CountingInputStream in, long totalBytes){
+			this.in = in;
+			this.totalBytes = totalBytes;
+		}
+
+		//null until the first vertices or edges are found
+		public Phase getPhase(){
+			return phase;
+		}
+
+		public long getVertsRead(){
+			return vertsRead;
+		}
+
+		public long getVertsAdded(){
+			return vertsAdded;
+		}
+
+		public long getVertsFailed(){
+			return vertsFailed;
+		}
+
+		public long getEdgesRead(){
+			return edgesRead;
+		}
+
+		//edges sent which had this result
+		public long getEdgeCount(EdgeAddResult result){
+			return edgeResults[result.ordinal()];
+		}
+
+		public long getBytesRead(){
+			return in.getByteCount();
+		}
+
+		//between 0 and 100, or -1 if the size is not known
+		public double getPercentDone(){
+			if(totalBytes <= 0)
+				return -1;
+			return Math.min(100.0, 100.0 * in.getByteCount() / totalBytes);
+		}
+
+		public long getElapsedMs(){
+			return System.currentTimeMillis() - startTime;
+		}
+
+		//vertices plus edges read per second
+		public double getElementsPerSecond(){
+			return (vertsRead + edgesRead) * 1000.0 / Math.max(1, getElapsedMs());
+		}
+
+		public double getBytesPerSecond(){
+			return in.getByteCount() * 1000.0 / Math.max(1, getElapsedMs());
+		}
+
+		public String toString(){
+			String percent = (totalBytes > 0) ? String.format(" (%.1f%%)", getPercentDone()) : "";
+			return phase + ": read " + vertsRead + " vertices (" + vertsAdded + " added, " + vertsFailed + " failed), " +
+					edgesRead + " edges (" + getEdgeCount(EdgeAddResult.ADDED) + " added, " + getEdgeCount(EdgeAddResult.DUPLICATE) +
+					" duplicate, " + getEdgeCount(EdgeAddResult.MISSING_ENDPOINT) + " missing endpoint, " +
+					getEdgeCount(EdgeAddResult.FAILED) + " failed), " + getBytesRead() + " bytes" + percent + " in " +
+					getElapsedMs() + " ms, " + String.format("%.0f elements/s, %.0f bytes/s", getElementsPerSecond(), getBytesPerSecond());
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package gov.ornl.stucco.DBClient;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Thread-safe, short-lived cache of vertex names which were recently looked up and not found.
+ *
+ * Entries expire after a fixed TTL, so a vertex created by some other client is only missed for at most that long.
+ * (Vertices created through a DBConnection using this cache invalidate their names right away, so the connections
+ * writing to a graph should all share one cache, see DBConnection.setNegativeLookupCache().)
+ * Since every entry has the same TTL, names expire in the order they were added, so expired and excess entries are
+ * removed from the front of a FIFO queue, which is amortized O(1) per put.
+ */
+public class NegativeLookupCache {
+
+	private static long DEFAULT_TTL_MS = 5000;
+	private static int DEFAULT_CAPACITY = 100000;
+
+	private final ConcurrentHashMap<String, Long> expiries; //name -> expiry time, from System.nanoTime()
+	private final ConcurrentLinkedQueue<Entry> insertionOrder;
+	private final AtomicInteger queueSize = new AtomicInteger(0);
+	private final long ttlNanos;
+	private final int capacity;
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+	private final AtomicLong invalidations = new AtomicLong(0);
+
+	public NegativeLookupCache(){
+		this(DEFAULT_TTL_MS, DEFAULT_CAPACITY);
+	}
+
+	public NegativeLookupCache(long ttlMs, int capacity){
+		if(ttlMs < 1 || capacity < 1)
+			throw new IllegalArgumentException("ttl and capacity must be at least 1, were " + ttlMs + " and " + capacity);
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+		this.capacity = capacity;
+		this.expiries = new ConcurrentHashMap<String, Long>();
+		this.insertionOrder = new ConcurrentLinkedQueue<Entry>();
+	}
+
+	/*
+	 * returns true if this name was recently looked up and not found (and not invalidated since.)
+	 */
+	public boolean isKnownAbsent(String name){
+		if(name == null)
+			return false;
+		Long expiry = expiries.get(name);
+		if(expiry == null){
+			misses.incrementAndGet();
+			return false;
+		}
+		if(System.nanoTime() - expiry >= 0){
+			expiries.remove(name, expiry);
+			misses.incrementAndGet();
+			return false;
+		}
+		hits.incrementAndGet();
+		return true;
+	}
+
+	/*
+	 * records that this name was looked up and not found.
+	 */
+	public void putAbsent(String name){
+		if(name == null)
+			return;
+		Long expiry = System.nanoTime() + ttlNanos;
+		expiries.put(name, expiry);
+		insertionOrder.add(new Entry(name, expiry));
+		queueSize.incrementAndGet();
+		trim();
+	}
+
+	/*
+	 * should be called whenever a vertex with this name is created.
+	 */
+	public void invalidate(String name){
+		if(name == null)
+			return;
+		if(expiries.remove(name) != null)
+			invalidations.incrementAndGet();
+	}
+
+	public synchronized void clear(){
+		insertionOrder.clear();
+		queueSize.set(0);
+		expiries.clear();
+	}
+
+	public int size(){
+		return expiries.size();
+	}
+
+	public long getHitCount(){
+		return hits.get();
+	}
+
+	public long getMissCount(){
+		return misses.get();
+	}
+
+	public long getInvalidationCount(){
+		return invalidations.get();
+	}
+
+	public String toString(){
+		return "NegativeLookupCache[size=" + size() + ", capacity=" + capacity + ", hits=" + getHitCount() +
+				", misses=" + getMissCount() + ", invalidations=" + getInvalidationCount() + "]";
+	}
+
+	//drops queue entries from the front while they are expired, or while there are too many of them.
+	// The map entry is only dropped along with the queue entry which added it, so names that were 
+	// re-added since are kept, and names that were invalidated since are just skipped.
+	private synchronized void trim(){
+		long now = System.nanoTime();
+		while(true){
+			Entry oldest = insertionOrder.peek();
+			if(oldest == null)
+				return;
+			if(queueSize.get() <= capacity && now - oldest.expiry < 0)
+				return;
+			insertionOrder.poll();
+			queueSize.decrementAndGet();
+			expiries.remove(oldest.name, oldest.expiry);
+		}
+	}
+
+	private static class Entry {
+		final String name;
+		final Long expiry;
+
+		Entry(String name, Long expiry){
+			this.name = name;
+			this.expiry = expiry;
+		}
+	}
+}
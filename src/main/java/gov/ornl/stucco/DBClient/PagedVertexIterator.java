@@ -0,0 +1,127 @@
+package gov.ornl.stucco.DBClient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.tinkerpop.rexster.client.RexProException;
+
+/*
+ * Iterates over the results of a vertex query one page at a time, see DBConnection.findAllVertsWithPropsPaged()
+ *
+ * Only the current page and the next one are held in memory.  The next page is fetched in the background (through
+ * an AsyncQueryWindow) while the caller works through the current one.  close() stops early, without fetching the
+ * rest.  Pages are fetched by position, so if the matching vertices change while iterating, some may be skipped or
+ * seen twice.
+ * Errors while fetching are thrown from hasNext() / next() as IllegalStateException, with the original as the cause.
+ */
+public class PagedVertexIterator implements Iterator<Map<String, Object>>, Closeable {
+
+	//fetches 'size' results starting at 'start'
+	public interface PageSource{
+		List<Map<String, Object>> fetch(int start, int size) throws RexProException, IOException;
+	}
+
+	private final PageSource source;
+	private final int pageSize;
+	private final AsyncQueryWindow window;
+	private List<Map<String, Object>> page = Collections.emptyList();
+	private int pos = 0;
+	private int nextStart = 0;
+	private Future<List<Map<String, Object>>> pending = null;
+	private boolean closed = false;
+	private int pageCount = 0;
+	private long resultCount = 0;
+
+	public PagedVertexIterator(PageSource source, int pageSize, AsyncQueryWindow window){
+		if(pageSize < 1)
+			throw new IllegalArgumentException("page size must be at least 1, was " + pageSize);
+		this.source = source;
+		this.pageSize = pageSize;
+		this.window = window;
+		prefetch();
+	}
+
+	public boolean hasNext(){
+		if(closed)
+			return false;
+		while(pos >= page.size()){
+			if(pending == null)
+				return false;
+			page = take(pending);
+			pos = 0;
+			pending = null;
+			pageCount++;
+			resultCount += page.size();
+			if(page.size() == pageSize)
+				prefetch(); //a short page is the last one.
+		}
+		return true;
+	}
+
+	public Map<String, Object> next(){
+		if(!hasNext())
+			throw new NoSuchElementException();
+		return page.get(pos++);
+	}
+
+	public void remove(){
+		throw new UnsupportedOperationException("remove");
+	}
+
+	/*
+	 * stops iterating, and cancels any page still being fetched.
+	 */
+	public void close(){
+		closed = true;
+		if(pending != null)
+			pending.cancel(true);
+		pending = null;
+		page = Collections.emptyList();
+	}
+
+	//pages fetched so far, including the current one.
+	public int getPageCount(){
+		return pageCount;
+	}
+
+	//results fetched so far, including the rest of the current page.
+	public long getResultCount(){
+		return resultCount;
+	}
+
+	private void prefetch(){
+		final int start = nextStart;
+		nextStart += pageSize;
+		try{
+			pending = window.submit(new Callable<List<Map<String, Object>>>(){
+				public List<Map<String, Object>> call() throws Exception{
+					return source.fetch(start, pageSize);
+				}
+			}, 0);
+		}catch(IOException e){
+			throw new IllegalStateException("could not fetch results starting at " + start, e);
+		}
+	}
+
+	private List<Map<String, Object>> take(Future<List<Map<String, Object>>> future){
+		try{
+			List<Map<String, Object>> results = future.get();
+			return (results == null) ? Collections.<Map<String, Object>>emptyList() : results;
+		}catch(ExecutionException e){
+			close();
+			throw new IllegalStateException("could not fetch page of results", e.getCause());
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			close();
+			throw new IllegalStateException("interrupted while fetching page of results", e);
+		}
+	}
+}
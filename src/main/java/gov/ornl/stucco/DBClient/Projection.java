@@ -0,0 +1,40 @@
+package gov.ornl.stucco.DBClient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Which properties a vertex query should return, eg. DBConnection.findVert(name, Projection.keys("vertexType"))
+ *
+ * Projected results are flat maps of "_id" plus the requested keys (keys the vertex does not have are left out),
+ * built on the server, so the other properties are never serialized or sent.
+ */
+public class Projection {
+
+	public static final Projection ID_ONLY = new Projection(Collections.<String>emptyList());
+	public static final Projection ID_AND_TYPE = keys("vertexType");
+
+	private final List<String> keys;
+
+	private Projection(List<String> keys){
+		this.keys = Collections.unmodifiableList(new ArrayList<String>(keys));
+	}
+
+	public static Projection keys(String... keys){
+		return new Projection(Arrays.asList(keys));
+	}
+
+	public static Projection keys(List<String> keys){
+		return new Projection(keys);
+	}
+
+	public List<String> getKeys(){
+		return keys;
+	}
+
+	public String toString(){
+		return "Projection[_id" + (keys.isEmpty() ? "" : ", " + keys.toString().substring(1, keys.toString().length() - 1)) + "]";
+	}
+}
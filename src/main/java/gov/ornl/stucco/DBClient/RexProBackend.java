@@ -0,0 +1,77 @@
+package gov.ornl.stucco.DBClient;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import com.tinkerpop.rexster.client.RexProException;
+import com.tinkerpop.rexster.client.RexsterClient;
+
+/*
+ * Sends each script to a Rexster server, with either one client or a pool of them.
+ *
+ * When pooled, each script checks out a client for just that script, unless the thread is in a session.
+ */
+public class RexProBackend implements GraphBackend {
+
+	private final RexsterClient client;
+	private final RexsterClientPool pool; //if set, scripts use clients from this pool instead of 'client'
+
+	public RexProBackend(RexsterClient client){
+		if(client == null)
+			throw new IllegalArgumentException("client cannot be null");
+		this.client = client;
+		this.pool = null;
+	}
+
+	public RexProBackend(RexsterClientPool pool){
+		if(pool == null)
+			throw new IllegalArgumentException("pool cannot be null");
+		this.client = null;
+		this.pool = pool;
+	}
+
+	public <T> List<T> execute(String script, Map<String, Object> params) throws RexProException, IOException{
+		if(pool == null)
+			return client.execute(script, params);
+		RexsterClient c = pool.borrow();
+		try{
+			return c.execute(script, params);
+		}finally{
+			pool.release(c);
+		}
+	}
+
+	public void beginSession() throws IOException{
+		if(pool != null)
+			pool.beginSession();
+	}
+
+	public void endSession(){
+		if(pool != null)
+			pool.endSession();
+	}
+
+	//when pooled, this is just the first client of the pool.
+	public RexsterClient getClient(){
+		if(pool != null)
+			return pool.getClients().get(0);
+		return client;
+	}
+
+	//null unless pooled.
+	public RexsterClientPool getPool(){
+		return pool;
+	}
+
+	public void close(){
+		if(pool != null)
+			pool.close();
+		else
+			DBConnection.closeClient(client);
+	}
+
+	public String toString(){
+		return (pool != null) ? "RexProBackend(" + pool + ")" : "RexProBackend(" + client + ")";
+	}
+}
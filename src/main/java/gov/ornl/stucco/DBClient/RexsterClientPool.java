@@ -0,0 +1,205 @@
+package gov.ornl.stucco.DBClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.configuration.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tinkerpop.rexster.client.RexsterClient;
+
+/*
+ * Fixed-size pool of RexsterClients, see DBConnection.createClientPool() and DBConnection(RexsterClientPool).
+ *
+ * Clients are normally checked out for a single query.  A thread can instead keep one client for a while with
+ * beginSession() / endSession(), and any borrow() during that session just returns the same client.
+ * Keeps track of how busy the pool is, and how long threads have waited for a client.
+ */
+public class RexsterClientPool {
+
+	static long DEFAULT_BORROW_TIMEOUT_MS = 60000; //also used by DBConnection.createClientPool()
+
+	private final Logger logger = LoggerFactory.getLogger(RexsterClientPool.class);
+	private final List<RexsterClient> clients;
+	private final BlockingQueue<RexsterClient> idle;
+	private final long borrowTimeoutMs;
+	private final Configuration config; //settings the clients were created with, if known
+	private final ThreadLocal<Session> sessions = new ThreadLocal<Session>();
+	private final ConcurrentHashMap<RexsterClient, Long> borrowedAt = new ConcurrentHashMap<RexsterClient, Long>();
+	private final long createdAt = System.nanoTime();
+
+	private final AtomicInteger inUse = new AtomicInteger(0);
+	private final AtomicInteger peakInUse = new AtomicInteger(0);
+	private final AtomicLong borrowCount = new AtomicLong(0);
+	private final AtomicLong totalWaitNanos = new AtomicLong(0);
+	private final AtomicLong maxWaitNanos = new AtomicLong(0);
+	private final AtomicLong totalBusyNanos = new AtomicLong(0);
+
+	public RexsterClientPool(List<RexsterClient> clients){
+		this(clients, DEFAULT_BORROW_TIMEOUT_MS);
+	}
+
+	public RexsterClientPool(List<RexsterClient> clients, long borrowTimeoutMs){
+		this(clients, borrowTimeoutMs, null);
+	}
+
+	/*
+	 * config is the settings the clients were created with (or null), used by DBConnection for its defaults.
+	 */
+	public RexsterClientPool(List<RexsterClient> clients, long borrowTimeoutMs, Configuration config){
+		if(clients == null || clients.isEmpty())
+			throw new IllegalArgumentException("pool needs at least one client");
+		this.clients = Collections.unmodifiableList(new ArrayList<RexsterClient>(clients));
+		this.idle = new ArrayBlockingQueue<RexsterClient>(clients.size(), true, clients);
+		this.borrowTimeoutMs = borrowTimeoutMs;
+		this.config = config;
+	}
+
+	/*
+	 * Checks out a client, waiting up to the borrow timeout for one to be released.
+	 * Every borrow() must be followed by a release() of the same client.
+	 */
+	public RexsterClient borrow() throws IOException{
+		Session session = sessions.get();
+		if(session != null)
+			return session.client;
+
+		long start = System.nanoTime();
+		RexsterClient c;
+		try{
+			c = idle.poll(borrowTimeoutMs, TimeUnit.MILLISECONDS);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for a client");
+		}
+		if(c == null){
+			logger.warn("timed out after " + borrowTimeoutMs + " ms waiting for a client, " + inUse.get() + " of " + clients.size() + " in use.");
+			throw new IOException("timed out waiting for a client from the pool");
+		}
+		long now = System.nanoTime();
+		long wait = now - start;
+		borrowCount.incrementAndGet();
+		totalWaitNanos.addAndGet(wait);
+		long max = maxWaitNanos.get();
+		while(wait > max && !maxWaitNanos.compareAndSet(max, wait)){
+			max = maxWaitNanos.get();
+		}
+		int busy = inUse.incrementAndGet();
+		int peak = peakInUse.get();
+		while(busy > peak && !peakInUse.compareAndSet(peak, busy)){
+			peak = peakInUse.get();
+		}
+		borrowedAt.put(c, now);
+		return c;
+	}
+
+	public void release(RexsterClient c){
+		Session session = sessions.get();
+		if(session != null && session.client == c)
+			return;
+		Long start = borrowedAt.remove(c);
+		if(start != null)
+			totalBusyNanos.addAndGet(System.nanoTime() - start);
+		inUse.decrementAndGet();
+		idle.offer(c);
+	}
+
+	/*
+	 * Keeps one client checked out for the current thread, until the matching endSession().
+	 */
+	public void beginSession() throws IOException{
+		Session session = sessions.get();
+		if(session == null){
+			session = new Session(borrow());
+			sessions.set(session);
+		}
+		session.depth++;
+	}
+
+	public void endSession(){
+		Session session = sessions.get();
+		if(session == null)
+			return;
+		session.depth--;
+		if(session.depth == 0){
+			sessions.remove();
+			release(session.client);
+		}
+	}
+
+	public Configuration getConfig(){
+		return config;
+	}
+
+	public List<RexsterClient> getClients(){
+		return clients;
+	}
+
+	public int getSize(){
+		return clients.size();
+	}
+
+	public int getInUse(){
+		return inUse.get();
+	}
+
+	public int getPeakInUse(){
+		return peakInUse.get();
+	}
+
+	public long getBorrowCount(){
+		return borrowCount.get();
+	}
+
+	public double getAverageWaitMs(){
+		long count = borrowCount.get();
+		return (count == 0) ? 0.0 : totalWaitNanos.get() / 1000000.0 / count;
+	}
+
+	public double getMaxWaitMs(){
+		return maxWaitNanos.get() / 1000000.0;
+	}
+
+	/*
+	 * fraction of the pool's total client time (since it was created) that clients have spent checked out.
+	 */
+	public double getUtilization(){
+		long now = System.nanoTime();
+		long busy = totalBusyNanos.get();
+		for(Long start : borrowedAt.values()){
+			busy += now - start;
+		}
+		long total = (now - createdAt) * clients.size();
+		return (total <= 0) ? 0.0 : Math.min(1.0, (double)busy / total);
+	}
+
+	public String toString(){
+		return "RexsterClientPool[size=" + getSize() + ", inUse=" + getInUse() + ", peakInUse=" + getPeakInUse() +
+				", borrows=" + getBorrowCount() + ", avgWaitMs=" + getAverageWaitMs() + ", maxWaitMs=" + getMaxWaitMs() +
+				", utilization=" + getUtilization() + "]";
+	}
+
+	public void close(){
+		for(RexsterClient c : clients){
+			DBConnection.closeClient(c);
+		}
+	}
+
+	private static class Session {
+		final RexsterClient client;
+		int depth = 0;
+
+		Session(RexsterClient client){
+			this.client = client;
+		}
+	}
+}
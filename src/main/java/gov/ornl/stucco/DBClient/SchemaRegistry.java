@@ -0,0 +1,165 @@
+package gov.ornl.stucco.DBClient;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.tinkerpop.rexster.client.RexProException;
+
+/*
+ * Property key cardinalities for a graph, shared by every DBConnection in the process (see getShared())
+ *
+ * The whole schema is loaded with one query the first time it is needed, and reloaded when refresh() is called,
+ * or when a key is asked for that is not known yet.  Each unknown key causes a reload at most once per
+ * minRefreshIntervalMs, so keys that really are missing do not cause a reload on every lookup.
+ * The cardinalities are kept in an immutable map which is replaced on each reload, so reads never block.
+ * DBConnections to some other graph should each use their own SchemaRegistry.
+ */
+public class SchemaRegistry {
+
+	private static long DEFAULT_MIN_REFRESH_INTERVAL_MS = 1000;
+	private static final SchemaRegistry shared = new SchemaRegistry();
+
+	//reads the whole schema from the DB, see DBConnection.loadCardinalities()
+	public interface Loader{
+		Map<String, String> loadCardinalities() throws RexProException, IOException;
+	}
+
+	private volatile Map<String, String> cardinalities = Collections.emptyMap(); //key name -> cardinality name
+	private volatile boolean loaded = false;
+	private volatile long lastRefresh = 0; //from System.nanoTime()
+	private final ConcurrentHashMap<String, Long> unknownKeysCheckedAt = new ConcurrentHashMap<String, Long>();
+	private final long minRefreshIntervalNanos;
+	private final AtomicLong refreshCount = new AtomicLong(0);
+	private final AtomicLong unknownKeyCount = new AtomicLong(0);
+	private final AtomicLong lookupCount = new AtomicLong(0);
+
+	public SchemaRegistry(){
+		this(DEFAULT_MIN_REFRESH_INTERVAL_MS);
+	}
+
+	public SchemaRegistry(long minRefreshIntervalMs){
+		this.minRefreshIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minRefreshIntervalMs);
+	}
+
+	public static SchemaRegistry getShared(){
+		return shared;
+	}
+
+	/*
+	 * returns cardinality of key ("SINGLE", "SET" or "LIST"), or null if the graph does not have this key.
+	 */
+	public String getCardinality(String key, Loader loader) throws RexProException, IOException{
+		return getCardinalities(Collections.singleton(key), loader).get(key);
+	}
+
+	/*
+	 * like getCardinality, but for many keys, with at most one reload for all the unknown keys.
+	 * The returned map has all the keys, with null for keys that the graph does not have.
+	 */
+	public Map<String, String> getCardinalities(Collection<String> keys, Loader loader) throws RexProException, IOException{
+		long now = System.nanoTime();
+		if(!loaded)
+			load(loader, false, now);
+		Map<String, String> cards = cardinalities;
+		boolean reload = false;
+		lookupCount.addAndGet(keys.size());
+		for(String key : keys){
+			if(!cards.containsKey(key)){
+				unknownKeyCount.incrementAndGet();
+				Long checkedAt = unknownKeysCheckedAt.get(key);
+				if(checkedAt == null || now - checkedAt >= minRefreshIntervalNanos){
+					unknownKeysCheckedAt.put(key, now);
+					reload = true;
+				}
+			}
+		}
+		if(reload){
+			load(loader, true, now);
+			cards = cardinalities;
+		}
+		Map<String, String> result = new HashMap<String, String>();
+		for(String key : keys){
+			String cardinality = cards.get(key);
+			if(cardinality != null && reload)
+				unknownKeysCheckedAt.remove(key);
+			result.put(key, cardinality);
+		}
+		return result;
+	}
+
+	/*
+	 * reloads the whole schema now.
+	 */
+	public void refresh(Loader loader) throws RexProException, IOException{
+		load(loader, true, System.nanoTime());
+	}
+
+	/*
+	 * records a key's cardinality without a reload, eg. when the key was just created.
+	 */
+	public synchronized void put(String key, String cardinality){
+		Map<String, String> updated = new HashMap<String, String>(cardinalities);
+		updated.put(key, cardinality);
+		cardinalities = Collections.unmodifiableMap(updated);
+	}
+
+	/*
+	 * the schema will be reloaded when next needed.
+	 */
+	public void invalidate(){
+		loaded = false;
+		unknownKeysCheckedAt.clear();
+	}
+
+	public Map<String, String> getCardinalities(){
+		return cardinalities;
+	}
+
+	public boolean isLoaded(){
+		return loaded;
+	}
+
+	public long getRefreshCount(){
+		return refreshCount.get();
+	}
+
+	public long getUnknownKeyCount(){
+		return unknownKeyCount.get();
+	}
+
+	//keys looked up with getCardinality() / getCardinalities()
+	public long getLookupCount(){
+		return lookupCount.get();
+	}
+
+	/*
+	 * returns fraction of keys looked up that were already known, or 0 if there have been none.
+	 */
+	public double getHitRate(){
+		long lookups = getLookupCount();
+		return (lookups == 0) ? 0.0 : (double)(lookups - getUnknownKeyCount()) / lookups;
+	}
+
+	public String toString(){
+		return "SchemaRegistry[keys=" + cardinalities.size() + ", loaded=" + loaded + ", refreshes=" + getRefreshCount() +
+				", unknownKeys=" + getUnknownKeyCount() + ", lookups=" + getLookupCount() + "]";
+	}
+
+	//threads which were waiting here while another thread loaded just use its result, if that load started after they asked.
+	private synchronized void load(Loader loader, boolean force, long requestedAt) throws RexProException, IOException{
+		if(loaded && (!force || lastRefresh - requestedAt >= 0))
+			return;
+		long start = System.nanoTime();
+		Map<String, String> loadedCards = loader.loadCardinalities();
+		cardinalities = Collections.unmodifiableMap(new HashMap<String, String>(loadedCards));
+		lastRefresh = start;
+		loaded = true;
+		refreshCount.incrementAndGet();
+	}
+}
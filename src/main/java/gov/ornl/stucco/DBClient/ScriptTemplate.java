@@ -0,0 +1,54 @@
+package gov.ornl.stucco.DBClient;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Gremlin script with fixed text, and named parameters which are bound by position.
+ *
+ * Since the script text never changes, the server's script engine only compiles it once, however many different
+ * values (or property names) it is used with.  Anything that varies between calls must be a parameter.
+ */
+public class ScriptTemplate {
+
+	private final String name;
+	private final String script;
+	private final String[] paramNames;
+
+	public ScriptTemplate(String name, String script, String... paramNames){
+		this.name = name;
+		this.script = script;
+		this.paramNames = paramNames.clone();
+	}
+
+	/*
+	 * returns the params map for these values, which must be in the same order as the template's parameter names.
+	 */
+	public Map<String, Object> bind(Object... values){
+		if(values.length != paramNames.length)
+			throw new IllegalArgumentException("template " + name + " takes " + paramNames.length + " params, but got " + values.length);
+		Map<String, Object> params = new HashMap<String, Object>();
+		for(int i=0; i<paramNames.length; i++){
+			params.put(paramNames[i], values[i]);
+		}
+		return params;
+	}
+
+	public String getName(){
+		return name;
+	}
+
+	public String getScript(){
+		return script;
+	}
+
+	public List<String> getParamNames(){
+		return Arrays.asList(paramNames);
+	}
+
+	public String toString(){
+		return "ScriptTemplate[" + name + getParamNames() + "]";
+	}
+}
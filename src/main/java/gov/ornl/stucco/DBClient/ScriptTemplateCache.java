@@ -0,0 +1,160 @@
+package gov.ornl.stucco.DBClient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Bounded record of the distinct scripts a DBConnection has sent, with per-script usage and latency.
+ *
+ * Scripts sent through a ScriptTemplate are recorded under the template's name.  Any other script is recorded by its
+ * text, so scripts which are built by concatenating values show up here as many entries with few uses each (and as
+ * evictions, once there are more than the capacity), which means the server is compiling each of them again.
+ * The least recently used scripts are dropped first.
+ */
+public class ScriptTemplateCache {
+
+	private static int DEFAULT_CAPACITY = 256;
+	private static int SCRIPT_PREVIEW_LENGTH = 80;
+
+	private final int capacity;
+	private final LinkedHashMap<String, Stats> scripts;
+	private long evictions = 0;
+
+	public ScriptTemplateCache(){
+		this(DEFAULT_CAPACITY);
+	}
+
+	public ScriptTemplateCache(int capacity){
+		if(capacity < 1)
+			throw new IllegalArgumentException("capacity must be at least 1, was " + capacity);
+		this.capacity = capacity;
+		this.scripts = new LinkedHashMap<String, Stats>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<String, Stats> eldest){
+				if(size() > ScriptTemplateCache.this.capacity){
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/*
+	 * records one run of this script.  templateName can be null for scripts not sent through a ScriptTemplate.
+	 */
+	public synchronized void record(String templateName, String script, long nanos, boolean succeeded){
+		Stats stats = scripts.get(script);
+		if(stats == null){
+			stats = new Stats(templateName, script);
+			scripts.put(script, stats);
+		}
+		stats.uses++;
+		if(!succeeded)
+			stats.failures++;
+		stats.totalNanos += nanos;
+		if(nanos > stats.maxNanos)
+			stats.maxNanos = nanos;
+	}
+
+	public synchronized Stats getStats(String script){
+		Stats stats = scripts.get(script);
+		return (stats == null) ? null : stats.copy();
+	}
+
+	/*
+	 * copy of the stats for all scripts currently tracked, most used first.
+	 */
+	public synchronized List<Stats> getAllStats(){
+		List<Stats> all = new ArrayList<Stats>(scripts.size());
+		for(Stats stats : scripts.values()){
+			all.add(stats.copy());
+		}
+		Collections.sort(all, new Comparator<Stats>(){
+			public int compare(Stats a, Stats b){
+				return (a.uses < b.uses) ? 1 : ((a.uses == b.uses) ? 0 : -1);
+			}
+		});
+		return all;
+	}
+
+	public synchronized int size(){
+		return scripts.size();
+	}
+
+	public int getCapacity(){
+		return capacity;
+	}
+
+	public synchronized long getEvictionCount(){
+		return evictions;
+	}
+
+	public synchronized void clear(){
+		scripts.clear();
+		evictions = 0;
+	}
+
+	public synchronized String toString(){
+		return "ScriptTemplateCache[size=" + scripts.size() + ", capacity=" + capacity + ", evictions=" + evictions + "]";
+	}
+
+	public static class Stats {
+		private final String templateName;
+		private final String script;
+		private long uses = 0;
+		private long failures = 0;
+		private long totalNanos = 0;
+		private long maxNanos = 0;
+
+		private Stats(String templateName, String script){
+			this.templateName = templateName;
+			this.script = script;
+		}
+
+		private Stats copy(){
+			Stats copy = new Stats(templateName, script);
+			copy.uses = uses;
+			copy.failures = failures;
+			copy.totalNanos = totalNanos;
+			copy.maxNanos = maxNanos;
+			return copy;
+		}
+
+		//null if this script was not sent through a ScriptTemplate
+		public String getTemplateName(){
+			return templateName;
+		}
+
+		public String getScript(){
+			return script;
+		}
+
+		public long getUses(){
+			return uses;
+		}
+
+		public long getFailures(){
+			return failures;
+		}
+
+		public double getAverageMs(){
+			return (uses == 0) ? 0.0 : totalNanos / 1000000.0 / uses;
+		}
+
+		public double getMaxMs(){
+			return maxNanos / 1000000.0;
+		}
+
+		public String toString(){
+			String label = templateName;
+			if(label == null)
+				label = (script.length() > SCRIPT_PREVIEW_LENGTH) ? script.substring(0, SCRIPT_PREVIEW_LENGTH) + "..." : script;
+			return label + ": uses=" + uses + ", failures=" + failures + ", avgMs=" + getAverageMs() + ", maxMs=" + getMaxMs();
+		}
+	}
+}
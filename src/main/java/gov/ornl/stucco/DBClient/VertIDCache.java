@@ -0,0 +1,231 @@
+package gov.ornl.stucco.DBClient;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Thread-safe cache of vertex name to vertex ID, which can be shared between DBConnection instances.
+ *
+ * Entries are split across independently locked segments by name hash.  Each segment is a segmented LRU:
+ * new names go into a "probation" area, and names that are read again are moved to a "protected" area, so names
+ * that are only seen once can not push out the ones that are used repeatedly.  Eviction takes the least recently
+ * used probation entry (or protected entry, if probation is empty), so every put and get is O(1) and there are no rebuilds.
+ */
+public class VertIDCache {
+
+	private static int DEFAULT_CONCURRENCY_LEVEL = 16;
+	private static double PROTECTED_RATIO = 0.8; //fraction of each segment reserved for names read more than once.
+
+	private final Segment[] segments;
+	private final int capacity;
+
+	public VertIDCache(int capacity){
+		this(capacity, DEFAULT_CONCURRENCY_LEVEL);
+	}
+
+	public VertIDCache(int capacity, int concurrencyLevel){
+		if(capacity < 1)
+			throw new IllegalArgumentException("cache capacity must be at least 1, was " + capacity);
+		int segmentCount = Math.max(1, Math.min(concurrencyLevel, capacity));
+		this.capacity = capacity;
+		this.segments = new Segment[segmentCount];
+		for(int i=0; i<segmentCount; i++){
+			//spread the remainder over the first few segments, so the total is exactly 'capacity'
+			int segmentCapacity = capacity / segmentCount + (i < capacity % segmentCount ? 1 : 0);
+			segments[i] = new Segment(segmentCapacity);
+		}
+	}
+
+	private Segment segmentFor(String name){
+		int h = name.hashCode();
+		h ^= (h >>> 16);
+		return segments[(h & 0x7fffffff) % segments.length];
+	}
+
+	/*
+	 * returns the cached ID for this name, or null if not cached.
+	 */
+	public String get(String name){
+		if(name == null)
+			return null;
+		return segmentFor(name).get(name);
+	}
+
+	public void put(String name, String id){
+		if(name == null || id == null)
+			return;
+		segmentFor(name).put(name, id);
+	}
+
+	public void remove(String name){
+		if(name == null)
+			return;
+		segmentFor(name).remove(name);
+	}
+
+	public void clear(){
+		for(Segment s : segments){
+			s.clear();
+		}
+	}
+
+	public int size(){
+		int size = 0;
+		for(Segment s : segments){
+			size += s.size();
+		}
+		return size;
+	}
+
+	public boolean isEmpty(){
+		return size() == 0;
+	}
+
+	public int getCapacity(){
+		return capacity;
+	}
+
+	/*
+	 * returns a snapshot of all cached IDs.
+	 */
+	public List<String> ids(){
+		List<String> ids = new ArrayList<String>();
+		for(Segment s : segments){
+			s.addIDsTo(ids);
+		}
+		return ids;
+	}
+
+	public long getHitCount(){
+		long count = 0;
+		for(Segment s : segments){
+			count += s.getHits();
+		}
+		return count;
+	}
+
+	public long getMissCount(){
+		long count = 0;
+		for(Segment s : segments){
+			count += s.getMisses();
+		}
+		return count;
+	}
+
+	public long getEvictionCount(){
+		long count = 0;
+		for(Segment s : segments){
+			count += s.getEvictions();
+		}
+		return count;
+	}
+
+	/*
+	 * returns fraction of get() calls that found a cached ID, or 0 if there have been none.
+	 */
+	public double getHitRate(){
+		long hits = getHitCount();
+		long total = hits + getMissCount();
+		return (total == 0) ? 0.0 : (double)hits / total;
+	}
+
+	public String toString(){
+		return "VertIDCache[size=" + size() + ", capacity=" + capacity + ", hits=" + getHitCount() +
+				", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + "]";
+	}
+
+	/*
+	 * One lock stripe of the cache.  All access is synchronized on the segment.
+	 */
+	private static class Segment {
+		private final int capacity;
+		private final int protectedCapacity;
+		//both in access order, so the first entry is always the least recently used one.
+		private final LinkedHashMap<String, String> probationLRU;
+		private final LinkedHashMap<String, String> protectedLRU;
+		private long hits = 0;
+		private long misses = 0;
+		private long evictions = 0;
+
+		Segment(int capacity){
+			this.capacity = capacity;
+			this.protectedCapacity = (int) (capacity * PROTECTED_RATIO);
+			this.probationLRU = new LinkedHashMap<String, String>(16, 0.75f, true);
+			this.protectedLRU = new LinkedHashMap<String, String>(16, 0.75f, true);
+		}
+
+		synchronized String get(String name){
+			String id = protectedLRU.get(name);
+			if(id != null){
+				hits++;
+				return id;
+			}
+			id = probationLRU.remove(name);
+			if(id != null){
+				hits++;
+				//read again, so promote it.  If protected is now over its limit, its LRU entry goes back to probation.
+				protectedLRU.put(name, id);
+				if(protectedLRU.size() > protectedCapacity){
+					Map.Entry<String, String> eldest = eldest(protectedLRU);
+					protectedLRU.remove(eldest.getKey());
+					probationLRU.put(eldest.getKey(), eldest.getValue());
+				}
+				return id;
+			}
+			misses++;
+			return null;
+		}
+
+		synchronized void put(String name, String id){
+			if(protectedLRU.containsKey(name)){
+				protectedLRU.put(name, id);
+				return;
+			}
+			probationLRU.put(name, id);
+			if(probationLRU.size() + protectedLRU.size() > capacity){
+				LinkedHashMap<String, String> victims = probationLRU.isEmpty() ? protectedLRU : probationLRU;
+				victims.remove(eldest(victims).getKey());
+				evictions++;
+			}
+		}
+
+		synchronized void remove(String name){
+			if(probationLRU.remove(name) == null)
+				protectedLRU.remove(name);
+		}
+
+		synchronized void clear(){
+			probationLRU.clear();
+			protectedLRU.clear();
+		}
+
+		synchronized int size(){
+			return probationLRU.size() + protectedLRU.size();
+		}
+
+		synchronized void addIDsTo(List<String> ids){
+			ids.addAll(probationLRU.values());
+			ids.addAll(protectedLRU.values());
+		}
+
+		synchronized long getHits(){
+			return hits;
+		}
+
+		synchronized long getMisses(){
+			return misses;
+		}
+
+		synchronized long getEvictions(){
+			return evictions;
+		}
+
+		private static Map.Entry<String, String> eldest(LinkedHashMap<String, String> map){
+			Iterator<Map.Entry<String, String>> it = map.entrySet().iterator();
+			return it.next();
+		}
+	}
+}
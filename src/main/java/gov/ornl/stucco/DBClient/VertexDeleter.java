@@ -0,0 +1,502 @@
+package gov.ornl.stucco.DBClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tinkerpop.rexster.client.RexProException;
+
+/*
+ * Removes many vertices (and their edges) with several worker threads, one per connection, in chunks of at most
+ * chunkSize vertices.  Each chunk is one request which commits on its own, so no request is slow enough to time out.
+ *
+ * deleteByIds() splits the ids into chunks, which the workers take in turn.  deleteByIdRange() does the same with
+ * sub-ranges of idRangeChunkSize ids, each looked up id by id, see DBConnection.removeVertsInIdRange().
+ * deleteWithProps() (and deleteMatching()) lists a page of matching ids with an index, see
+ * DBConnection.findVertIdsWithProps(), has the workers remove it in id chunks, and lists the next page, until a page
+ * comes back short.  The constraints must include an eq on an indexed key, so no request scans all the vertices.
+ * Failed chunks are retried up to retryLimit times.  A chunk which still fails is counted and skipped.  A sweep with a
+ * failed chunk stops after that page, since the next page would list the same vertices again.
+ * The ProgressListener, if any, is called after each chunk.
+ * The names of the removed vertices are dropped from the VertIDCache of every connection given.
+ */
+public class VertexDeleter {
+
+	//where the chunks go, normally a DBConnection.
+	public interface Target{
+		//see DBConnection.removeVertsByIds()
+		List<String> removeVertsByIds(Collection<String> ids) throws RexProException, IOException;
+		//see DBConnection.removeVertsInIdRange()
+		List<String> removeVertsInIdRange(long minId, long maxId) throws RexProException, IOException;
+		//see DBConnection.findVertIdsWithProps()
+		List<String> findVertIdsWithProps(List<Constraint> constraints, Long minId, Long maxId, int limit) throws RexProException, IOException;
+	}
+
+	public interface ProgressListener{
+		void progress(Progress progress);
+	}
+
+	private static int DEFAULT_CHUNK_SIZE = 500;
+	private static int DEFAULT_ID_RANGE_CHUNK_SIZE = 5000; //ids are cheap to look up, and often sparse
+	private static int DEFAULT_RETRY_LIMIT = 3;
+	private static long RETRY_WAIT_MS = 500; //times the try number
+
+	private final Logger logger = LoggerFactory.getLogger(VertexDeleter.class);
+	private final List<Target> targets;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private int idRangeChunkSize = DEFAULT_ID_RANGE_CHUNK_SIZE;
+	private int retryLimit = DEFAULT_RETRY_LIMIT;
+	private volatile ProgressListener listener = null;
+	private volatile Run current = null;
+
+	/*
+	 * one worker per connection.  A DBConnection using a RexsterClientPool can be given more than once.
+	 */
+	public VertexDeleter(List<DBConnection> connections){
+		this(targets(connections));
+	}
+
+	private VertexDeleter(Collection<Target> targets){
+		if(targets == null || targets.isEmpty())
+			throw new IllegalArgumentException("vertex deleter needs at least one worker");
+		this.targets = new ArrayList<Target>(targets);
+	}
+
+	/*
+	 * one worker per target, mostly for testing.
+	 */
+	public static VertexDeleter withTargets(List<Target> targets){
+		return new VertexDeleter((Collection<Target>)targets);
+	}
+
+	private static List<Target> targets(List<DBConnection> connections){
+		//each connection drops the names it removed from its own cache, the others are done here.
+		final Set<VertIDCache> caches = Collections.newSetFromMap(new IdentityHashMap<VertIDCache, Boolean>());
+		for(DBConnection c : connections){
+			caches.add(c.getVertIDCache());
+		}
+		List<Target> targets = new ArrayList<Target>(connections.size());
+		for(final DBConnection c : connections){
+			targets.add(new Target(){
+				public List<String> removeVertsByIds(Collection<String> ids) throws RexProException, IOException{
+					return uncache(c.removeVertsByIds(ids));
+				}
+				public List<String> removeVertsInIdRange(long minId, long maxId) throws RexProException, IOException{
+					return uncache(c.removeVertsInIdRange(minId, maxId));
+				}
+				public List<String> findVertIdsWithProps(List<Constraint> constraints, Long minId, Long maxId, int limit) throws RexProException, IOException{
+					return c.findVertIdsWithProps(constraints, minId, maxId, limit);
+				}
+				private List<String> uncache(List<String> names){
+					for(VertIDCache cache : caches){
+						if(cache == c.getVertIDCache())
+							continue;
+						for(String name : names){
+							if(name != null)
+								cache.remove(name);
+						}
+					}
+					return names;
+				}
+			});
+		}
+		return targets;
+	}
+
+	public int getWorkerCount(){
+		return targets.size();
+	}
+
+	public void setChunkSize(int chunkSize){
+		if(chunkSize < 1)
+			throw new IllegalArgumentException("chunk size must be at least 1, was " + chunkSize);
+		this.chunkSize = chunkSize;
+	}
+
+	//number of ids looked up in each chunk of deleteByIdRange().
+	public void setIdRangeChunkSize(int idRangeChunkSize){
+		if(idRangeChunkSize < 1)
+			throw new IllegalArgumentException("id range chunk size must be at least 1, was " + idRangeChunkSize);
+		this.idRangeChunkSize = idRangeChunkSize;
+	}
+
+	public void setRetryLimit(int retryLimit){
+		if(retryLimit < 0)
+			throw new IllegalArgumentException("retry limit must be at least 0, was " + retryLimit);
+		this.retryLimit = retryLimit;
+	}
+
+	public void setProgressListener(ProgressListener listener){
+		this.listener = listener;
+	}
+
+	/*
+	 * removes the vertices with these ids.  Ids which are not found are not counted as removed.
+	 */
+	public synchronized Progress deleteByIds(Collection<String> ids) throws IOException{
+		List<String> all = new ArrayList<String>(ids);
+		return run(all.size(), idChunks(all));
+	}
+
+	/*
+	 * removes the vertices with ids from minId to maxId.  Each id is looked up, so this suits ranges which are mostly
+	 * vertices.  (Titan ids are spread out, so on Titan deleteWithProps() is usually much less work.)
+	 */
+	public synchronized Progress deleteByIdRange(final long minId, final long maxId) throws IOException{
+		if(maxId < minId)
+			throw new IllegalArgumentException("maxId must be at least minId, were " + maxId + " and " + minId);
+		final long size = idRangeChunkSize;
+		final long chunks = (maxId - minId) / size + 1;
+		final AtomicLong next = new AtomicLong(0);
+		return run(maxId - minId + 1, new Task(){
+			void run(final Run run, int worker, final Target target) throws InterruptedException{
+				long i;
+				while(!run.cancelled && (i = next.getAndIncrement()) < chunks){
+					final long lo = minId + i * size;
+					final long hi = Math.min(lo + size - 1, maxId);
+					Integer removed = tryChunk(run, worker, "ids " + lo + " to " + hi, new Callable<Integer>(){
+						public Integer call() throws Exception{
+							return target.removeVertsInIdRange(lo, hi).size();
+						}
+					});
+					if(removed == null)
+						run.chunkFailed(0, hi - lo + 1);
+					else
+						run.chunkDone(removed, hi - lo + 1);
+				}
+			}
+		});
+	}
+
+	/*
+	 * removes the vertices matching all the constraints, which must include an eq on an indexed key.
+	 */
+	public Progress deleteWithProps(List<Constraint> constraints) throws IOException{
+		return deleteMatching(constraints, null, null);
+	}
+
+	/*
+	 * removes the vertices matching all the constraints with ids from minId to maxId (either can be null for no bound.)
+	 * With constraints, they must include an eq on an indexed key.  With no constraints, this is deleteByIdRange() if
+	 * both bounds are given, and removes all vertices if neither is.  Listing all vertices starts a scan from the start
+	 * for every page, see DBConnection.findVertIdsWithProps().
+	 * Throws IllegalArgumentException for constraints which would need a scan.
+	 */
+	public synchronized Progress deleteMatching(final List<Constraint> constraints, final Long minId, final Long maxId) throws IOException{
+		if((constraints == null || constraints.isEmpty()) && minId != null && maxId != null)
+			return deleteByIdRange(minId, maxId);
+		final int pageSize = chunkSize * targets.size();
+		final Target lister = targets.get(0);
+		Run run = start(-1);
+		try{
+			while(!run.cancelled){
+				List<String> page;
+				try{
+					page = tryChunk(run, 0, "listing", new Callable<List<String>>(){
+						public List<String> call() throws Exception{
+							return lister.findVertIdsWithProps(constraints, minId, maxId, pageSize);
+						}
+					});
+				}catch(InterruptedException e){
+					run.cancelled = true;
+					Thread.currentThread().interrupt();
+					throw new IOException("interrupted while listing vertices");
+				}
+				if(page == null){
+					run.chunkFailed(0, 0);
+					break;
+				}
+				Progress before = run.snapshot(false);
+				runWorkers(run, idChunks(page));
+				Progress after = run.snapshot(false);
+				//stop on a failed chunk (or on a page none of which could be removed), or the next page would be the same ids.
+				if(page.size() < pageSize || after.getFailedChunkCount() > before.getFailedChunkCount() ||
+						after.getVertsRemoved() == before.getVertsRemoved())
+					break;
+			}
+			return finish(run);
+		}finally{
+			current = null;
+		}
+	}
+
+	//the workers take chunks of the ids in turn.
+	private Task idChunks(List<String> ids){
+		final List<List<String>> chunks = new ArrayList<List<String>>();
+		for(int i=0; i<ids.size(); i+=chunkSize){
+			chunks.add(ids.subList(i, Math.min(i + chunkSize, ids.size())));
+		}
+		final AtomicInteger next = new AtomicInteger(0);
+		return new Task(){
+			void run(final Run run, int worker, final Target target) throws InterruptedException{
+				int i;
+				while(!run.cancelled && (i = next.getAndIncrement()) < chunks.size()){
+					final List<String> chunk = chunks.get(i);
+					Integer removed;
+					try{
+						removed = tryChunk(run, worker, chunk.size() + " ids", new Callable<Integer>(){
+							public Integer call() throws Exception{
+								return target.removeVertsByIds(chunk).size();
+							}
+						});
+					}catch(IllegalArgumentException e){
+						logger.warn("worker " + worker + " skipped chunk of " + chunk.size() + " ids: " + e);
+						removed = null;
+					}
+					if(removed == null)
+						run.chunkFailed(chunk.size(), chunk.size());
+					else
+						run.chunkDone(removed, chunk.size());
+				}
+			}
+		};
+	}
+
+	/*
+	 * stops the current delete, if any, after the chunks already being removed.  The delete returns what was removed so far.
+	 */
+	public void cancel(){
+		Run run = current;
+		if(run != null)
+			run.cancelled = true;
+	}
+
+	//the progress of the current delete, or null if none is running.
+	public Progress getProgress(){
+		Run run = current;
+		return (run == null) ? null : run.snapshot(false);
+	}
+
+	private abstract class Task{
+		abstract void run(Run run, int worker, Target target) throws InterruptedException;
+	}
+
+	//runs task on every worker, and waits for them all.
+	private Progress run(long total, Task task) throws IOException{
+		Run run = start(total);
+		try{
+			runWorkers(run, task);
+			return finish(run);
+		}finally{
+			current = null;
+		}
+	}
+
+	private Run start(long total){
+		Run run = new Run(total);
+		current = run;
+		return run;
+	}
+
+	private void runWorkers(final Run run, final Task task) throws IOException{
+		List<Thread> threads = new ArrayList<Thread>(targets.size());
+		for(int i=0; i<targets.size(); i++){
+			final int worker = i;
+			Thread t = new Thread(new Runnable(){
+				public void run(){
+					try{
+						task.run(run, worker, targets.get(worker));
+					}catch(InterruptedException e){
+						//stop
+					}
+				}
+			}, "VertexDeleter-worker-" + i);
+			t.setDaemon(true);
+			threads.add(t);
+			t.start();
+		}
+		for(Thread t : threads){
+			try{
+				t.join();
+			}catch(InterruptedException e){
+				run.cancelled = true;
+				for(Thread other : threads){
+					other.interrupt();
+				}
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted while waiting for workers");
+			}
+		}
+	}
+
+	private Progress finish(Run run){
+		Progress progress = run.snapshot(true);
+		report(progress);
+		if(progress.getFailedChunkCount() > 0)
+			logger.warn("VertexDeleter finished with failures: " + progress);
+		else
+			logger.info("VertexDeleter finished: " + progress);
+		return progress;
+	}
+
+	//returns what the chunk returned, or null if all the tries failed.  IllegalArgumentException is not retried, since it
+	// would fail the same way every time.
+	private <T> T tryChunk(Run run, int worker, String what, Callable<T> chunk) throws InterruptedException{
+		for(int tryCount=0; tryCount<=retryLimit; tryCount++){
+			if(tryCount > 0){
+				run.retried();
+				Thread.sleep(RETRY_WAIT_MS * tryCount);
+			}
+			try{
+				return chunk.call();
+			}catch(InterruptedException e){
+				throw e;
+			}catch(IllegalArgumentException e){
+				throw e;
+			}catch(Exception e){
+				logger.warn("worker " + worker + " could not remove chunk of " + what + ", try " + (tryCount + 1) + ": " + e);
+			}
+		}
+		logger.warn("worker " + worker + " gave up on chunk of " + what);
+		return null;
+	}
+
+	private void report(Progress progress){
+		ProgressListener l = listener;
+		if(l != null)
+			l.progress(progress);
+	}
+
+	//counts for one delete.
+	private class Run{
+		final long total;
+		final long startTime = System.currentTimeMillis();
+		volatile boolean cancelled = false;
+		private long removed = 0;
+		private long tried = 0;
+		private long chunks = 0;
+		private long failedChunks = 0;
+		private long vertsFailed = 0;
+		private long retries = 0;
+
+		Run(long total){
+			this.total = total;
+		}
+
+		//reports under the lock, so the listener sees the counts in order.
+		synchronized void chunkDone(int count, long ids){
+			chunks++;
+			removed += count;
+			tried += ids;
+			report(snapshot(false));
+		}
+
+		synchronized void chunkFailed(long count, long ids){
+			failedChunks++;
+			vertsFailed += count;
+			tried += ids;
+			report(snapshot(false));
+		}
+
+		synchronized void retried(){
+			retries++;
+		}
+
+		synchronized Progress snapshot(boolean done){
+			return new Progress(removed, tried, chunks, failedChunks, vertsFailed, retries, total, System.currentTimeMillis() - startTime, done, cancelled);
+		}
+	}
+
+	/*
+	 * counts so far for one delete.
+	 */
+	public static class Progress {
+		private final long removed;
+		private final long tried;
+		private final long chunks;
+		private final long failedChunks;
+		private final long vertsFailed;
+		private final long retries;
+		private final long total;
+		private final long elapsedMs;
+		private final boolean done;
+		private final boolean cancelled;
+
+		private Progress(long removed, long tried, long chunks, long failedChunks, long vertsFailed, long retries, long total, long elapsedMs, boolean done, boolean cancelled){
+			this.removed = removed;
+			this.tried = tried;
+			this.chunks = chunks;
+			this.failedChunks = failedChunks;
+			this.vertsFailed = vertsFailed;
+			this.retries = retries;
+			this.total = total;
+			this.elapsedMs = elapsedMs;
+			this.done = done;
+			this.cancelled = cancelled;
+		}
+
+		public long getVertsRemoved(){
+			return removed;
+		}
+
+		//chunks removed, not counting failed ones
+		public long getChunkCount(){
+			return chunks;
+		}
+
+		//chunks given up on after retryLimit retries
+		public long getFailedChunkCount(){
+			return failedChunks;
+		}
+
+		//ids tried so far, including ones not found and failed chunks.  For deleteByIdRange() these are the ids looked up,
+		// for deleteWithProps() the ids listed.
+		public long getIdsTried(){
+			return tried;
+		}
+
+		//ids in the failed chunks.  (not known for deleteByIdRange(), where most ids are not vertices.)
+		public long getVertsFailed(){
+			return vertsFailed;
+		}
+
+		public long getRetryCount(){
+			return retries;
+		}
+
+		//number of ids given to deleteByIds() or in the range of deleteByIdRange(), or -1 if not known.
+		public long getTotal(){
+			return total;
+		}
+
+		//percent of the ids tried, or -1 if not known.
+		public double getPercentDone(){
+			if(total < 0)
+				return -1;
+			if(total == 0)
+				return 100.0;
+			return tried * 100.0 / total;
+		}
+
+		public long getElapsedMs(){
+			return elapsedMs;
+		}
+
+		public double getVertsPerSecond(){
+			return removed * 1000.0 / Math.max(1, elapsedMs);
+		}
+
+		public boolean isDone(){
+			return done;
+		}
+
+		public boolean isCancelled(){
+			return cancelled;
+		}
+
+		public String toString(){
+			return removed + " vertices removed in " + chunks + " chunks, " + failedChunks + " failed chunks, " + retries + " retries, in " +
+					elapsedMs + " ms (" + String.format("%.0f", getVertsPerSecond()) + " vertices/s)" + (cancelled ? ", cancelled" : "");
+		}
+	}
+}
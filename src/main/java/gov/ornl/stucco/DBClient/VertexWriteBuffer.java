@@ -0,0 +1,313 @@
+package gov.ornl.stucco.DBClient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tinkerpop.rexster.client.RexProException;
+
+/*
+ * Collects vertex property updates, and merges the ones to the same vertex before sending them with
+ * DBConnection.updateVerts(), so many updates to one vertex become one write.
+ *
+ * SINGLE properties keep the last value given, and SET / LIST properties collect all values given (without
+ * duplicates, for SET.)  Pending updates are sent when maxVerts vertices are pending, when the oldest pending update
+ * is maxAgeMs old, or on flush() / close().  The age is checked on every update, and also by a background thread if
+ * startAutoFlush() was called.
+ * A flush sends at most DBConnection.VERT_BATCH_LIMIT vertices per updateVerts() call, each committed on its own.
+ * Updates are not visible to reads from the DB until they are flushed.  If a flush throws, the updates of the call
+ * which threw and of the calls not made yet are merged back in (under any newer ones), to go with the next flush.
+ * The ones already sent are not, so LIST values are not added twice.
+ */
+public class VertexWriteBuffer implements Closeable {
+
+	//where the merged updates go, normally a DBConnection.
+	public interface Target{
+		Map<String, String> findCardinalities(Collection<String> keys) throws RexProException, IOException;
+		//returns the ids which could not be updated
+		List<String> updateVerts(Map<String, Map<String, Object>> updates) throws RexProException, IOException;
+	}
+
+	private static int DEFAULT_MAX_VERTS = 1000;
+	private static long DEFAULT_MAX_AGE_MS = 5000;
+
+	private final Logger logger = LoggerFactory.getLogger(VertexWriteBuffer.class);
+	private final Target target;
+	private final int maxVerts;
+	private final long maxAgeMs;
+	private final Object flushLock = new Object(); //keeps flushes in order
+	private LinkedHashMap<String, Pending> pending = new LinkedHashMap<String, Pending>();
+	private ScheduledExecutorService timer = null;
+
+	private long updateCount = 0;
+	private long flushCount = 0;
+	private long vertsWritten = 0;
+	private long vertsFailed = 0;
+
+	//merged updates for one vertex
+	private static class Pending{
+		final long firstUpdate = System.currentTimeMillis();
+		final Map<String, Object> props = new HashMap<String, Object>(); //values of SINGLE keys
+		final Map<String, Collection<Object>> multiProps = new HashMap<String, Collection<Object>>(); //values of SET / LIST keys
+		final Map<String, String> cardinalities = new HashMap<String, String>(); //of the multiProps keys
+	}
+
+	public VertexWriteBuffer(DBConnection c){
+		this(c, DEFAULT_MAX_VERTS, DEFAULT_MAX_AGE_MS);
+	}
+
+	public VertexWriteBuffer(final DBConnection c, int maxVerts, long maxAgeMs){
+		this(new Target(){
+			public Map<String, String> findCardinalities(Collection<String> keys) throws RexProException, IOException{
+				return c.findCardinalities(keys);
+			}
+			public List<String> updateVerts(Map<String, Map<String, Object>> updates) throws RexProException, IOException{
+				return c.updateVerts(updates);
+			}
+		}, maxVerts, maxAgeMs);
+	}
+
+	public VertexWriteBuffer(Target target, int maxVerts, long maxAgeMs){
+		if(maxVerts < 1 || maxAgeMs < 1)
+			throw new IllegalArgumentException("max vertices and max age must be at least 1, were " + maxVerts + " and " + maxAgeMs);
+		this.target = target;
+		this.maxVerts = maxVerts;
+		this.maxAgeMs = maxAgeMs;
+	}
+
+	/*
+	 * merges props into the pending update for vertex id.  Flushes if the buffer is full, or its oldest update is too old.
+	 */
+	public void update(String id, Map<String, Object> props) throws RexProException, IOException{
+		Map<String, String> cardinalities = target.findCardinalities(props.keySet());
+		boolean full;
+		synchronized(this){
+			Pending p = pending.get(id);
+			if(p == null){
+				p = new Pending();
+				pending.put(id, p);
+			}
+			for(Map.Entry<String, Object> entry : props.entrySet()){
+				merge(p, entry.getKey(), entry.getValue(), cardinalities.get(entry.getKey()));
+			}
+			updateCount++;
+			full = pending.size() >= maxVerts || isOld();
+		}
+		if(full)
+			flush();
+	}
+
+	public void updateProperty(String id, String key, Object val) throws RexProException, IOException{
+		Map<String, Object> props = new HashMap<String, Object>();
+		props.put(key, val);
+		update(id, props);
+	}
+
+	/*
+	 * sends all pending updates now.  returns the ids which could not be updated (eg. not found.)
+	 */
+	public List<String> flush() throws RexProException, IOException{
+		synchronized(flushLock){
+			LinkedHashMap<String, Pending> toWrite;
+			synchronized(this){
+				if(pending.isEmpty())
+					return Collections.emptyList();
+				toWrite = pending;
+				pending = new LinkedHashMap<String, Pending>();
+			}
+			List<String> ids = new ArrayList<String>(toWrite.keySet());
+			List<String> failed = new ArrayList<String>();
+			int sent = 0;
+			try{
+				while(sent < ids.size()){
+					int end = Math.min(sent + DBConnection.VERT_BATCH_LIMIT, ids.size());
+					Map<String, Map<String, Object>> updates = new LinkedHashMap<String, Map<String, Object>>();
+					for(String id : ids.subList(sent, end)){
+						Map<String, Object> props = new HashMap<String, Object>();
+						Pending p = toWrite.get(id);
+						for(Map.Entry<String, Object> prop : p.props.entrySet()){
+							Object val = prop.getValue();
+							props.put(prop.getKey(), (val instanceof Collection) ? new ArrayList<Object>((Collection<?>)val) : val);
+						}
+						for(Map.Entry<String, Collection<Object>> prop : p.multiProps.entrySet()){
+							props.put(prop.getKey(), new ArrayList<Object>(prop.getValue()));
+						}
+						updates.put(id, props);
+					}
+					failed.addAll(target.updateVerts(updates));
+					sent = end;
+				}
+			}finally{
+				if(sent < ids.size()){
+					LinkedHashMap<String, Pending> unsent = new LinkedHashMap<String, Pending>();
+					for(String id : ids.subList(sent, ids.size())){
+						unsent.put(id, toWrite.get(id));
+					}
+					mergeBack(unsent);
+				}
+				synchronized(this){
+					if(sent == ids.size())
+						flushCount++;
+					vertsWritten += sent - failed.size();
+					vertsFailed += failed.size();
+				}
+			}
+			if(!failed.isEmpty())
+				logger.warn("VertexWriteBuffer could not update " + failed.size() + " of " + ids.size() + " vertices.");
+			return failed;
+		}
+	}
+
+	/*
+	 * flushes if the oldest pending update is at least maxAgeMs old.
+	 */
+	public void flushIfOld() throws RexProException, IOException{
+		boolean old;
+		synchronized(this){
+			old = isOld();
+		}
+		if(old)
+			flush();
+	}
+
+	/*
+	 * starts a background thread which checks the age of the pending updates every maxAgeMs / 2.
+	 */
+	public synchronized void startAutoFlush(){
+		if(timer != null)
+			return;
+		timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "VertexWriteBuffer-flush");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long interval = Math.max(1, maxAgeMs / 2);
+		timer.scheduleWithFixedDelay(new Runnable(){
+			public void run(){
+				try{
+					flushIfOld();
+				}catch(Exception e){
+					logger.warn("VertexWriteBuffer background flush failed, will retry: " + e);
+				}
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/*
+	 * stops the background thread, if any, and flushes.
+	 */
+	public void close() throws IOException{
+		synchronized(this){
+			if(timer != null)
+				timer.shutdown();
+			timer = null;
+		}
+		try{
+			flush();
+		}catch(RexProException e){
+			throw new IOException("could not flush vertex updates", e);
+		}
+	}
+
+	public synchronized int getPendingCount(){
+		return pending.size();
+	}
+
+	//update() calls so far
+	public synchronized long getUpdateCount(){
+		return updateCount;
+	}
+
+	public synchronized long getFlushCount(){
+		return flushCount;
+	}
+
+	//vertex writes sent by the flushes, not counting failed ones
+	public synchronized long getVertsWritten(){
+		return vertsWritten;
+	}
+
+	public synchronized long getVertsFailed(){
+		return vertsFailed;
+	}
+
+	public synchronized String toString(){
+		return "VertexWriteBuffer[maxVerts=" + maxVerts + ", maxAgeMs=" + maxAgeMs + ", pending=" + pending.size() + ", updates=" + updateCount +
+				", flushes=" + flushCount + ", vertsWritten=" + vertsWritten + ", vertsFailed=" + vertsFailed + "]";
+	}
+
+	private boolean isOld(){
+		if(pending.isEmpty())
+			return false;
+		return System.currentTimeMillis() - pending.values().iterator().next().firstUpdate >= maxAgeMs;
+	}
+
+	private static void merge(Pending p, String key, Object val, String cardinality){
+		if(cardinality == null || cardinality.equals("SINGLE")){
+			p.props.put(key, val);
+			return;
+		}
+		p.cardinalities.put(key, cardinality);
+		Collection<Object> vals = p.multiProps.get(key);
+		if(vals == null){
+			vals = cardinality.equals("SET") ? new LinkedHashSet<Object>() : new ArrayList<Object>();
+			p.multiProps.put(key, vals);
+		}
+		vals.addAll(toList(val));
+	}
+
+	//puts updates from a failed flush back, with any newer ones merged on top.
+	private synchronized void mergeBack(LinkedHashMap<String, Pending> failed){
+		LinkedHashMap<String, Pending> newer = pending;
+		pending = failed;
+		for(Map.Entry<String, Pending> entry : newer.entrySet()){
+			Pending p = pending.get(entry.getKey());
+			if(p == null){
+				pending.put(entry.getKey(), entry.getValue());
+				continue;
+			}
+			Pending n = entry.getValue();
+			for(Map.Entry<String, Object> prop : n.props.entrySet()){
+				merge(p, prop.getKey(), prop.getValue(), null);
+			}
+			for(Map.Entry<String, Collection<Object>> prop : n.multiProps.entrySet()){
+				merge(p, prop.getKey(), prop.getValue(), n.cardinalities.get(prop.getKey()));
+			}
+		}
+	}
+
+	private static List<Object> toList(Object val){
+		List<Object> l = new ArrayList<Object>();
+		if(val instanceof JSONArray){
+			JSONArray a = (JSONArray)val;
+			for(int i=0; i<a.length(); i++){
+				l.add(a.get(i));
+			}
+		}else if(val instanceof Collection){
+			l.addAll((Collection<?>)val);
+		}else if(val instanceof Object[]){
+			l.addAll(Arrays.asList((Object[])val));
+		}else{
+			l.add(val);
+		}
+		return l;
+	}
+}
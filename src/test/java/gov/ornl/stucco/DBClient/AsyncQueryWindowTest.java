@@ -0,0 +1,110 @@
+package gov.ornl.stucco.DBClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the async query window.
+ */
+public class AsyncQueryWindowTest
+extends TestCase
+{
+	/**
+	 * Tests that results and exceptions come back through the futures.
+	 */
+	public void testResults() throws Exception
+	{
+		AsyncQueryWindow window = new AsyncQueryWindow(4, 1000, 1000);
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		for(int i=0; i<20; i++){
+			final int n = i;
+			futures.add(window.submit(new Callable<Integer>(){
+				public Integer call(){
+					return n * n;
+				}
+			}, 10));
+		}
+		for(int i=0; i<20; i++){
+			assertEquals(i * i, (int)futures.get(i).get());
+		}
+		Future<Integer> bad = window.submit(new Callable<Integer>(){
+			public Integer call() throws IOException{
+				throw new IOException("query failed");
+			}
+		}, 10);
+		try{
+			bad.get();
+			fail("expected ExecutionException");
+		}catch(ExecutionException e){
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		assertEquals(21, window.getSubmittedCount());
+		assertEquals(1, window.getFailedCount());
+		assertTrue(window.getPeakInFlight() <= 4);
+		assertEquals("done", AsyncQueryWindow.completed("done").get());
+		window.shutdown();
+	}
+
+	/**
+	 * Tests that a full window blocks new queries, and times out if it stays full.
+	 */
+	public void testFullWindow() throws Exception
+	{
+		AsyncQueryWindow window = new AsyncQueryWindow(2, 1000, 100);
+		final CountDownLatch latch = new CountDownLatch(1);
+		Callable<Boolean> blocked = new Callable<Boolean>(){
+			public Boolean call() throws InterruptedException{
+				latch.await();
+				return true;
+			}
+		};
+		Future<Boolean> f1 = window.submit(blocked, 10);
+		Future<Boolean> f2 = window.submit(blocked, 10);
+		try{
+			window.submit(blocked, 10);
+			fail("expected timeout");
+		}catch(IOException e){
+			//expected
+		}
+		assertEquals(2, window.getInFlight());
+		latch.countDown();
+		assertTrue(f1.get());
+		assertTrue(f2.get());
+		assertTrue(window.submit(blocked, 10).get());
+		window.shutdown();
+	}
+
+	/**
+	 * Tests that the queued size limit also blocks new queries.
+	 */
+	public void testQueuedBytes() throws Exception
+	{
+		AsyncQueryWindow window = new AsyncQueryWindow(8, 100, 100);
+		final CountDownLatch latch = new CountDownLatch(1);
+		Callable<Boolean> blocked = new Callable<Boolean>(){
+			public Boolean call() throws InterruptedException{
+				latch.await();
+				return true;
+			}
+		};
+		Future<Boolean> f1 = window.submit(blocked, 60);
+		try{
+			window.submit(blocked, 60);
+			fail("expected timeout");
+		}catch(IOException e){
+			//expected
+		}
+		assertEquals(1, window.getInFlight());
+		latch.countDown();
+		assertTrue(f1.get());
+		assertTrue(window.submit(blocked, 60).get());
+		window.shutdown();
+	}
+}
@@ -0,0 +1,180 @@
+package gov.ornl.stucco.DBClient;
+
+import gov.ornl.stucco.DBClient.DBConnection.EdgeAddResult;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the parallel bulk loader.
+ */
+public class BulkLoaderTest
+extends TestCase
+{
+	//shared record of what all the sinks have added.
+	private static class Graph{
+		final Set<String> verts = Collections.synchronizedSet(new HashSet<String>());
+		final AtomicInteger edgesBeforeVerts = new AtomicInteger(0);
+		final AtomicInteger vertsInFlight = new AtomicInteger(0);
+	}
+
+	private static class TestSink implements GraphSONLoader.Sink{
+		final Graph graph;
+		final Set<String> names = new HashSet<String>();
+		int failuresLeft;
+
+		TestSink(Graph graph, int failures){
+			this.graph = graph;
+			this.failuresLeft = failures;
+		}
+
+		public int addVertices(List<Map<String, Object>> verts) throws IOException{
+			graph.vertsInFlight.incrementAndGet();
+			try{
+				Thread.sleep(5);
+				if(failuresLeft > 0){
+					failuresLeft--;
+					throw new IOException("connection dropped");
+				}
+				for(Map<String, Object> vert : verts){
+					names.add((String)vert.get("_id"));
+					graph.verts.add((String)vert.get("_id"));
+				}
+				return verts.size();
+			}catch(InterruptedException e){
+				throw new IOException(e);
+			}finally{
+				graph.vertsInFlight.decrementAndGet();
+			}
+		}
+
+		public List<EdgeAddResult> addEdges(List<Map<String, Object>> edges){
+			if(graph.vertsInFlight.get() > 0)
+				graph.edgesBeforeVerts.incrementAndGet();
+			List<EdgeAddResult> results = new ArrayList<EdgeAddResult>();
+			for(Map<String, Object> edge : edges){
+				boolean found = graph.verts.contains(edge.get("_outV")) && graph.verts.contains(edge.get("_inV"));
+				results.add(found ? EdgeAddResult.ADDED : EdgeAddResult.MISSING_ENDPOINT);
+			}
+			return results;
+		}
+	}
+
+	private static List<Map<String, Object>> verts(int count){
+		List<Map<String, Object>> verts = new ArrayList<Map<String, Object>>();
+		for(int i=0; i<count; i++){
+			Map<String, Object> vert = new HashMap<String, Object>();
+			vert.put("_id", "v" + i);
+			verts.add(vert);
+		}
+		return verts;
+	}
+
+	private static List<Map<String, Object>> edges(int count){
+		List<Map<String, Object>> edges = new ArrayList<Map<String, Object>>();
+		for(int i=1; i<count; i++){
+			Map<String, Object> edge = new HashMap<String, Object>();
+			edge.put("_outV", "v" + i);
+			edge.put("_inV", "v" + (i - 1));
+			edges.add(edge);
+		}
+		return edges;
+	}
+
+	/**
+	 * Tests that vertices are partitioned by name, and that edges wait for all the vertices before them.
+	 */
+	public void testLoad() throws Exception
+	{
+		Graph graph = new Graph();
+		List<GraphSONLoader.Sink> sinks = new ArrayList<GraphSONLoader.Sink>();
+		for(int i=0; i<4; i++){
+			sinks.add(new TestSink(graph, 0));
+		}
+		BulkLoader loader = BulkLoader.withSinks(sinks, 10, 2, 0);
+		loader.addVertices(verts(500));
+		loader.addEdges(edges(500));
+		BulkLoader.Stats stats = loader.finish();
+		loader.close();
+
+		assertEquals(500, stats.getVertsAdded());
+		assertEquals(499, stats.getEdgeCount(EdgeAddResult.ADDED));
+		assertEquals(0, stats.getEdgeCount(EdgeAddResult.MISSING_ENDPOINT));
+		assertEquals(0, graph.edgesBeforeVerts.get());
+		assertEquals(4, stats.getWorkerStats().size());
+
+		//each name always goes to the same worker, and each worker got some.
+		Set<String> seen = new HashSet<String>();
+		for(GraphSONLoader.Sink sink : sinks){
+			Set<String> names = ((TestSink)sink).names;
+			assertTrue(names.size() > 0);
+			for(String name : names){
+				assertTrue(seen.add(name));
+			}
+		}
+		for(BulkLoader.WorkerStats w : stats.getWorkerStats()){
+			assertEquals(((TestSink)sinks.get(w.getWorker())).names.size(), w.getVertsAdded());
+		}
+	}
+
+	/**
+	 * Tests that close() sends the partial batches which finish() was not called for.
+	 */
+	public void testClose() throws Exception
+	{
+		Graph graph = new Graph();
+		List<GraphSONLoader.Sink> sinks = new ArrayList<GraphSONLoader.Sink>();
+		for(int i=0; i<2; i++){
+			sinks.add(new TestSink(graph, 0));
+		}
+		BulkLoader loader = BulkLoader.withSinks(sinks, 100, 2, 0);
+		loader.addVertices(verts(30));
+		loader.addEdges(edges(30));
+		loader.close();
+		BulkLoader.Stats stats = loader.getStats();
+		assertEquals(30, graph.verts.size());
+		assertEquals(29, stats.getEdgeCount(EdgeAddResult.ADDED));
+	}
+
+	/**
+	 * Tests that failed batches are retried, and counted when the retries run out.
+	 */
+	public void testRetries() throws Exception
+	{
+		Graph graph = new Graph();
+		List<GraphSONLoader.Sink> sinks = new ArrayList<GraphSONLoader.Sink>();
+		sinks.add(new TestSink(graph, 1));
+		BulkLoader loader = BulkLoader.withSinks(sinks, 100, 1, 1);
+		loader.addVertices(verts(50));
+		BulkLoader.Stats stats = loader.finish();
+		assertEquals(50, stats.getVertsAdded());
+		assertEquals(1, stats.getRetryCount());
+		loader.close();
+
+		sinks.clear();
+		sinks.add(new TestSink(graph, 5));
+		loader = BulkLoader.withSinks(sinks, 100, 1, 1);
+		loader.addVertices(verts(50));
+		stats = loader.finish();
+		assertEquals(0, stats.getVertsAdded());
+		assertEquals(50, stats.getVertsFailed());
+		assertEquals(1, stats.getWorkerStats().get(0).getFailedBatchCount());
+		loader.close();
+
+		try{
+			loader.addVertices(verts(1));
+			fail("expected IOException");
+		}catch(IOException e){
+			//expected
+		}
+	}
+}
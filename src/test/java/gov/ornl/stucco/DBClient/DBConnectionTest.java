@@ -1,6 +1,7 @@
 package gov.ornl.stucco.DBClient;
 
 import gov.ornl.stucco.DBClient.DBConnection;
+import gov.ornl.stucco.DBClient.Constraint.Condition;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -10,8 +11,11 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.apache.commons.configuration.Configuration;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -189,9 +193,325 @@ extends TestCase
 
 
 	/**
-	 * Tests updating vertex properties
+	 * Tests loading a batch of vertices in one request, including multi-valued properties.
+	 * @throws IOException
+	 * @throws RexProException
+	 * @throws JSONException
+	 */
+	public void testLoadBatch() throws JSONException, RexProException, IOException
+	{
+		DBConnection c = null;
+		try{
+			Configuration config = DBConnection.getTestConfig();
+			RexsterClient client = DBConnection.createClient(config, WAIT_TIME);
+			List names = client.execute("mgmt = g.getManagementSystem();mgmt.getPropertyKey(\"source\");");
+			if(names.get(0) == null){
+				client.execute("mgmt = g.getManagementSystem();"
+					+ "name = mgmt.makePropertyKey(\"source\").dataType(String.class).cardinality(Cardinality.SET).make();"
+					+ "mgmt.commit();g;");
+			}
+			c = new DBConnection( client );
+			c.createIndices();
+		}catch(Exception e){
+			e.printStackTrace(); //TODO
+		} //the possible NPE below is fine, don't care if test errors.
+
+		c.removeAllVertices();
+
+		JSONArray verts = new JSONArray();
+		for(int i=0; i<20; i++){
+			String currentVert = "{" +
+					"\"_id\":\"batchvert_" + i + "\"," +
+					"\"_type\":\"vertex\","+
+					"\"source\":[\"aaaa\",\"bbbb\",\"aaaa\"],"+
+					"\"vertexType\":\"software\","+
+					"\"score\":" + i +
+					"}";
+			verts.put(new JSONObject(currentVert));
+		}
+		Map<String, String> newIDs = c.addVerticesFromJSON(verts);
+		assertEquals(20, newIDs.size());
+
+		try {
+			for(int i=0; i<20; i++){
+				String id = c.findVertId("batchvert_" + i);
+				assertEquals(newIDs.get("batchvert_" + i), id);
+				Map<String, Object> query_ret_map = c.getVertByID(id);
+				assertEquals(Integer.toString(i), query_ret_map.get("score").toString());
+				assertEquals("software", query_ret_map.get("vertexType"));
+				assertEquals("[aaaa, bbbb]", query_ret_map.get("source").toString());
+			}
+		} catch (RexProException e) {
+			fail("RexProException");
+			e.printStackTrace();
+		} catch (IOException e) {
+			fail("IOException");
+			e.printStackTrace();
+		}
+
+		JSONArray edges = new JSONArray();
+		for(int i=1; i<20; i++){
+			String currentEdge = "{"+
+					"\"_id\":\"batchvert_0_hasFlow_batchvert_" + i + "\"," +
+					"\"_inV\":\"batchvert_" + i + "\"," +
+					"\"_outV\":\"batchvert_0\"," +
+					"\"_label\":\"hasFlow\","+
+					"\"description\":\"test edge\""+
+					"}";
+			edges.put(new JSONObject(currentEdge));
+		}
+		edges.put(new JSONObject("{\"_id\":\"dup\",\"_inV\":\"batchvert_1\",\"_outV\":\"batchvert_0\",\"_label\":\"hasFlow\"}"));
+		edges.put(new JSONObject("{\"_id\":\"missing\",\"_inV\":\"batchvert_1\",\"_outV\":\"not_a_vert\",\"_label\":\"hasFlow\"}"));
+		List<DBConnection.EdgeAddResult> results = c.addEdgesFromJSON(edges);
+		assertEquals(21, results.size());
+		for(int i=0; i<19; i++){
+			assertEquals(DBConnection.EdgeAddResult.ADDED, results.get(i));
+		}
+		assertEquals(DBConnection.EdgeAddResult.DUPLICATE, results.get(19));
+		assertEquals(DBConnection.EdgeAddResult.MISSING_ENDPOINT, results.get(20));
+
+		try {
+			String id = c.findVertId("batchvert_0");
+			for(int i=1; i<20; i++){
+				String id2 = c.findVertId("batchvert_" + i);
+				assertEquals(1, c.getEdgeCount(id2, id, "hasFlow"));
+				assertEquals(0, c.getEdgeCount(id, id2, "hasFlow"));
+			}
+
+			//same as above, in one request.
+			List<EdgeTriple> triples = new ArrayList<EdgeTriple>();
+			for(int i=1; i<20; i++){
+				triples.add(new EdgeTriple(c.findVertId("batchvert_" + i), id, "hasFlow"));
+				triples.add(new EdgeTriple(id, c.findVertId("batchvert_" + i), "hasFlow"));
+			}
+			triples.add(new EdgeTriple(null, id, "hasFlow"));
+			List<Integer> counts = c.getEdgeCounts(triples);
+			assertEquals(39, counts.size());
+			for(int i=0; i<19; i++){
+				assertEquals(1, (int)counts.get(2*i));
+				assertEquals(0, (int)counts.get(2*i + 1));
+			}
+			assertEquals(-1, (int)counts.get(38));
+
+			//a new connection starts with an empty cache, so these are all looked up at once.
+			DBConnection c2 = new DBConnection( c.getClient() );
+			List<String> batchNames = new ArrayList<String>();
+			for(int i=0; i<20; i++){
+				batchNames.add("batchvert_" + i);
+			}
+			batchNames.add("not_a_vert");
+			Map<String, String> foundIDs = c2.findVertIds(batchNames);
+			assertEquals(20, foundIDs.size());
+			for(int i=0; i<20; i++){
+				assertEquals(newIDs.get("batchvert_" + i), foundIDs.get("batchvert_" + i));
+			}
+			assertNull(foundIDs.get("not_a_vert"));
+
+			c.removeAllVertices();
+
+		} catch (RexProException e) {
+			fail("RexProException");
+			e.printStackTrace();
+		} catch (IOException e) {
+			fail("IOException");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Tests adding vertices and edges with each of the write confirmation modes.
+	 * @throws IOException
+	 * @throws RexProException
+	 * @throws JSONException
+	 */
+	public void testWriteConfirmModes() throws JSONException, RexProException, IOException
+	{
+		DBConnection c = null;
+		try{
+			RexsterClient client = DBConnection.createClient(DBConnection.getTestConfig(), WAIT_TIME);
+			c = new DBConnection( client );
+			c.createIndices();
+		}catch(Exception e){
+			e.printStackTrace(); //TODO
+		} //the possible NPE below is fine, don't care if test errors.
+
+		c.removeAllVertices();
+
+		for(DBConnection.WriteConfirmMode mode : DBConnection.WriteConfirmMode.values()){
+			c.setWriteConfirmMode(mode);
+			assertTrue(c.addVertexFromJSON(new JSONObject("{\"_id\":\"" + mode + "_1\",\"vertexType\":\"software\"}")));
+			assertTrue(c.addVertexFromJSON(new JSONObject("{\"_id\":\"" + mode + "_2\",\"vertexType\":\"software\"}")));
+			assertTrue(c.addEdgeFromJSON(new JSONObject("{\"_id\":\"" + mode + "_edge\",\"_outV\":\"" + mode + "_1\",\"_inV\":\"" + mode + "_2\",\"_label\":\"sameAs\"}")));
+
+			try {
+				String id = c.findVertId(mode + "_1");
+				String id2 = c.findVertId(mode + "_2");
+				assertEquals(1, c.getEdgeCount(id2, id, "sameAs"));
+			} catch (RexProException e) {
+				fail("RexProException");
+				e.printStackTrace();
+			} catch (IOException e) {
+				fail("IOException");
+				e.printStackTrace();
+			}
+		}
+
+		c.removeAllVertices();
+	}
+
+	/**
+	 * Tests the async lookups
+	 * @throws IOException
+	 * @throws RexProException 
+	 */
+	public void testAsync() throws JSONException, RexProException, IOException, InterruptedException, ExecutionException
+	{
+		DBConnection c = null;
+		try{
+			RexsterClient client = DBConnection.createClient(DBConnection.getTestConfig(), WAIT_TIME);
+			c = new DBConnection( client );
+			c.createIndices();
+			c.setAsyncWindow(AsyncQueryWindow.fromConfig(DBConnection.getTestConfig(), 4));
+		}catch(Exception e){
+			e.printStackTrace(); //TODO
+		} //the possible NPE below is fine, don't care if test errors.
+
+		c.removeAllVertices();
+
+		for(int i=0; i<10; i++){
+			c.addVertexFromJSON(new JSONObject("{\"_id\":\"async_" + i + "\",\"vertexType\":\"software\"}"));
+		}
+		c.addEdgeFromJSON(new JSONObject("{\"_id\":\"async_edge\",\"_outV\":\"async_0\",\"_inV\":\"async_1\",\"_label\":\"sameAs\"}"));
+		c.getVertIDCache().clear();
+
+		List<Future<String>> ids = new ArrayList<Future<String>>();
+		for(int i=0; i<12; i++){
+			ids.add(c.findVertIdAsync("async_" + i));
+		}
+		for(int i=0; i<10; i++){
+			assertNotNull(ids.get(i).get());
+		}
+		assertNull(ids.get(10).get());
+		assertNull(ids.get(11).get());
+
+		String id0 = ids.get(0).get();
+		String id1 = ids.get(1).get();
+		Future<Map<String, Object>> vert = c.findVertAsync("async_2");
+		Future<Map<String, Object>> vertByID = c.getVertByIDAsync(id0);
+		Future<Integer> edgeCount = c.getEdgeCountAsync(id1, id0, "sameAs");
+		assertEquals("software", ((Map<String, Object>)vert.get().get("_properties")).get("vertexType"));
+		assertEquals("async_0", vertByID.get().get("name"));
+		assertEquals(1, (int)edgeCount.get());
+		assertTrue(c.executeAsync("g.V").get());
+
+		c.removeAllVertices();
+	}
+
+	/**
+	 * Tests server side counts
+	 * @throws IOException 
+	 * @throws RexProException 
+	 * @throws JSONException 
+	 */
+	public void testCounts() throws JSONException, RexProException, IOException
+	{
+		DBConnection c = null;
+		try{
+			RexsterClient client = DBConnection.createClient(DBConnection.getTestConfig(), WAIT_TIME);
+			c = new DBConnection( client );
+			c.createIndices();
+		}catch(Exception e){
+			e.printStackTrace(); //TODO
+		} //the possible NPE below is fine, don't care if test errors.
+
+		c.removeAllVertices();
+
+		for(int i=0; i<8; i++){
+			String type = (i < 2) ? "IP" : "port";
+			String source = (i == 0) ? "[\"A\",\"B\"]" : "[\"A\"]";
+			c.addVertexFromJSON(new JSONObject("{\"_id\":\"count_" + i + "\",\"vertexType\":\"" + type + "\",\"source\":" + source + "}"));
+		}
+		for(int i=2; i<8; i++){
+			c.addEdgeFromJSON(new JSONObject("{\"_id\":\"count_edge_" + i + "\",\"_outV\":\"count_" + (i % 2) + "\",\"_inV\":\"count_" + i + "\",\"_label\":\"hasPort\"}"));
+		}
+
+		assertEquals(8, c.countVertsWithProps(null));
+		List<Constraint> constraints = new ArrayList<Constraint>();
+		constraints.add(new Constraint("vertexType", Condition.eq, "IP"));
+		assertEquals(2, c.countVertsWithProps(constraints));
+
+		Map<String, Long> byType = c.countVertsByType();
+		assertEquals(2, byType.size());
+		assertEquals(2, (long)byType.get("IP"));
+		assertEquals(6, (long)byType.get("port"));
+
+		Map<String, Long> bySource = c.countVertsBySource();
+		assertEquals(8, (long)bySource.get("A"));
+		assertEquals(1, (long)bySource.get("B"));
+
+		Map<Long, Long> outDegrees = c.getDegreeHistogram("hasPort", true, constraints);
+		assertEquals(1, outDegrees.size());
+		assertEquals(2, (long)outDegrees.get(3L));
+		Map<Long, Long> inDegrees = c.getDegreeHistogram("hasPort", false, null);
+		assertEquals(2, (long)inDegrees.get(0L));
+		assertEquals(6, (long)inDegrees.get(1L));
+
+		c.removeAllVertices();
+	}
+
+	/**
+	 * Tests projected vertex queries
 	 * @throws IOException 
 	 * @throws RexProException 
+	 * @throws JSONException 
+	 */
+	public void testProjection() throws JSONException, RexProException, IOException
+	{
+		DBConnection c = null;
+		try{
+			RexsterClient client = DBConnection.createClient(DBConnection.getTestConfig(), WAIT_TIME);
+			c = new DBConnection( client );
+			c.createIndices();
+		}catch(Exception e){
+			e.printStackTrace(); //TODO
+		} //the possible NPE below is fine, don't care if test errors.
+
+		c.removeAllVertices();
+
+		for(int i=0; i<5; i++){
+			c.addVertexFromJSON(new JSONObject("{\"_id\":\"proj_" + i + "\",\"vertexType\":\"software\",\"description\":\"some long text\"}"));
+		}
+
+		Map<String, Object> vert = c.findVert("proj_1", Projection.ID_AND_TYPE);
+		assertEquals(2, vert.size());
+		assertEquals("software", vert.get("vertexType"));
+		String id = vert.get("_id").toString();
+		assertEquals(c.findVertId("proj_1"), id);
+
+		vert = c.findVert("proj_1", Projection.ID_ONLY);
+		assertEquals(1, vert.size());
+		assertNull(c.findVert("proj_missing", Projection.ID_ONLY));
+
+		vert = c.getVertByID(id, Projection.keys("name", "notAProperty"));
+		assertEquals(2, vert.size());
+		assertEquals("proj_1", vert.get("name"));
+
+		List<Constraint> constraints = new ArrayList<Constraint>();
+		constraints.add(new Constraint("vertexType", Condition.eq, "software"));
+		List<Map<String, Object>> verts = c.findAllVertsWithProps(constraints, Projection.keys("name"));
+		assertEquals(5, verts.size());
+		for(Map<String, Object> v : verts){
+			assertEquals(2, v.size());
+			assertTrue(((String)v.get("name")).startsWith("proj_"));
+		}
+
+		c.removeAllVertices();
+	}
+
+	/**
+	 * Tests updating vertex properties
+	 * @throws IOException
+	 * @throws RexProException 
 	 */
 
 	public void testUpdate() throws RexProException, IOException
@@ -277,6 +597,217 @@ extends TestCase
 		//DBConnection.closeClient(this.client); //can close now, instead of waiting for finalize() to do it
 	}
 
+	/**
+	 * Tests atomic and non-atomic updateVert when one property can't be set
+	 * @throws IOException
+	 * @throws RexProException 
+	 */
+	public void testUpdateAtomic() throws RexProException, IOException
+	{
+		DBConnection c = null;
+		try{
+			RexsterClient client = DBConnection.createClient(DBConnection.getTestConfig(), WAIT_TIME);
+			List names = client.execute("mgmt = g.getManagementSystem();mgmt.getPropertyKey(\"intProp\");");
+			if(names.get(0) == null){
+				client.execute("mgmt = g.getManagementSystem();"
+					+ "name = mgmt.makePropertyKey(\"intProp\").dataType(Integer.class).make();"
+					+ "mgmt.commit();g;");
+			}
+			c = new DBConnection( client );
+			c.createIndices();
+		}catch(Exception e){
+			e.printStackTrace(); //TODO
+		} //the possible NPE below is fine, don't care if test errors.
+
+		c.removeAllVertices();
+
+		c.addVertexFromJSON(new JSONObject("{\"_id\":\"testvert_atomic\",\"vertexType\":\"software\",\"startIPInt\":1}"));
+		String id = c.findVertId("testvert_atomic");
+
+		Map<String, Object> newProps = new HashMap<String, Object>();
+		newProps.put("startIPInt", 2);
+		newProps.put("intProp", "not an int");
+		try{
+			c.updateVert(id, newProps, true);
+			fail("expected RexProException");
+		}catch(RexProException e){
+			//expected
+		}
+		assertEquals("1", c.getVertByID(id).get("startIPInt").toString());
+
+		assertFalse(c.updateVert(id, newProps, false));
+		assertEquals("2", c.getVertByID(id).get("startIPInt").toString());
+
+		c.removeAllVertices();
+	}
+
+	/**
+	 * Tests removing vertices in chunks, by id, by constraint and in parallel
+	 * @throws IOException 
+	 * @throws RexProException 
+	 * @throws JSONException 
+	 */
+	public void testRemoveVerts() throws JSONException, RexProException, IOException
+	{
+		DBConnection c = null;
+		try{
+			RexsterClient client = DBConnection.createClient(DBConnection.getTestConfig(), WAIT_TIME);
+			c = new DBConnection( client );
+			c.createIndices();
+		}catch(Exception e){
+			e.printStackTrace(); //TODO
+		} //the possible NPE below is fine, don't care if test errors.
+
+		c.removeAllVertices();
+
+		for(int i=0; i<20; i++){
+			String type = (i % 2 == 0) ? "flow" : "IP";
+			c.addVertexFromJSON(new JSONObject("{\"_id\":\"remove_" + i + "\",\"vertexType\":\"" + type + "\"}"));
+		}
+		String id0 = c.findVertId("remove_0");
+		String id1 = c.findVertId("remove_1");
+		assertEquals(Arrays.asList("remove_0", "remove_1"), c.removeVertsByIds(Arrays.asList(id0, id1)));
+		assertNull(c.getVertIDCache().get("remove_0"));
+		assertNull(c.findVertId("remove_1"));
+		assertEquals(0, c.removeVertsByIds(Arrays.asList(id0)).size());
+
+		List<Constraint> constraints = new ArrayList<Constraint>();
+		constraints.add(new Constraint("vertexType", Condition.eq, "flow"));
+		List<String> flowIds = c.findVertIdsWithProps(constraints, null, null, 3);
+		assertEquals(3, flowIds.size());
+		assertEquals(3, c.removeVertsByIds(flowIds).size());
+		assertEquals(6, c.countVertsWithProps(constraints));
+		try{
+			c.findVertIdsWithProps(null, 0L, 100L, 3);
+			fail("expected IllegalArgumentException");
+		}catch(IllegalArgumentException e){
+			//expected, an id range alone would be a scan
+		}
+
+		List<DBConnection> connections = new ArrayList<DBConnection>();
+		connections.add(c);
+		connections.add(c);
+		VertexDeleter deleter = new VertexDeleter(connections);
+		deleter.setChunkSize(2);
+		VertexDeleter.Progress progress = deleter.deleteWithProps(constraints);
+		assertEquals(6, progress.getVertsRemoved());
+		assertEquals(0, progress.getFailedChunkCount());
+		assertEquals(0, c.countVertsWithProps(constraints));
+		assertEquals(9, c.countVertsWithProps(null));
+
+		assertTrue(c.removeAllVertices());
+		assertEquals(0, c.countVertsWithProps(null));
+	}
+
+	/**
+	 * Tests grouping writes with begin() / commit() / rollback()
+	 * @throws IOException 
+	 * @throws RexProException 
+	 * @throws JSONException 
+	 */
+	public void testUnitOfWork() throws JSONException, RexProException, IOException
+	{
+		DBConnection c = null;
+		try{
+			RexsterClient client = DBConnection.createClient(DBConnection.getTestConfig(), WAIT_TIME);
+			c = new DBConnection( client );
+			c.createIndices();
+		}catch(Exception e){
+			e.printStackTrace(); //TODO
+		} //the possible NPE below is fine, don't care if test errors.
+
+		c.removeAllVertices();
+
+		c.addVertexFromJSON(new JSONObject("{\"_id\":\"uow_existing\",\"vertexType\":\"IP\"}"));
+		String id = c.findVertId("uow_existing");
+
+		c.begin();
+		assertTrue(c.inUnitOfWork());
+		for(int i=0; i<5; i++){
+			c.addVertexFromJSON(new JSONObject("{\"_id\":\"uow_" + i + "\",\"vertexType\":\"port\"}"));
+			c.addEdgeFromJSON(new JSONObject("{\"_id\":\"uow_edge_" + i + "\",\"_outV\":\"uow_existing\",\"_inV\":\"uow_" + i + "\",\"_label\":\"hasPort\"}"));
+		}
+		c.updateVertProperty(id, "startIPInt", 3);
+		assertNull(c.findVertId("uow_0")); //not sent yet
+		assertTrue(c.commit());
+		assertFalse(c.inUnitOfWork());
+		String id0 = c.findVertId("uow_0");
+		assertNotNull(id0);
+		assertEquals(id0, c.getVertIDCache().get("uow_0"));
+		assertEquals(1, c.getEdgeCount(id0, id, "hasPort"));
+		assertEquals("3", c.getVertByID(id).get("startIPInt").toString());
+
+		//a failed update rolls back the whole unit.
+		c.begin();
+		c.addVertexFromJSON(new JSONObject("{\"_id\":\"uow_failed\",\"vertexType\":\"port\"}"));
+		c.updateVertProperty("999999999", "startIPInt", 1);
+		try{
+			c.commit();
+			fail("expected RexProException");
+		}catch(RexProException e){
+			//expected
+		}
+		assertNull(c.findVertId("uow_failed"));
+
+		c.begin();
+		c.addVertexFromJSON(new JSONObject("{\"_id\":\"uow_rolled_back\",\"vertexType\":\"port\"}"));
+		c.rollback();
+		assertNull(c.findVertId("uow_rolled_back"));
+
+		c.removeAllVertices();
+	}
+
+	/**
+	 * Tests updating many vertices at once, directly and through a write buffer
+	 * @throws IOException 
+	 * @throws RexProException 
+	 * @throws JSONException 
+	 */
+	public void testUpdateVerts() throws JSONException, RexProException, IOException
+	{
+		DBConnection c = null;
+		try{
+			RexsterClient client = DBConnection.createClient(DBConnection.getTestConfig(), WAIT_TIME);
+			c = new DBConnection( client );
+			c.createIndices();
+		}catch(Exception e){
+			e.printStackTrace(); //TODO
+		} //the possible NPE below is fine, don't care if test errors.
+
+		c.removeAllVertices();
+
+		c.addVertexFromJSON(new JSONObject("{\"_id\":\"testvert_bulk_1\",\"vertexType\":\"IP\",\"source\":[\"A\"]}"));
+		c.addVertexFromJSON(new JSONObject("{\"_id\":\"testvert_bulk_2\",\"vertexType\":\"IP\",\"source\":[\"A\"]}"));
+		String id1 = c.findVertId("testvert_bulk_1");
+		String id2 = c.findVertId("testvert_bulk_2");
+
+		Map<String, Map<String, Object>> updates = new HashMap<String, Map<String, Object>>();
+		Map<String, Object> props = new HashMap<String, Object>();
+		props.put("startIPInt", 5);
+		updates.put(id1, props);
+		updates.put(id2, props);
+		updates.put("999999999", props);
+		List<String> failed = c.updateVerts(updates);
+		assertEquals(1, failed.size());
+		assertEquals("999999999", failed.get(0));
+		assertEquals("5", c.getVertByID(id1).get("startIPInt").toString());
+		assertEquals("5", c.getVertByID(id2).get("startIPInt").toString());
+
+		VertexWriteBuffer buffer = new VertexWriteBuffer(c);
+		for(int i=0; i<10; i++){
+			buffer.updateProperty(id1, "startIPInt", i);
+			buffer.updateProperty(id1, "source", (i % 2 == 0) ? "A" : "B");
+		}
+		assertEquals(1, buffer.getPendingCount());
+		assertEquals("5", c.getVertByID(id1).get("startIPInt").toString());
+		buffer.close();
+		assertEquals(1, buffer.getVertsWritten());
+		assertEquals("9", c.getVertByID(id1).get("startIPInt").toString());
+		assertEquals(new HashSet<String>(Arrays.asList("A", "B")), new HashSet<Object>((List)c.getVertByID(id1).get("source")));
+
+		c.removeAllVertices();
+	}
+
 	/**
 	 * creates a vertex of high reverse degree, and one of low degree, and searches for the edge(s) between them.
 	 * @throws IOException 
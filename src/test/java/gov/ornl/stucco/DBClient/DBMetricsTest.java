@@ -0,0 +1,123 @@
+package gov.ornl.stucco.DBClient;
+
+import java.util.Collections;
+
+import org.json.JSONObject;
+
+import com.tinkerpop.rexster.client.RexsterClient;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the operation metrics.
+ */
+public class DBMetricsTest
+extends TestCase
+{
+	/**
+	 * Tests that round trips are counted for the outermost operation on the thread.
+	 */
+	public void testOps() throws Exception
+	{
+		DBMetrics metrics = new DBMetrics();
+		DBMetrics.Op outer = metrics.start("findVert");
+		metrics.roundTrip();
+		DBMetrics.Op inner = metrics.start("findVertId");
+		assertSame(outer, inner);
+		metrics.roundTrip();
+		inner.stop();
+		metrics.roundTrip();
+		outer.stop();
+
+		DBMetrics.Op op = metrics.start("findVert");
+		op.stop();
+		metrics.roundTrip(); //outside any operation
+
+		DBMetrics.Snapshot snapshot = metrics.getSnapshot();
+		assertEquals(1, snapshot.getOps().size());
+		DBMetrics.OpStats stats = snapshot.getOp("findVert");
+		assertEquals(2, stats.getCount());
+		assertEquals(3, stats.getMaxRoundTrips());
+		assertEquals(1.5, stats.getMeanRoundTrips(), 0.0001);
+		assertTrue(stats.getP50Ms() <= stats.getP99Ms());
+		assertTrue(stats.getP99Ms() <= stats.getP999Ms());
+		assertEquals(4, snapshot.getRoundTrips());
+		assertNotNull(metrics.getRegistry().getTimers().get(metrics.getPrefix() + ".findVert.latency"));
+		assertNotNull(metrics.getRegistry().getHistograms().get(metrics.getPrefix() + ".findVert.roundTrips"));
+	}
+
+	/**
+	 * Tests that each public method of a connection is one operation, including the requests of the methods it calls.
+	 */
+	public void testConnectionOps() throws Exception
+	{
+		EmbeddedBackend backend = EmbeddedBackend.openTinkerGraph();
+		DBConnection c = new DBConnection(backend);
+		c.createIndices();
+		c.begin();
+		c.addVertexFromJSON(new JSONObject("{\"_id\":\"v1\",\"name\":\"v1\",\"vertexType\":\"IP\"}"));
+		assertTrue(c.commit());
+		c.updateVert(c.findVertId("v1"), Collections.<String, Object>singletonMap("startIPInt", 3));
+
+		DBMetrics.Snapshot snapshot = c.getMetrics().getSnapshot();
+		//the unit of work and its confirmation read-back
+		assertEquals(2, snapshot.getOp("commit").getMaxRoundTrips());
+		assertEquals(1, snapshot.getOp("updateVert").getCount());
+		assertEquals(1, snapshot.getOp("findVertId").getCount());
+		assertNull(snapshot.getOp("query"));
+		assertEquals(snapshot.getRoundTrips(), snapshot.getOp("createIndices").getMaxRoundTrips() + 2 +
+				snapshot.getOp("updateVert").getMaxRoundTrips() + snapshot.getOp("findVertId").getMaxRoundTrips());
+		backend.close();
+	}
+
+	/**
+	 * Tests the commit, confirmation and cache counts.
+	 */
+	public void testCounters() throws Exception
+	{
+		DBConnection c = new DBConnection((RexsterClient)null);
+		DBMetrics metrics = c.getMetrics();
+		metrics.commitRetried();
+		metrics.commitFailed();
+		metrics.confirmPolled();
+		metrics.confirmPolled();
+		metrics.confirmDone(2, true);
+		metrics.confirmPolled();
+		metrics.confirmDone(1, false);
+
+		c.getVertIDCache().put("a", "1");
+		c.getVertIDCache().get("a");
+		c.getVertIDCache().get("a");
+		c.getVertIDCache().get("b");
+		c.getVertIDCache().get("c");
+
+		DBMetrics.Snapshot snapshot = metrics.getSnapshot();
+		assertEquals(1, snapshot.getCommitRetries());
+		assertEquals(1, snapshot.getCommitFailures());
+		assertEquals(3, snapshot.getConfirmPolls());
+		assertEquals(2, snapshot.getConfirmedWrites());
+		assertEquals(1, snapshot.getConfirmFailures());
+		assertEquals(0.5, snapshot.getCacheHitRates().get("vertID"), 0.0001);
+		assertEquals(0.0, snapshot.getCacheHitRates().get("negativeLookup"), 0.0001);
+		assertTrue(snapshot.getCacheHitRates().containsKey("cardinality"));
+
+		//shared metrics count the caches of all their connections, and each connection has its own default prefix.
+		DBConnection other = new DBConnection((RexsterClient)null);
+		assertFalse(metrics.getPrefix().equals(other.getMetrics().getPrefix()));
+		other.getVertIDCache().put("d", "4");
+		other.getVertIDCache().get("d");
+		other.getVertIDCache().get("d");
+		other.getVertIDCache().get("d");
+		other.getVertIDCache().get("e");
+		other.setMetrics(metrics);
+		assertSame(metrics, other.getMetrics());
+		assertEquals(5.0 / 8, metrics.getSnapshot().getCacheHitRates().get("vertID"), 0.0001);
+		NegativeLookupCache negativeCache = new NegativeLookupCache();
+		c.setNegativeLookupCache(negativeCache);
+		other.setNegativeLookupCache(negativeCache);
+		negativeCache.putAbsent("x");
+		negativeCache.isKnownAbsent("x");
+		negativeCache.isKnownAbsent("y");
+		assertEquals(0.5, metrics.getSnapshot().getCacheHitRates().get("negativeLookup"), 0.0001);
+	}
+}
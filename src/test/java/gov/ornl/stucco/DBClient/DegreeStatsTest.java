@@ -0,0 +1,65 @@
+package gov.ornl.stucco.DBClient;
+
+import gov.ornl.stucco.DBClient.DegreeStats.Direction;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests picking edge directions from degree stats.
+ */
+public class DegreeStatsTest
+extends TestCase
+{
+	/**
+	 * Tests that unknown labels are probed until there are enough samples, then the cheaper side is used.
+	 */
+	public void testLearning()
+	{
+		DegreeStats stats = new DegreeStats();
+		assertEquals(Direction.PROBE, stats.choose("hasFlow"));
+		for(int i=0; i<10; i++){
+			stats.record("hasFlow", 500, 1);
+		}
+		assertEquals(Direction.IN, stats.choose("hasFlow"));
+
+		for(int i=0; i<10; i++){
+			stats.record("hasIP", 2, 1000);
+		}
+		assertEquals(Direction.OUT, stats.choose("hasIP"));
+
+		DegreeStats.LabelStats flowStats = stats.getLabelStats("hasFlow");
+		assertEquals(10, flowStats.getOutSamples());
+		assertEquals(DegreeStats.PROBE_CAP, flowStats.getAverageOutDegree(), 0.0001);
+		assertEquals(1.0, flowStats.getAverageInDegree(), 0.0001);
+		assertEquals(1, flowStats.getChoiceCount(Direction.PROBE));
+		assertEquals(1, flowStats.getChoiceCount(Direction.IN));
+		assertNull(stats.getLabelStats("unknown"));
+	}
+
+	/**
+	 * Tests seeding, similar and small degrees, and the periodic probes.
+	 */
+	public void testChoices()
+	{
+		DegreeStats stats = new DegreeStats();
+		stats.seed("hasFlow", 1000, 1);
+		stats.seed("similar", 40, 30);
+		stats.seed("small", 3, 2);
+		assertEquals(Direction.PROBE, stats.choose("similar"));
+		assertEquals(Direction.OUT, stats.choose("small"));
+
+		int probes = 0;
+		for(int i=0; i<320; i++){
+			if(stats.choose("hasFlow") == Direction.PROBE)
+				probes++;
+		}
+		assertEquals(10, probes);
+		assertEquals(310, stats.getLabelStats("hasFlow").getChoiceCount(Direction.IN));
+
+		//if the data changes, the stats follow it.
+		for(int i=0; i<100; i++){
+			stats.record("hasFlow", 1, 1000);
+		}
+		assertEquals(Direction.OUT, stats.choose("hasFlow"));
+	}
+}
@@ -0,0 +1,104 @@
+package gov.ornl.stucco.DBClient;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+import com.tinkerpop.rexster.client.RexProException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the embedded graph backend.
+ */
+public class EmbeddedBackendTest
+extends TestCase
+{
+	/**
+	 * Tests that results have the same types that RexPro sends.
+	 */
+	public void testResults() throws Exception
+	{
+		EmbeddedBackend backend = EmbeddedBackend.openTinkerGraph();
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("NAME", "v1");
+		List<Map<String, Object>> verts = backend.execute("g.addVertex(null, [name:NAME, count:3]);g.V", params);
+		assertEquals(1, verts.size());
+		assertEquals("vertex", verts.get(0).get("_type"));
+		assertNotNull(verts.get(0).get("_id"));
+		Map<?, ?> props = (Map<?, ?>)verts.get(0).get("_properties");
+		assertEquals("v1", props.get("name"));
+		assertEquals(3L, props.get("count"));
+
+		List<Object> ret = backend.execute("[1, 'a'] as Object[]", null);
+		assertEquals(2, ret.size());
+		assertEquals(1L, ret.get(0));
+		ret = backend.execute("g.V.name.groupCount().cap.next()", null);
+		assertEquals(1L, ((Map<?, ?>)ret.get(0)).get("v1"));
+		assertEquals(3, backend.getRequestCount());
+
+		try{
+			backend.execute("g.v(NAME).foo()", params);
+			fail();
+		}catch(RexProException e){
+			assertNotNull(e.getCause());
+		}
+		backend.close();
+	}
+
+	/**
+	 * Tests a DBConnection running on a TinkerGraph.
+	 */
+	public void testConnection() throws Exception
+	{
+		EmbeddedBackend backend = EmbeddedBackend.openTinkerGraph();
+		DBConnection c = new DBConnection(backend);
+		assertSame(backend, c.getBackend());
+		assertNull(c.getClient());
+		assertNull(c.getPool());
+		c.createIndices();
+
+		assertTrue(c.addVertexFromJSON(new JSONObject("{\"_id\":\"v1\",\"name\":\"v1\",\"vertexType\":\"IP\"}")));
+		assertTrue(c.addVertexFromJSON(new JSONObject("{\"_id\":\"v2\",\"name\":\"v2\",\"vertexType\":\"port\"}")));
+		assertTrue(c.addEdgeFromJSON(new JSONObject("{\"_id\":\"v1_to_v2\",\"_outV\":\"v1\",\"_inV\":\"v2\",\"_label\":\"hasPort\"}")));
+		String id1 = c.findVertId("v1");
+		String id2 = c.findVertId("v2");
+		assertNotNull(id1);
+		assertEquals("IP", c.getVertByID(id1).get("vertexType"));
+		assertEquals(1, c.getEdgeCount(id2, id1, "hasPort"));
+		assertEquals(2, c.countVertsWithProps(null));
+
+		//connections can share a backend.
+		DBConnection other = new DBConnection(backend);
+		assertEquals(id2, other.findVertId("v2"));
+		assertTrue(other.removeAllVertices());
+		assertEquals(0, c.countVertsWithProps(null));
+		backend.close();
+	}
+
+	/**
+	 * Tests that each script is committed, or rolled back if it fails, on in-memory Titan.
+	 */
+	public void testTransactions() throws Exception
+	{
+		EmbeddedBackend backend = EmbeddedBackend.openInMemoryTitan();
+		DBConnection c = new DBConnection(backend);
+		c.createIndices();
+		assertTrue(c.addVertexFromJSON(new JSONObject("{\"_id\":\"v1\",\"name\":\"v1\",\"vertexType\":\"IP\"}")));
+		try{
+			c.execute("g.addVertex(null, [name:'v2', vertexType:'IP']);throw new IllegalStateException('failed')");
+			fail();
+		}catch(RexProException e){
+			assertTrue(e.getMessage().contains("failed"));
+		}
+		assertNull(c.findVertId("v2"));
+		assertNotNull(c.findVertId("v1"));
+
+		//Titan classes are imported, like on the server.
+		List<Object> ret = backend.execute("Cardinality.SET", null);
+		assertEquals("SET", ret.get(0));
+		backend.close();
+	}
+}
@@ -0,0 +1,142 @@
+package gov.ornl.stucco.DBClient;
+
+import gov.ornl.stucco.DBClient.DBConnection.EdgeAddResult;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the streaming GraphSON loader.
+ */
+public class GraphSONLoaderTest
+extends TestCase
+{
+	//records what was sent, in order, with "V" or "E" batch markers.
+	private static class RecordingSink implements GraphSONLoader.Sink{
+		final List<String> batches = new ArrayList<String>();
+		final Map<String, Map<String, Object>> verts = new HashMap<String, Map<String, Object>>();
+		final List<Map<String, Object>> edges = new ArrayList<Map<String, Object>>();
+
+		public int addVertices(List<Map<String, Object>> batch){
+			batches.add("V" + batch.size());
+			for(Map<String, Object> vert : batch){
+				verts.put((String)vert.get("_id"), new HashMap<String, Object>(vert));
+			}
+			return batch.size();
+		}
+
+		public List<EdgeAddResult> addEdges(List<Map<String, Object>> batch){
+			batches.add("E" + batch.size());
+			List<EdgeAddResult> results = new ArrayList<EdgeAddResult>();
+			for(Map<String, Object> edge : batch){
+				edges.add(new HashMap<String, Object>(edge));
+				results.add(verts.containsKey(edge.get("_outV")) && verts.containsKey(edge.get("_inV")) ? EdgeAddResult.ADDED : EdgeAddResult.MISSING_ENDPOINT);
+			}
+			return results;
+		}
+	}
+
+	private static String graphson(int vertCount, boolean edgesFirst){
+		StringBuilder verts = new StringBuilder("\"vertices\":[");
+		for(int i=0; i<vertCount; i++){
+			if(i > 0)
+				verts.append(",");
+			verts.append("{\"_id\":\"v" + i + "\",\"_type\":\"vertex\",\"vertexType\":\"IP\",\"score\":" + i + ",\"source\":[\"A\",\"B\"]}");
+		}
+		verts.append("]");
+		StringBuilder edges = new StringBuilder("\"edges\":[");
+		for(int i=1; i<vertCount; i++){
+			if(i > 1)
+				edges.append(",");
+			edges.append("{\"_id\":\"e" + i + "\",\"_type\":\"edge\",\"_outV\":\"v0\",\"_inV\":\"v" + i + "\",\"_label\":\"hasIP\"}");
+		}
+		edges.append("]");
+		if(edgesFirst)
+			return "{\"mode\":\"NORMAL\"," + edges + "," + verts + "}";
+		return "{\"mode\":\"NORMAL\"," + verts + "," + edges + "}";
+	}
+
+	/**
+	 * Tests that vertices are sent in batches, then edges, with the properties converted like jsonVertToMap().
+	 */
+	public void testLoad() throws Exception
+	{
+		RecordingSink sink = new RecordingSink();
+		GraphSONLoader loader = new GraphSONLoader(sink);
+		loader.setBatchSize(4);
+		final List<Long> reported = new ArrayList<Long>();
+		loader.setProgressInterval(5);
+		loader.setProgressListener(new GraphSONLoader.ProgressListener(){
+			public void progress(GraphSONLoader.Progress progress){
+				reported.add(progress.getVertsRead() + progress.getEdgesRead());
+			}
+		});
+		byte[] doc = graphson(10, false).getBytes("UTF-8");
+		GraphSONLoader.Progress progress = loader.load(new ByteArrayInputStream(doc), doc.length);
+
+		assertEquals("[V4, V4, V2, E4, E4, E1]", sink.batches.toString());
+		assertEquals(10, progress.getVertsRead());
+		assertEquals(10, progress.getVertsAdded());
+		assertEquals(9, progress.getEdgesRead());
+		assertEquals(9, progress.getEdgeCount(EdgeAddResult.ADDED));
+		assertEquals(doc.length, progress.getBytesRead());
+		assertEquals(100.0, progress.getPercentDone(), 0.0001);
+		assertEquals(GraphSONLoader.Phase.DONE, progress.getPhase());
+		assertEquals("[8, 10, 18, 19]", reported.toString());
+
+		Map<String, Object> vert = sink.verts.get("v3");
+		assertFalse(vert.containsKey("_type"));
+		assertEquals("IP", vert.get("vertexType"));
+		assertEquals(3, vert.get("score"));
+		assertEquals("[A, B]", vert.get("source").toString());
+		assertEquals("v5", sink.edges.get(4).get("_inV"));
+	}
+
+	/**
+	 * Tests that edges before the vertices are held until the vertices are added, and EXTENDED mode values.
+	 */
+	public void testEdgesFirst() throws Exception
+	{
+		RecordingSink sink = new RecordingSink();
+		GraphSONLoader loader = new GraphSONLoader(sink);
+		loader.setBatchSize(100);
+		GraphSONLoader.Progress progress = loader.load(new ByteArrayInputStream(graphson(5, true).getBytes("UTF-8")));
+		assertEquals("[V5, E4]", sink.batches.toString());
+		assertEquals(4, progress.getEdgeCount(EdgeAddResult.ADDED));
+		assertEquals("hasIP", sink.edges.get(0).get("_label"));
+		assertEquals(-1, progress.getPercentDone(), 0.0001);
+
+		sink = new RecordingSink();
+		loader = new GraphSONLoader(sink);
+		loader.load(new ByteArrayInputStream(("{\"mode\":\"EXTENDED\",\"vertices\":[{\"_id\":\"x\",\"_type\":\"vertex\","
+				+ "\"vertexType\":{\"type\":\"string\",\"value\":\"software\"},\"size\":{\"type\":\"long\",\"value\":12}}]}").getBytes("UTF-8")));
+		assertEquals("software", sink.verts.get("x").get("vertexType"));
+		assertEquals(12, sink.verts.get("x").get("size"));
+	}
+
+	/**
+	 * Tests that bad documents are reported as IOExceptions.
+	 */
+	public void testBadDocument() throws Exception
+	{
+		GraphSONLoader loader = new GraphSONLoader(new RecordingSink());
+		try{
+			loader.load(new ByteArrayInputStream("[1, 2]".getBytes("UTF-8")));
+			fail("expected IOException");
+		}catch(IOException e){
+			//expected
+		}
+		try{
+			loader.load(new ByteArrayInputStream("{\"vertices\":[{\"_id\":\"a\"},".getBytes("UTF-8")));
+			fail("expected IOException");
+		}catch(IOException e){
+			//expected
+		}
+	}
+}
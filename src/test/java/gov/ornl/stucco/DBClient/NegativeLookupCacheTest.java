@@ -0,0 +1,91 @@
+package gov.ornl.stucco.DBClient;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the cache of names known to be absent.
+ */
+public class NegativeLookupCacheTest
+extends TestCase
+{
+	/**
+	 * Tests adding, invalidating, and the counters.
+	 */
+	public void testPutInvalidate()
+	{
+		NegativeLookupCache cache = new NegativeLookupCache(60000, 100);
+		assertFalse(cache.isKnownAbsent("a"));
+		cache.putAbsent("a");
+		cache.putAbsent("b");
+		assertTrue(cache.isKnownAbsent("a"));
+		assertTrue(cache.isKnownAbsent("b"));
+
+		cache.invalidate("a");
+		assertFalse(cache.isKnownAbsent("a"));
+		assertTrue(cache.isKnownAbsent("b"));
+
+		assertEquals(3, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+		assertEquals(1, cache.getInvalidationCount());
+	}
+
+	/**
+	 * Tests that entries expire after the TTL.
+	 */
+	public void testExpiry() throws InterruptedException
+	{
+		NegativeLookupCache cache = new NegativeLookupCache(50, 100);
+		cache.putAbsent("a");
+		assertTrue(cache.isKnownAbsent("a"));
+		Thread.sleep(100);
+		assertFalse(cache.isKnownAbsent("a"));
+		assertEquals(0, cache.size());
+	}
+
+	/**
+	 * Tests that the size limit drops the oldest names first, and that re-added names are kept.
+	 */
+	public void testCapacity()
+	{
+		NegativeLookupCache cache = new NegativeLookupCache(60000, 10);
+		for(int i=0; i<100; i++){
+			cache.putAbsent("name_" + i);
+			cache.putAbsent("again");
+			assertTrue(cache.size() <= 10);
+		}
+		assertTrue(cache.isKnownAbsent("name_99"));
+		assertTrue(cache.isKnownAbsent("again"));
+		assertFalse(cache.isKnownAbsent("name_0"));
+	}
+
+	/**
+	 * Tests that a name missed by one connection is found once another connection creates it, with no cache (the
+	 * default) and with one cache shared by both.
+	 */
+	public void testTwoConnections() throws Exception
+	{
+		EmbeddedBackend backend = EmbeddedBackend.openTinkerGraph();
+		DBConnection c = new DBConnection(backend);
+		DBConnection c2 = new DBConnection(backend);
+		assertNull(c.getNegativeLookupCache());
+		c.createIndices();
+		Map<String, Object> vert = new HashMap<String, Object>();
+		vert.put("name", "late");
+		vert.put("vertexType", "IP");
+		assertNull(c2.findVertId("late"));
+		assertTrue(c.addVertexFromMap(vert));
+		assertNotNull(c2.findVertId("late"));
+
+		NegativeLookupCache shared = new NegativeLookupCache(60000, 100);
+		c.setNegativeLookupCache(shared);
+		c2.setNegativeLookupCache(shared);
+		vert.put("name", "later");
+		assertNull(c2.findVertId("later"));
+		assertTrue(c.addVertexFromMap(vert));
+		assertNotNull(c2.findVertId("later"));
+		backend.close();
+	}
+}
@@ -0,0 +1,109 @@
+package gov.ornl.stucco.DBClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the paged vertex iterator.
+ */
+public class PagedVertexIteratorTest
+extends TestCase
+{
+	private static class NumberSource implements PagedVertexIterator.PageSource{
+		final int total;
+		final AtomicInteger fetches = new AtomicInteger(0);
+
+		NumberSource(int total){
+			this.total = total;
+		}
+
+		public List<Map<String, Object>> fetch(int start, int size) throws IOException{
+			fetches.incrementAndGet();
+			if(start < 0)
+				throw new IOException("bad start");
+			List<Map<String, Object>> page = new ArrayList<Map<String, Object>>();
+			for(int i=start; i<Math.min(start + size, total); i++){
+				Map<String, Object> vert = new HashMap<String, Object>();
+				vert.put("_id", i);
+				page.add(vert);
+			}
+			return page;
+		}
+	}
+
+	/**
+	 * Tests that all results come back in order, one page at a time.
+	 */
+	public void testAllPages()
+	{
+		AsyncQueryWindow window = new AsyncQueryWindow();
+		NumberSource source = new NumberSource(250);
+		PagedVertexIterator it = new PagedVertexIterator(source, 100, window);
+		int count = 0;
+		while(it.hasNext()){
+			assertEquals(count, it.next().get("_id"));
+			count++;
+		}
+		assertEquals(250, count);
+		assertEquals(3, it.getPageCount());
+		assertEquals(3, source.fetches.get());
+
+		//when the last page is full, one more (empty) page is needed to find the end.
+		source = new NumberSource(200);
+		it = new PagedVertexIterator(source, 100, window);
+		count = 0;
+		while(it.hasNext()){
+			it.next();
+			count++;
+		}
+		assertEquals(200, count);
+		assertEquals(3, source.fetches.get());
+		assertFalse(new PagedVertexIterator(new NumberSource(0), 100, window).hasNext());
+		window.shutdown();
+	}
+
+	/**
+	 * Tests that close() stops without fetching the rest.
+	 */
+	public void testClose() throws Exception
+	{
+		AsyncQueryWindow window = new AsyncQueryWindow();
+		NumberSource source = new NumberSource(10000);
+		PagedVertexIterator it = new PagedVertexIterator(source, 100, window);
+		for(int i=0; i<150; i++){
+			it.next();
+		}
+		it.close();
+		assertFalse(it.hasNext());
+		Thread.sleep(50);
+		assertTrue(source.fetches.get() <= 3);
+		window.shutdown();
+	}
+
+	/**
+	 * Tests that errors from the source are thrown to the caller.
+	 */
+	public void testError()
+	{
+		AsyncQueryWindow window = new AsyncQueryWindow();
+		PagedVertexIterator it = new PagedVertexIterator(new PagedVertexIterator.PageSource(){
+			public List<Map<String, Object>> fetch(int start, int size) throws IOException{
+				throw new IOException("no connection");
+			}
+		}, 100, window);
+		try{
+			it.hasNext();
+			fail("expected IllegalStateException");
+		}catch(IllegalStateException e){
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		assertFalse(it.hasNext());
+		window.shutdown();
+	}
+}
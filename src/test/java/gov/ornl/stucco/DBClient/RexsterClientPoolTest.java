@@ -0,0 +1,99 @@
+package gov.ornl.stucco.DBClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.configuration.Configuration;
+
+import com.tinkerpop.rexster.client.RexsterClient;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the client pool.
+ */
+public class RexsterClientPoolTest
+extends TestCase
+{
+	private List<RexsterClient> unconnectedClients(int count){
+		Configuration config = DBConnection.getDefaultConfig();
+		List<RexsterClient> clients = new ArrayList<RexsterClient>();
+		for(int i=0; i<count; i++){
+			clients.add(new RexsterClient(config, null){});
+		}
+		return clients;
+	}
+
+	/**
+	 * Tests borrowing and releasing, and the counters.
+	 */
+	public void testBorrowRelease() throws IOException
+	{
+		RexsterClientPool pool = new RexsterClientPool(unconnectedClients(2));
+		RexsterClient c1 = pool.borrow();
+		RexsterClient c2 = pool.borrow();
+		assertNotSame(c1, c2);
+		assertEquals(2, pool.getInUse());
+		pool.release(c1);
+		assertSame(c1, pool.borrow());
+		pool.release(c1);
+		pool.release(c2);
+		assertEquals(0, pool.getInUse());
+		assertEquals(2, pool.getPeakInUse());
+		assertEquals(3, pool.getBorrowCount());
+		assertTrue(pool.getUtilization() > 0.0);
+	}
+
+	/**
+	 * Tests that borrowing from an empty pool times out.
+	 */
+	public void testTimeout() throws IOException
+	{
+		RexsterClientPool pool = new RexsterClientPool(unconnectedClients(1), 50);
+		RexsterClient c = pool.borrow();
+		try{
+			pool.borrow();
+			fail("expected timeout");
+		}catch(IOException e){
+			//expected
+		}
+		pool.release(c);
+		assertSame(c, pool.borrow());
+	}
+
+	/**
+	 * Tests that a session keeps the same client for the thread.
+	 */
+	public void testSession() throws IOException
+	{
+		RexsterClientPool pool = new RexsterClientPool(unconnectedClients(2));
+		pool.beginSession();
+		RexsterClient c = pool.borrow();
+		pool.release(c);
+		pool.beginSession();
+		assertSame(c, pool.borrow());
+		pool.release(c);
+		pool.endSession();
+		assertEquals(1, pool.getInUse());
+		pool.endSession();
+		assertEquals(0, pool.getInUse());
+	}
+
+	/**
+	 * Tests that a connection on the pool makes its async window from the pool's settings.
+	 */
+	public void testConfig() throws IOException
+	{
+		Configuration config = DBConnection.getTestConfig();
+		RexsterClientPool pool = new RexsterClientPool(unconnectedClients(1), 50, config);
+		DBConnection c = new DBConnection(pool);
+		assertSame(config, c.getConfig());
+		assertEquals(4000, c.getAsyncWindow().getTimeoutMs());
+		assertEquals(512000, c.getAsyncWindow().getMaxQueuedBytes());
+
+		c = new DBConnection(new RexsterClientPool(unconnectedClients(1)));
+		assertNull(c.getConfig());
+		assertEquals(16000, c.getAsyncWindow().getTimeoutMs());
+	}
+}
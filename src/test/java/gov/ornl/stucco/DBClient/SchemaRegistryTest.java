@@ -0,0 +1,90 @@
+package gov.ornl.stucco.DBClient;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the schema registry.
+ */
+public class SchemaRegistryTest
+extends TestCase
+{
+	private static class CountingLoader implements SchemaRegistry.Loader{
+		Map<String, String> schema = new HashMap<String, String>();
+		int loads = 0;
+
+		public Map<String, String> loadCardinalities(){
+			loads++;
+			return new HashMap<String, String>(schema);
+		}
+	}
+
+	/**
+	 * Tests that the whole schema is loaded once, and then read from memory.
+	 */
+	public void testLoadOnce() throws Exception
+	{
+		CountingLoader loader = new CountingLoader();
+		loader.schema.put("name", "SINGLE");
+		loader.schema.put("aliases", "SET");
+		SchemaRegistry registry = new SchemaRegistry(60000);
+		assertFalse(registry.isLoaded());
+		for(int i=0; i<10; i++){
+			assertEquals("SINGLE", registry.getCardinality("name", loader));
+			assertEquals("SET", registry.getCardinality("aliases", loader));
+		}
+		assertEquals(1, loader.loads);
+		assertEquals(2, registry.getCardinalities().size());
+	}
+
+	/**
+	 * Tests that unknown keys cause a reload, but only once per key per interval.
+	 */
+	public void testUnknownKeys() throws Exception
+	{
+		CountingLoader loader = new CountingLoader();
+		SchemaRegistry registry = new SchemaRegistry(100);
+		assertNull(registry.getCardinality("newKey", loader));
+		assertEquals(1, loader.loads);
+
+		loader.schema.put("newKey", "LIST");
+		assertNull(registry.getCardinality("newKey", loader));
+		assertEquals(1, loader.loads);
+
+		Thread.sleep(150);
+		assertEquals("LIST", registry.getCardinality("newKey", loader));
+		assertEquals(2, loader.loads);
+
+		//a different key is checked right away, and the reload also finds keys added since.
+		loader.schema.put("otherKey", "SET");
+		loader.schema.put("thirdKey", "SET");
+		assertEquals("SET", registry.getCardinality("otherKey", loader));
+		assertEquals("SET", registry.getCardinality("thirdKey", loader));
+		assertEquals(3, loader.loads);
+		assertEquals(4, registry.getUnknownKeyCount());
+	}
+
+	/**
+	 * Tests put, refresh and invalidate.
+	 */
+	public void testRefresh() throws Exception
+	{
+		CountingLoader loader = new CountingLoader();
+		SchemaRegistry registry = new SchemaRegistry(60000);
+		registry.refresh(loader);
+		registry.put("added", "SINGLE");
+		assertEquals("SINGLE", registry.getCardinality("added", loader));
+		assertEquals(1, loader.loads);
+
+		loader.schema.put("other", "SET");
+		registry.refresh(loader);
+		assertEquals("SET", registry.getCardinality("other", loader));
+		assertEquals(2, loader.loads);
+
+		registry.invalidate();
+		registry.getCardinality("other", loader);
+		assertEquals(3, loader.loads);
+	}
+}
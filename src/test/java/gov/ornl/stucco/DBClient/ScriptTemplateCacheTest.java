@@ -0,0 +1,71 @@
+package gov.ornl.stucco.DBClient;
+
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests script templates, and the cache of script stats.
+ */
+public class ScriptTemplateCacheTest
+extends TestCase
+{
+	/**
+	 * Tests binding template params by position.
+	 */
+	public void testBind()
+	{
+		ScriptTemplate template = new ScriptTemplate("test", "g.v(ID).getProperty(KEY)", "ID", "KEY");
+		Map<String, Object> params = template.bind(4L, "name");
+		assertEquals(2, params.size());
+		assertEquals(4L, params.get("ID"));
+		assertEquals("name", params.get("KEY"));
+		try{
+			template.bind(4L);
+			fail("expected IllegalArgumentException");
+		}catch(IllegalArgumentException e){
+			//expected
+		}
+	}
+
+	/**
+	 * Tests the per-script counters.
+	 */
+	public void testStats()
+	{
+		ScriptTemplateCache cache = new ScriptTemplateCache(10);
+		cache.record("findVert", "script1", 2000000, true);
+		cache.record("findVert", "script1", 4000000, false);
+		cache.record(null, "script2", 1000000, true);
+
+		ScriptTemplateCache.Stats stats = cache.getStats("script1");
+		assertEquals("findVert", stats.getTemplateName());
+		assertEquals(2, stats.getUses());
+		assertEquals(1, stats.getFailures());
+		assertEquals(3.0, stats.getAverageMs(), 0.0001);
+		assertEquals(4.0, stats.getMaxMs(), 0.0001);
+
+		List<ScriptTemplateCache.Stats> all = cache.getAllStats();
+		assertEquals(2, all.size());
+		assertEquals("script1", all.get(0).getScript());
+		assertNull(all.get(1).getTemplateName());
+	}
+
+	/**
+	 * Tests that the least recently used scripts are dropped.
+	 */
+	public void testCapacity()
+	{
+		ScriptTemplateCache cache = new ScriptTemplateCache(10);
+		for(int i=0; i<100; i++){
+			cache.record("hot", "hot script", 1000, true);
+			cache.record(null, "script" + i, 1000, true);
+		}
+		assertEquals(10, cache.size());
+		assertEquals(91, cache.getEvictionCount());
+		assertEquals(100, cache.getStats("hot script").getUses());
+		assertNull(cache.getStats("script0"));
+		assertNotNull(cache.getStats("script99"));
+	}
+}
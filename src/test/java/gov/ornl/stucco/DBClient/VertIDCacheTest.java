@@ -0,0 +1,112 @@
+package gov.ornl.stucco.DBClient;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the vertex ID cache.
+ */
+public class VertIDCacheTest
+extends TestCase
+{
+	/**
+	 * Tests basic put, get, remove and the counters.
+	 */
+	public void testPutGet()
+	{
+		VertIDCache cache = new VertIDCache(100);
+		assertNull(cache.get("a"));
+		cache.put("a", "1");
+		cache.put("b", "2");
+		assertEquals("1", cache.get("a"));
+		assertEquals("2", cache.get("b"));
+		assertEquals(2, cache.size());
+
+		cache.put("a", "3");
+		assertEquals("3", cache.get("a"));
+		assertEquals(2, cache.size());
+
+		cache.remove("a");
+		assertNull(cache.get("a"));
+		assertEquals(1, cache.size());
+
+		assertEquals(3, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+		assertEquals(0, cache.getEvictionCount());
+
+		cache.clear();
+		assertTrue(cache.isEmpty());
+	}
+
+	/**
+	 * Tests that the size limit is kept, and that names which were read again survive a stream of new names.
+	 */
+	public void testEviction()
+	{
+		VertIDCache cache = new VertIDCache(100, 1);
+		for(int i=0; i<50; i++){
+			cache.put("hot_" + i, Integer.toString(i));
+			cache.get("hot_" + i);
+		}
+		for(int i=0; i<1000; i++){
+			cache.put("cold_" + i, Integer.toString(i));
+			assertTrue(cache.size() <= 100);
+		}
+		assertEquals(100, cache.size());
+		assertEquals(950, cache.getEvictionCount());
+		for(int i=0; i<50; i++){
+			assertEquals(Integer.toString(i), cache.get("hot_" + i));
+		}
+		//most recent cold names are still there, the oldest ones are gone.
+		assertEquals("999", cache.get("cold_999"));
+		assertNull(cache.get("cold_0"));
+	}
+
+	/**
+	 * Tests that the total size limit holds when split over many segments.
+	 */
+	public void testSegments()
+	{
+		VertIDCache cache = new VertIDCache(37, 8);
+		for(int i=0; i<10000; i++){
+			cache.put("name_" + i, Integer.toString(i));
+		}
+		assertTrue(cache.size() <= 37);
+		assertEquals(cache.size(), cache.ids().size());
+		assertEquals(37, cache.getCapacity());
+	}
+
+	/**
+	 * Tests using one cache from several threads at once.
+	 */
+	public void testConcurrentAccess() throws InterruptedException
+	{
+		final VertIDCache cache = new VertIDCache(1000);
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int t=0; t<8; t++){
+			final int threadNum = t;
+			Thread thread = new Thread(){
+				public void run(){
+					for(int i=0; i<20000; i++){
+						String name = "name_" + ((i * 31 + threadNum) % 3000);
+						String id = cache.get(name);
+						if(id == null){
+							cache.put(name, name.substring(5));
+						}else{
+							assertEquals(name.substring(5), id);
+						}
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for(Thread thread : threads){
+			thread.join();
+		}
+		assertTrue(cache.size() <= 1000);
+		assertEquals(8 * 20000, cache.getHitCount() + cache.getMissCount());
+	}
+}
@@ -0,0 +1,200 @@
+package gov.ornl.stucco.DBClient;
+
+import gov.ornl.stucco.DBClient.Constraint.Condition;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the chunked vertex deleter.
+ */
+public class VertexDeleterTest
+extends TestCase
+{
+	//vertex types by id, with every 'spacing'th id used.  Given to the deleter once per worker.
+	private static class Store implements VertexDeleter.Target{
+		final Map<Long, String> types = new TreeMap<Long, String>();
+		final List<Integer> listed = Collections.synchronizedList(new ArrayList<Integer>()); //sizes of the listings
+		final List<Integer> removed = Collections.synchronizedList(new ArrayList<Integer>()); //sizes of the removing requests
+		final Set<String> failing = Collections.synchronizedSet(new HashSet<String>()); //chunks with these ids fail every time
+		final Set<String> failingOnce = Collections.synchronizedSet(new HashSet<String>()); //and these fail the first time
+
+		Store(int count, int spacing){
+			for(long i=0; i<count; i++){
+				types.put(i * spacing, (i % 2 == 0) ? "flow" : "IP");
+			}
+		}
+
+		public synchronized List<String> removeVertsByIds(Collection<String> ids) throws IOException{
+			for(String id : ids){
+				if(failing.contains(id) || failingOnce.remove(id))
+					throw new IOException("could not remove " + id);
+			}
+			List<String> names = new ArrayList<String>();
+			for(String id : ids){
+				if(types.remove(Long.parseLong(id)) != null)
+					names.add("n" + id);
+			}
+			removed.add(ids.size());
+			return names;
+		}
+
+		public synchronized List<String> removeVertsInIdRange(long minId, long maxId){
+			List<String> names = new ArrayList<String>();
+			for(long id=minId; id<=maxId; id++){
+				if(types.remove(id) != null)
+					names.add("n" + id);
+			}
+			removed.add((int)(maxId - minId + 1));
+			return names;
+		}
+
+		//only vertexType is indexed.
+		public synchronized List<String> findVertIdsWithProps(List<Constraint> constraints, Long minId, Long maxId, int limit){
+			if(constraints == null || !constraints.get(0).prop.equals("vertexType"))
+				throw new IllegalArgumentException("not indexed");
+			List<String> ids = new ArrayList<String>();
+			for(Map.Entry<Long, String> e : types.entrySet()){
+				if(ids.size() < limit && e.getValue().equals(constraints.get(0).val))
+					ids.add(e.getKey().toString());
+			}
+			listed.add(ids.size());
+			return ids;
+		}
+	}
+
+	private static VertexDeleter deleter(Store store, int workers){
+		List<VertexDeleter.Target> targets = new ArrayList<VertexDeleter.Target>();
+		for(int i=0; i<workers; i++){
+			targets.add(store);
+		}
+		return VertexDeleter.withTargets(targets);
+	}
+
+	private static List<Constraint> type(String vertexType){
+		List<Constraint> constraints = new ArrayList<Constraint>();
+		constraints.add(new Constraint("vertexType", Condition.eq, vertexType));
+		return constraints;
+	}
+
+	/**
+	 * Tests deleting by constraint, a page of listed ids at a time.
+	 */
+	public void testDeleteWithProps() throws Exception
+	{
+		Store store = new Store(1000, 1);
+		VertexDeleter deleter = deleter(store, 3);
+		deleter.setChunkSize(30);
+		final List<Long> reported = new ArrayList<Long>();
+		deleter.setProgressListener(new VertexDeleter.ProgressListener(){
+			public void progress(VertexDeleter.Progress progress){
+				reported.add(progress.getVertsRemoved());
+			}
+		});
+		VertexDeleter.Progress progress = deleter.deleteWithProps(type("flow"));
+
+		assertEquals(500, progress.getVertsRemoved());
+		assertEquals(500, store.types.size());
+		assertFalse(store.types.containsValue("flow"));
+		assertTrue(progress.isDone());
+		assertEquals(-1, progress.getPercentDone(), 0.0001);
+		//pages of 90 (30 per worker), until the short one.
+		assertEquals(Arrays.asList(90, 90, 90, 90, 90, 50), store.listed);
+		for(int size : store.removed){
+			assertTrue(size <= 30);
+		}
+		assertEquals(progress.getChunkCount() + 1, reported.size());
+		for(int i=1; i<reported.size(); i++){
+			assertTrue(reported.get(i) >= reported.get(i - 1));
+		}
+
+		try{
+			List<Constraint> constraints = new ArrayList<Constraint>();
+			constraints.add(new Constraint("startIPInt", Condition.gt, 5));
+			deleter.deleteWithProps(constraints);
+			fail("expected IllegalArgumentException");
+		}catch(IllegalArgumentException e){
+			//expected
+		}
+		assertEquals(500, store.types.size());
+	}
+
+	/**
+	 * Tests deleting by id range, in bounded sub-ranges.
+	 */
+	public void testDeleteByIdRange() throws Exception
+	{
+		Store store = new Store(100, 4);
+		VertexDeleter deleter = deleter(store, 2);
+		deleter.setIdRangeChunkSize(50);
+		VertexDeleter.Progress progress = deleter.deleteByIdRange(100, 299);
+
+		assertEquals(50, progress.getVertsRemoved());
+		assertEquals(4, progress.getChunkCount());
+		assertEquals(200, progress.getTotal());
+		assertEquals(100.0, progress.getPercentDone(), 0.0001);
+		assertEquals(Arrays.asList(50, 50, 50, 50), store.removed);
+		assertTrue(store.types.containsKey(96L));
+		assertFalse(store.types.containsKey(100L));
+		assertFalse(store.types.containsKey(296L));
+		assertTrue(store.types.containsKey(300L));
+
+		//with no constraints, both bounds are an id range sweep.
+		progress = deleter.deleteMatching(null, 0L, 99L);
+		assertEquals(25, progress.getVertsRemoved());
+		assertEquals(25, store.types.size());
+	}
+
+	/**
+	 * Tests deleting by ids, with retries, failed chunks and the percent done.
+	 */
+	public void testDeleteByIds() throws Exception
+	{
+		Store store = new Store(100, 1);
+		store.failingOnce.add("5");
+		store.failingOnce.add("25");
+		VertexDeleter deleter = deleter(store, 2);
+		deleter.setChunkSize(10);
+		List<String> ids = new ArrayList<String>();
+		for(int i=0; i<60; i++){
+			ids.add(String.valueOf(i));
+		}
+		ids.add("5000");
+		VertexDeleter.Progress progress = deleter.deleteByIds(ids);
+		assertEquals(60, progress.getVertsRemoved());
+		assertEquals(2, progress.getRetryCount());
+		assertEquals(0, progress.getFailedChunkCount());
+		assertEquals(61, progress.getTotal());
+		assertEquals(100.0, progress.getPercentDone(), 0.0001);
+		assertEquals(40, store.types.size());
+
+		store.failing.add("65");
+		deleter.setRetryLimit(1);
+		ids.clear();
+		for(int i=60; i<80; i++){
+			ids.add(String.valueOf(i));
+		}
+		progress = deleter.deleteByIds(ids);
+		assertEquals(10, progress.getVertsRemoved());
+		assertEquals(1, progress.getFailedChunkCount());
+		assertEquals(10, progress.getVertsFailed());
+		assertEquals(30, store.types.size());
+
+		//a sweep stops after the page with the failed chunk, instead of listing the same ids again.
+		deleter.setChunkSize(5);
+		progress = deleter.deleteWithProps(type("IP"));
+		assertEquals(1, progress.getFailedChunkCount());
+		assertEquals(1, store.listed.size());
+		assertEquals(5, progress.getVertsRemoved());
+	}
+}
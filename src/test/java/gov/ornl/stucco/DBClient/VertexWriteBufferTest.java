@@ -0,0 +1,153 @@
+package gov.ornl.stucco.DBClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests merging updates in the vertex write buffer.
+ */
+public class VertexWriteBufferTest
+extends TestCase
+{
+	private static class RecordingTarget implements VertexWriteBuffer.Target{
+		final List<Map<String, Map<String, Object>>> writes = new ArrayList<Map<String, Map<String, Object>>>();
+		boolean fail = false;
+		int failOnWrite = -1; //index of a write which throws
+
+		public Map<String, String> findCardinalities(Collection<String> keys){
+			Map<String, String> cardinalities = new HashMap<String, String>();
+			cardinalities.put("source", "SET");
+			cardinalities.put("seenAt", "LIST");
+			return cardinalities;
+		}
+
+		public List<String> updateVerts(Map<String, Map<String, Object>> updates) throws IOException{
+			if(fail || writes.size() == failOnWrite){
+				failOnWrite = -1;
+				throw new IOException("no connection");
+			}
+			writes.add(updates);
+			List<String> failed = new ArrayList<String>();
+			if(updates.containsKey("missing"))
+				failed.add("missing");
+			return failed;
+		}
+	}
+
+	private static Map<String, Object> props(Object... keysAndValues){
+		Map<String, Object> props = new HashMap<String, Object>();
+		for(int i=0; i<keysAndValues.length; i+=2){
+			props.put((String)keysAndValues[i], keysAndValues[i+1]);
+		}
+		return props;
+	}
+
+	/**
+	 * Tests that SINGLE keys keep the last value, and SET / LIST keys collect all values, in one write.
+	 */
+	public void testMerge() throws Exception
+	{
+		RecordingTarget target = new RecordingTarget();
+		VertexWriteBuffer buffer = new VertexWriteBuffer(target, 100, 60000);
+		buffer.update("1", props("score", 1, "source", "A", "seenAt", 10));
+		buffer.update("1", props("score", 2, "source", Arrays.asList("B", "A"), "seenAt", 10));
+		buffer.updateProperty("1", "score", 3);
+		buffer.updateProperty("2", "source", "C");
+		assertEquals(2, buffer.getPendingCount());
+		assertEquals(0, target.writes.size());
+
+		assertTrue(buffer.flush().isEmpty());
+		assertEquals(1, target.writes.size());
+		Map<String, Object> written = target.writes.get(0).get("1");
+		assertEquals(3, written.get("score"));
+		assertEquals(Arrays.asList("A", "B"), written.get("source"));
+		assertEquals(Arrays.asList(10, 10), written.get("seenAt"));
+		assertEquals(Arrays.asList("C"), target.writes.get(0).get("2").get("source"));
+		assertEquals(4, buffer.getUpdateCount());
+		assertEquals(2, buffer.getVertsWritten());
+		assertEquals(0, buffer.getPendingCount());
+		assertTrue(buffer.flush().isEmpty());
+		assertEquals(1, target.writes.size());
+	}
+
+	/**
+	 * Tests flushing on size and on age.
+	 */
+	public void testFlushTriggers() throws Exception
+	{
+		RecordingTarget target = new RecordingTarget();
+		VertexWriteBuffer buffer = new VertexWriteBuffer(target, 3, 60000);
+		buffer.updateProperty("1", "score", 1);
+		buffer.updateProperty("1", "score", 2);
+		buffer.updateProperty("2", "score", 1);
+		assertEquals(0, target.writes.size());
+		buffer.updateProperty("3", "score", 1);
+		assertEquals(1, target.writes.size());
+		assertEquals(3, target.writes.get(0).size());
+
+		target = new RecordingTarget();
+		buffer = new VertexWriteBuffer(target, 100, 50);
+		buffer.startAutoFlush();
+		buffer.updateProperty("1", "score", 1);
+		buffer.updateProperty("missing", "score", 1);
+		Thread.sleep(300);
+		assertEquals(1, target.writes.size());
+		assertEquals(1, buffer.getVertsFailed());
+		buffer.close();
+	}
+
+	/**
+	 * Tests that updates from a failed flush are kept, under newer ones.
+	 */
+	public void testFailedFlush() throws Exception
+	{
+		RecordingTarget target = new RecordingTarget();
+		VertexWriteBuffer buffer = new VertexWriteBuffer(target, 100, 60000);
+		buffer.update("1", props("score", 1, "source", "A"));
+		target.fail = true;
+		try{
+			buffer.flush();
+			fail("expected IOException");
+		}catch(IOException e){
+			//expected
+		}
+		assertEquals(1, buffer.getPendingCount());
+		buffer.update("1", props("score", 2, "source", "B"));
+		target.fail = false;
+		buffer.close();
+		Map<String, Object> written = target.writes.get(0).get("1");
+		assertEquals(2, written.get("score"));
+		assertEquals(Arrays.asList("A", "B"), written.get("source"));
+
+		//a flush sends VERT_BATCH_LIMIT vertices per write, and only the writes not done yet are kept.
+		target = new RecordingTarget();
+		buffer = new VertexWriteBuffer(target, 10000, 60000);
+		int count = DBConnection.VERT_BATCH_LIMIT * 2 + 1;
+		for(int i=0; i<count; i++){
+			buffer.update(String.valueOf(i), props("seenAt", 10));
+		}
+		target.failOnWrite = 1;
+		try{
+			buffer.flush();
+			fail("expected IOException");
+		}catch(IOException e){
+			//expected
+		}
+		assertEquals(1, target.writes.size());
+		assertEquals(DBConnection.VERT_BATCH_LIMIT, buffer.getVertsWritten());
+		assertEquals(count - DBConnection.VERT_BATCH_LIMIT, buffer.getPendingCount());
+		buffer.flush();
+		assertEquals(3, target.writes.size());
+		assertEquals(count, buffer.getVertsWritten());
+		assertEquals(Arrays.asList(10), target.writes.get(0).get("0").get("seenAt"));
+		assertFalse(target.writes.get(1).containsKey("0"));
+		assertEquals(Arrays.asList(10), target.writes.get(1).get(String.valueOf(DBConnection.VERT_BATCH_LIMIT)).get("seenAt"));
+	}
+}